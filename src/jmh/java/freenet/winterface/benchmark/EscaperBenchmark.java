@@ -0,0 +1,56 @@
+package freenet.winterface.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freenet.winterface.core.Escaper;
+import freenet.winterface.freenet.SyntheticFreenetInterface;
+
+/**
+ * {@link Escaper} on the strings templates escape most: bookmark paths, keys
+ * and alert texts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class EscaperBenchmark {
+
+	private final Escaper escaper = new Escaper();
+	private final String key = SyntheticFreenetInterface.randomUSK("site", new Random(1));
+	private final String bookmarkPath = "/Freenet related software and documentation/Freenet Message System";
+	private final String plainText = "Your node is running an older version of the content filter";
+	private final String markup = "Update <b>available</b> for \"Winterface\" & Freetalk";
+
+	@Benchmark
+	public String urlKey() {
+		return escaper.url("/", key);
+	}
+
+	@Benchmark
+	public String urlBookmarkPath() {
+		return escaper.url(bookmarkPath);
+	}
+
+	@Benchmark
+	public String textPlain() {
+		return escaper.text(plainText);
+	}
+
+	@Benchmark
+	public String textMarkup() {
+		return escaper.text(markup);
+	}
+}
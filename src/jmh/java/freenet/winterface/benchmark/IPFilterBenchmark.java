@@ -0,0 +1,108 @@
+package freenet.winterface.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freenet.winterface.core.IPFilter;
+
+/**
+ * {@link IPFilter#doFilter(ServletRequest, ServletResponse, FilterChain)} for
+ * allowed and blocked addresses, with a typical list of allowed hosts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class IPFilterBenchmark {
+
+	private final static String ALLOWED_HOSTS = "127.0.0.1,0:0:0:0:0:0:0:1,192.168.1.0/24,10.0.0.0/255.0.0.0,fe80::/10";
+
+	@Param({ "127.0.0.1", "0:0:0:0:0:0:0:1", "10.11.12.13", "172.16.0.1", "2001:db8::1" })
+	public String remoteAddress;
+
+	private final IPFilter filter = new IPFilter();
+	private ServletRequest request;
+	private ServletResponse response;
+	private final FilterChain chain = new FilterChain() {
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response) {
+		}
+	};
+
+	@Setup
+	public void init() throws ServletException {
+		filter.init(new FilterConfig() {
+			@Override
+			public String getFilterName() {
+				return "IPFilter";
+			}
+
+			@Override
+			public ServletContext getServletContext() {
+				return null;
+			}
+
+			@Override
+			public String getInitParameter(String name) {
+				return IPFilter.ALLOWED_HOSTS_PARAM.equals(name) ? ALLOWED_HOSTS : null;
+			}
+
+			@Override
+			public Enumeration<String> getInitParameterNames() {
+				return Collections.enumeration(Collections.singleton(IPFilter.ALLOWED_HOSTS_PARAM));
+			}
+		});
+		request = (ServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getServletPath")) {
+							return "/dashboard";
+						} else if (method.getName().equals("getRemoteAddr")) {
+							return remoteAddress;
+						}
+						return null;
+					}
+				});
+		// Blocked requests get an error sent, which is ignored here
+		response = (ServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+	}
+
+	@Benchmark
+	public void doFilter() throws Exception {
+		filter.doFilter(request, response, chain);
+	}
+}
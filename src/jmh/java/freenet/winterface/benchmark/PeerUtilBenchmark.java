@@ -0,0 +1,76 @@
+package freenet.winterface.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freenet.support.Base64;
+import freenet.winterface.core.PeerUtil;
+
+/**
+ * {@link PeerUtil} cleaning up pasted node references, e.g. quoted in a mail
+ * with extra blank lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class PeerUtilBenchmark {
+
+	@Param({ "1", "20" })
+	public int refCount;
+
+	private String refs;
+
+	@Setup
+	public void createRefs() {
+		Random random = new Random(1);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < refCount; i++) {
+			appendRef(text, i, random);
+		}
+		refs = text.toString();
+	}
+
+	private static void appendRef(StringBuilder text, int i, Random random) {
+		String[] fields = { "identity=" + base64(random, 32), "lastGoodVersion=Fred,0.7,1.0,1467", "myName=Node " + i,
+				"opennet=false", "physical.udp=10.0." + (i % 256) + ".1:" + (10000 + i), "sig=" + base64(random, 64),
+				"version=Fred,0.7,1.0,1467", "auth.negTypes=9;10", "ark.number=" + i, "ark.pubURI=SSK@" + base64(random, 32) + ","
+						+ base64(random, 32) + ",AQACAAE/ark", "dsaGroup.g=" + base64(random, 128), "dsaGroup.p=" + base64(random, 128),
+				"dsaGroup.q=" + base64(random, 20), "dsaPubKey.y=" + base64(random, 128) };
+		for (String field : fields) {
+			// Quoted and with trailing blanks, as often pasted
+			text.append("> ").append(field).append(" \r\n\r\n");
+		}
+		text.append("> End\n\n");
+	}
+
+	private static String base64(Random random, int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return Base64.encode(bytes);
+	}
+
+	@Benchmark
+	public String buildRefsFromString() {
+		return PeerUtil.buildRefsFromString(refs);
+	}
+
+	@Benchmark
+	public String[] buildAndSplitRefs() {
+		return PeerUtil.splitRefs(PeerUtil.buildRefsFromString(refs));
+	}
+}
@@ -0,0 +1,68 @@
+package freenet.winterface.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.QueueHelper;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.core.QueuePage;
+import freenet.winterface.core.QueueQuery;
+import freenet.winterface.core.QueueSortKey;
+
+/**
+ * Reading the queue: {@link QueueHelper} lists and a sorted page from the
+ * {@link QueueIndex}, against reconciling the index with all global requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class QueueBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int requestCount;
+
+	private RequestStatus[] requests;
+	private final QueueIndex index = new QueueIndex();
+
+	@Setup
+	public void createRequests() {
+		requests = SyntheticRequests.create(requestCount, 1);
+		index.replaceAll(requests);
+	}
+
+	@Benchmark
+	public QueueHelper queueHelperAll() {
+		return new QueueHelper(QueueHelper.DL_ALL | QueueHelper.UP_ALL, index);
+	}
+
+	@Benchmark
+	public List<RequestStatus> queueHelperUncompletedDownloads() {
+		return new QueueHelper(QueueHelper.DL_UC, index).getList(QueueHelper.DL_UC);
+	}
+
+	@Benchmark
+	public QueuePage indexPageBySize() {
+		return index.query(new QueueQuery(QueueHelper.DL_UC, QueueSortKey.SIZE, true, 0, 50));
+	}
+
+	@Benchmark
+	public void indexReconcile() {
+		index.replaceAll(requests);
+	}
+}
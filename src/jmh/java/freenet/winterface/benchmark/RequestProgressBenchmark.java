@@ -0,0 +1,48 @@
+package freenet.winterface.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.RequestProgress;
+
+/**
+ * {@link RequestProgress} of every request, as the queue page computes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class RequestProgressBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int requestCount;
+
+	private RequestStatus[] requests;
+
+	@Setup
+	public void createRequests() {
+		requests = SyntheticRequests.create(requestCount, 1);
+	}
+
+	@Benchmark
+	public void progressOfAll(Blackhole blackhole) {
+		for (RequestStatus request : requests) {
+			blackhole.consume(new RequestProgress(request));
+		}
+	}
+}
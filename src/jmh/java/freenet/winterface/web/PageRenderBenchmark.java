@@ -0,0 +1,151 @@
+package freenet.winterface.web;
+
+import java.io.CharArrayWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.context.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.benchmark.SyntheticRequests;
+import freenet.winterface.core.Routes;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.VelocityBase;
+import freenet.winterface.core.WinterfacePlugin;
+import freenet.winterface.freenet.FreenetInterface;
+import freenet.winterface.freenet.SyntheticFreenetInterface;
+
+/**
+ * Renders whole pages, from {@link VelocityBase#fillContext(Context, HttpServletRequest)}
+ * to the merged template, with templates cached as in deployment mode.
+ * <p>
+ * The pages are not run in a servlet container: they get a servlet context
+ * holding just the {@link FreenetInterface} and the {@link Routes}, and no
+ * request.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class PageRenderBenchmark {
+
+	/** Bookmarks per category */
+	private final static int ITEMS_PER_CATEGORY = 25;
+
+	@Param({ "Dashboard", "Bookmarks", "Alerts" })
+	public String page;
+
+	@Param({ "100", "500" })
+	public int bookmarkCount;
+
+	@Param({ "10", "200" })
+	public int alertCount;
+
+	private FreenetInterface freenetInterface;
+	private Routes routes;
+	private VelocityBase servlet;
+	private Method fillContext;
+	private Template template;
+	private final CharArrayWriter out = new CharArrayWriter(1 << 16);
+
+	@Setup
+	public void createPage() throws Exception {
+		WinterfacePlugin.initVelocity(false);
+		RequestStatus[] requests = SyntheticRequests.create(1000, 1);
+		freenetInterface = new SyntheticFreenetInterface(bookmarkCount / ITEMS_PER_CATEGORY, ITEMS_PER_CATEGORY, alertCount, requests, null);
+		routes = new Routes();
+		routes.initRoutes();
+
+		servlet = (VelocityBase) Class.forName(getClass().getPackage().getName() + "." + page).newInstance();
+		// What GenericServlet.init(ServletConfig) does, without starting a VelocityView
+		Field config = GenericServlet.class.getDeclaredField("config");
+		config.setAccessible(true);
+		config.set(servlet, createServletConfig());
+		fillContext = VelocityBase.class.getDeclaredMethod("fillContext", Context.class, HttpServletRequest.class);
+		fillContext.setAccessible(true);
+		template = Velocity.getTemplate(VelocityBase.TEMPLATE_PATH + "index.vm");
+	}
+
+	@TearDown(Level.Trial)
+	public void terminate() {
+		freenetInterface.terminate();
+	}
+
+	@Benchmark
+	public int render() throws Exception {
+		VelocityContext context = new VelocityContext();
+		context.put(ServerManager.FREENET_INTERFACE, freenetInterface);
+		context.put(ServerManager.WINTERFACE_ROUTES, routes);
+		fillContext.invoke(servlet, context, null);
+		out.reset();
+		template.merge(context, out);
+		return out.size();
+	}
+
+	private ServletConfig createServletConfig() {
+		final ServletContext servletContext = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getAttribute")) {
+							if (ServerManager.FREENET_INTERFACE.equals(args[0])) {
+								return freenetInterface;
+							} else if (ServerManager.WINTERFACE_ROUTES.equals(args[0])) {
+								return routes;
+							}
+						}
+						return null;
+					}
+				});
+		return new ServletConfig() {
+			@Override
+			public String getServletName() {
+				return page;
+			}
+
+			@Override
+			public ServletContext getServletContext() {
+				return servletContext;
+			}
+
+			@Override
+			public String getInitParameter(String name) {
+				return null;
+			}
+
+			@Override
+			public Enumeration<String> getInitParameterNames() {
+				return Collections.enumeration(Collections.<String> emptyList());
+			}
+		};
+	}
+}
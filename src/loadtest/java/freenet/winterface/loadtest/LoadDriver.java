@@ -0,0 +1,325 @@
+package freenet.winterface.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+
+import freenet.winterface.core.Routes;
+import freenet.winterface.freenet.SyntheticFreenetInterface;
+import freenet.winterface.web.BookmarksBulk;
+import freenet.winterface.web.Events;
+import freenet.winterface.web.Root;
+
+/**
+ * Sends GET requests to all routes of {@link Routes} from a number of threads
+ * and reports requests per second and latency percentiles per route:
+ *
+ * <pre>
+ * mvn -P loadtest test-compile exec:exec -Dloadtest.args="concurrency=32 duration=60"
+ * </pre>
+ * <p>
+ * Without a {@code target} the driver starts an {@link OfflineWinterface} in
+ * the same JVM and takes its options too. Its own options, as
+ * {@code name=value}:
+ * </p>
+ * <ul>
+ * <li>{@code target}: base URL of a running Winterface, e.g.
+ * {@code http://127.0.0.1:8089}</li>
+ * <li>{@code concurrency}: number of threads sending requests, each waiting
+ * for its answer before sending the next</li>
+ * <li>{@code warmup}, {@code duration}: seconds before and of measuring</li>
+ * <li>{@code routes}: comma separated names of the routes to request, all by
+ * default</li>
+ * <li>{@code keys}: number of different CHKs and USKs requested through
+ * {@link Root}</li>
+ * <li>{@code seed}: seed of the keys and of the order of requests</li>
+ * </ul>
+ * <p>
+ * Redirects are not followed, they count as answers. Answers with a status of
+ * 400 or more and failed connections count as errors, their latency is not
+ * recorded.
+ * </p>
+ */
+public class LoadDriver {
+
+	private final String target;
+	private final List<Route> routes;
+	private final int concurrency;
+	private final long warmupMillis;
+	private final long durationMillis;
+	private final long seed;
+
+	/**
+	 * A path requested under the name of its route.
+	 */
+	private static class Route {
+		final String name;
+		final String[] paths;
+
+		Route(String name, String... paths) {
+			this.name = name;
+			this.paths = paths;
+		}
+	}
+
+	LoadDriver(String target, Options options) throws IllegalArgumentException {
+		this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+		concurrency = options.getInt("concurrency", 16);
+		warmupMillis = TimeUnit.SECONDS.toMillis(options.getLong("warmup", 5));
+		durationMillis = TimeUnit.SECONDS.toMillis(options.getLong("duration", 30));
+		seed = options.getLong("seed", 1);
+		routes = createRoutes(options.getInt("keys", 16), options.getString("routes", null));
+		if (concurrency <= 0 || durationMillis <= 0 || routes.isEmpty()) {
+			throw new IllegalArgumentException("Nothing to do");
+		}
+	}
+
+	private List<Route> createRoutes(int keyCount, String included) throws IllegalArgumentException {
+		Routes winterfaceRoutes = new Routes();
+		winterfaceRoutes.initRoutes();
+		List<Route> all = new ArrayList<Route>();
+		for (Class<? extends HttpServlet> servletClass : winterfaceRoutes.getServletClasses()) {
+			if (servletClass == BookmarksBulk.class || servletClass == Events.class) {
+				// Not answered to a plain GET
+				continue;
+			}
+			String name = servletClass.getSimpleName();
+			String path = winterfaceRoutes.getPathFor(servletClass);
+			if (servletClass == Root.class) {
+				all.add(new Route(name, path + "/"));
+				Random random = new Random(seed);
+				String[] chks = new String[keyCount];
+				String[] usks = new String[keyCount];
+				for (int i = 0; i < keyCount; i++) {
+					chks[i] = path + "/" + SyntheticFreenetInterface.randomCHK("file" + i + ".html", random);
+					usks[i] = path + "/" + SyntheticFreenetInterface.randomUSK("site" + i, random) + "index.html";
+				}
+				all.add(new Route(name + " CHK", chks));
+				all.add(new Route(name + " USK", usks));
+			} else {
+				all.add(new Route(name, path));
+			}
+		}
+		Collections.sort(all, new Comparator<Route>() {
+			@Override
+			public int compare(Route o1, Route o2) {
+				return o1.name.compareTo(o2.name);
+			}
+		});
+		if (included == null) {
+			return all;
+		}
+		Set<String> names = new HashSet<String>(Arrays.asList(included.split(",")));
+		List<Route> result = new ArrayList<Route>();
+		for (Route route : all) {
+			if (names.remove(route.name)) {
+				result.add(route);
+			}
+		}
+		if (!names.isEmpty()) {
+			throw new IllegalArgumentException("Unknown routes " + names);
+		}
+		return result;
+	}
+
+	/**
+	 * Sends requests for the warmup and the duration.
+	 *
+	 * @return latencies in microseconds and errors per route, in the order of
+	 *         {@link #routes}
+	 */
+	Recorder[] run() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		final long measureFrom = start + warmupMillis;
+		final long end = measureFrom + durationMillis;
+		Worker[] workers = new Worker[concurrency];
+		for (int i = 0; i < concurrency; i++) {
+			workers[i] = new Worker(i, measureFrom, end);
+			workers[i].start();
+		}
+		Recorder[] total = new Recorder[routes.size()];
+		for (int i = 0; i < total.length; i++) {
+			total[i] = new Recorder();
+		}
+		for (Worker worker : workers) {
+			worker.join();
+			for (int i = 0; i < total.length; i++) {
+				total[i].addAll(worker.recorders[i]);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Requests random routes one after the other.
+	 */
+	private class Worker extends Thread {
+		final Recorder[] recorders = new Recorder[routes.size()];
+		private final Random random;
+		private final long measureFrom;
+		private final long end;
+		private final byte[] buffer = new byte[16 << 10];
+
+		Worker(int number, long measureFrom, long end) {
+			super("Load driver " + number);
+			random = new Random(seed + number);
+			this.measureFrom = measureFrom;
+			this.end = end;
+			for (int i = 0; i < recorders.length; i++) {
+				recorders[i] = new Recorder();
+			}
+		}
+
+		@Override
+		public void run() {
+			long now;
+			while ((now = System.currentTimeMillis()) < end) {
+				int index = random.nextInt(routes.size());
+				String[] paths = routes.get(index).paths;
+				String path = paths[random.nextInt(paths.length)];
+				long started = System.nanoTime();
+				boolean ok = request(path);
+				long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+				if (now >= measureFrom) {
+					if (ok) {
+						recorders[index].record(micros);
+					} else {
+						recorders[index].errors++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return {@code true} if an answer below 400 was read completely
+		 */
+		private boolean request(String path) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(target + path).openConnection();
+				connection.setInstanceFollowRedirects(false);
+				connection.setConnectTimeout(10000);
+				connection.setReadTimeout(60000);
+				int status = connection.getResponseCode();
+				// Read to the end, so the connection is reused
+				InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+				if (in != null) {
+					try {
+						while (in.read(buffer) != -1) {
+							// Discard
+						}
+					} finally {
+						in.close();
+					}
+				}
+				return status < 400;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Latencies of one route. Used by one thread at a time.
+	 */
+	static class Recorder {
+		private long[] latencies = new long[1024];
+		private int count;
+		int errors;
+
+		void record(long micros) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = micros;
+		}
+
+		void addAll(Recorder other) {
+			for (int i = 0; i < other.count; i++) {
+				record(other.latencies[i]);
+			}
+			errors += other.errors;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the latency not exceeded by the given share of requests, in
+		 *         microseconds; {@code 0} if none was recorded
+		 */
+		long getPercentile(double share) {
+			if (count == 0) {
+				return 0;
+			}
+			Arrays.sort(latencies, 0, count);
+			int index = (int) Math.ceil(share * count) - 1;
+			return latencies[Math.max(0, Math.min(count - 1, index))];
+		}
+	}
+
+	private void report(Recorder[] recorders) {
+		double seconds = durationMillis / 1000.0;
+		System.out.println(String.format("%-22s %9s %7s %9s %9s %9s %9s %9s", "route", "requests", "errors", "req/s", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms"));
+		Recorder total = new Recorder();
+		for (int i = 0; i < recorders.length; i++) {
+			printLine(routes.get(i).name, recorders[i], seconds);
+			total.addAll(recorders[i]);
+		}
+		printLine("all", total, seconds);
+	}
+
+	private static void printLine(String name, Recorder recorder, double seconds) {
+		System.out.println(String.format("%-22s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f", name, recorder.getCount(), recorder.errors,
+				(recorder.getCount() + recorder.errors) / seconds, recorder.getPercentile(0.5) / 1000.0, recorder.getPercentile(0.99) / 1000.0,
+				recorder.getPercentile(0.999) / 1000.0, recorder.getPercentile(1) / 1000.0));
+	}
+
+	public static void main(String[] args) throws Exception {
+		OfflineWinterface winterface = null;
+		LoadDriver driver;
+		try {
+			Options options = new Options(args);
+			String target = options.getString("target", null);
+			if (target == null) {
+				winterface = new OfflineWinterface(options);
+				target = "http://" + winterface.getHost() + ":" + winterface.getPort();
+			}
+			driver = new LoadDriver(target, options);
+			options.checkAllUsed();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		if (winterface != null) {
+			winterface.start(30, TimeUnit.SECONDS);
+		}
+		try {
+			System.out.println("Load on " + driver.target + " from " + driver.concurrency + " threads for "
+					+ TimeUnit.MILLISECONDS.toSeconds(driver.durationMillis) + " s, after " + TimeUnit.MILLISECONDS.toSeconds(driver.warmupMillis)
+					+ " s warmup");
+			driver.report(driver.run());
+			if (winterface != null) {
+				System.out.println("Fetches reaching the made up node: " + winterface.getFetcher().getStartedFetches());
+			}
+		} finally {
+			if (winterface != null) {
+				winterface.stop();
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package freenet.winterface.loadtest;
+
+import freenet.winterface.core.Configuration;
+
+/**
+ * {@link Configuration} taken from the command line instead of the node's
+ * config. Defaults are the ones of the plugin, except for the port.
+ */
+class OfflineConfiguration extends Configuration {
+
+	/** Default port, next to the one of a Winterface plugin running on the node */
+	final static int PORT_DEFAULT = 8089;
+
+	private final int port;
+	private final String bindTo;
+	private final String allowedHosts;
+	private final boolean nioConnector;
+	private final int minThreads;
+	private final int maxThreads;
+	private final int maxQueued;
+	private final int acceptors;
+	private final int idleTimeout;
+	private final int statusInterval;
+	private final boolean traceFetches;
+	private final long rangeCacheSize;
+
+	OfflineConfiguration(Options options) throws IllegalArgumentException {
+		port = options.getInt("port", PORT_DEFAULT);
+		bindTo = options.getString("bindTo", "127.0.0.1");
+		allowedHosts = options.getString("allowedHosts", "127.0.0.1,0:0:0:0:0:0:0:1");
+		nioConnector = options.getBoolean("nio", true);
+		minThreads = options.getInt("minThreads", 4);
+		maxThreads = options.getInt("maxThreads", 32);
+		maxQueued = options.getInt("maxQueued", 256);
+		acceptors = options.getInt("acceptors", 1);
+		idleTimeout = options.getInt("idleTimeout", 30000);
+		statusInterval = options.getInt("statusInterval", 2000);
+		traceFetches = options.getBoolean("traceFetches", false);
+		rangeCacheSize = options.getLong("rangeCacheSize", 64L << 20);
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public String getBindToHosts() {
+		return bindTo;
+	}
+
+	@Override
+	public String getAllowedHosts() {
+		return allowedHosts;
+	}
+
+	@Override
+	public String getFullAccessHosts() {
+		return allowedHosts;
+	}
+
+	@Override
+	public boolean isNioConnector() {
+		return nioConnector;
+	}
+
+	@Override
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	@Override
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	@Override
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	@Override
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	@Override
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	@Override
+	public int getStatusInterval() {
+		return statusInterval;
+	}
+
+	@Override
+	public boolean isTraceFetches() {
+		return traceFetches;
+	}
+
+	@Override
+	public long getRangeCacheSize() {
+		return rangeCacheSize;
+	}
+}
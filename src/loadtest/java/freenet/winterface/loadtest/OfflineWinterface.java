@@ -0,0 +1,174 @@
+package freenet.winterface.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.benchmark.SyntheticRequests;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.WinterfacePlugin;
+import freenet.winterface.freenet.CachingFreenetInterface;
+import freenet.winterface.freenet.CachingFreenetURIFetcher;
+import freenet.winterface.freenet.FreenetInterface;
+import freenet.winterface.freenet.FreenetURIFetcher;
+import freenet.winterface.freenet.ScriptedFreenetURIFetcher;
+import freenet.winterface.freenet.ScriptedFreenetURIFetcher.Script;
+import freenet.winterface.freenet.SyntheticFreenetInterface;
+
+/**
+ * Runs Winterface without a node, on made up bookmarks, alerts, requests and
+ * files, so its throughput can be measured reproducibly:
+ *
+ * <pre>
+ * mvn -P loadtest test-compile exec:exec -Dloadtest.main=freenet.winterface.loadtest.OfflineWinterface -Dloadtest.args="latency=500 size=1048576"
+ * </pre>
+ * <p>
+ * Options, as {@code name=value}:
+ * </p>
+ * <ul>
+ * <li>{@code port}, {@code bindTo}, {@code allowedHosts}, {@code nio},
+ * {@code minThreads}, {@code maxThreads}, {@code maxQueued},
+ * {@code acceptors}, {@code idleTimeout}, {@code statusInterval},
+ * {@code traceFetches}, {@code rangeCacheSize}: server settings, see {@link OfflineConfiguration}</li>
+ * <li>{@code categories}, {@code items}: bookmark categories and bookmarks per
+ * category</li>
+ * <li>{@code alerts}, {@code requests}: number of alerts and global requests</li>
+ * <li>{@code latency}, {@code jitter}: milliseconds a fetch takes, plus up to
+ * {@code jitter} at random</li>
+ * <li>{@code size}, {@code mimeType}: the fetched files</li>
+ * <li>{@code failureRate}: share of failing fetches, {@code 0} to {@code 1}</li>
+ * <li>{@code fetchCache}: {@code false} to serve CHKs and SSKs without the
+ * fetch cache</li>
+ * <li>{@code devMode}: {@code true} to parse templates on each use</li>
+ * <li>{@code seed}: seed of all made up data</li>
+ * </ul>
+ */
+public class OfflineWinterface {
+
+	private final OfflineConfiguration config;
+	private final boolean devMode;
+	private final ScriptedFreenetURIFetcher scriptedFetcher;
+	private final FreenetInterface freenetInterface;
+	private final ServerManager serverManager = new ServerManager();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if an option is invalid
+	 */
+	OfflineWinterface(Options options) throws IllegalArgumentException {
+		config = new OfflineConfiguration(options);
+		devMode = options.getBoolean("devMode", false);
+		long seed = options.getLong("seed", 1);
+		Script script = new Script(options.getLong("latency", 200), options.getLong("jitter", 100), options.getInt("size", 64 << 10),
+				options.getString("mimeType", "text/html"), options.getDouble("failureRate", 0));
+		scriptedFetcher = new ScriptedFreenetURIFetcher(script, 4, seed);
+		FreenetURIFetcher uriFetcher = scriptedFetcher;
+		if (options.getBoolean("fetchCache", true)) {
+			uriFetcher = new CachingFreenetURIFetcher(scriptedFetcher);
+		}
+		RequestStatus[] requests = SyntheticRequests.create(options.getInt("requests", 1000), seed);
+		SyntheticFreenetInterface synthetic = new SyntheticFreenetInterface(options.getInt("categories", 20), options.getInt("items", 25),
+				options.getInt("alerts", 50), requests, uriFetcher);
+		// As in the plugin
+		freenetInterface = new CachingFreenetInterface(synthetic, config);
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	int getPort() {
+		return config.getPort();
+	}
+
+	/**
+	 * @return the first address the server is bound to
+	 */
+	String getHost() {
+		return config.getBindToHosts().split(",")[0];
+	}
+
+	/**
+	 * @return the fetcher making up the files, e.g. to change its script
+	 */
+	ScriptedFreenetURIFetcher getFetcher() {
+		return scriptedFetcher;
+	}
+
+	/**
+	 * Runs the server until it is stopped.
+	 */
+	void run() {
+		WinterfacePlugin.initVelocity(devMode);
+		serverManager.startServer(devMode, config, freenetInterface, null);
+	}
+
+	/**
+	 * Runs the server on a new thread and returns once it accepts connections.
+	 *
+	 * @throws IOException
+	 *             if the server did not accept connections in time
+	 */
+	void start(long timeout, TimeUnit unit) throws IOException {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				OfflineWinterface.this.run();
+			}
+		}, "Offline Winterface");
+		thread.setDaemon(true);
+		thread.start();
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (true) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(getHost(), getPort()), 1000);
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline || !thread.isAlive()) {
+					throw new IOException("Server did not start on port " + getPort(), e);
+				}
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the server");
+				}
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops the server and the made up fetches.
+	 */
+	void stop() {
+		serverManager.terminateServer();
+		freenetInterface.terminate();
+		scriptedFetcher.terminate();
+	}
+
+	public static void main(String[] args) {
+		OfflineWinterface winterface;
+		try {
+			Options options = new Options(args);
+			winterface = new OfflineWinterface(options);
+			options.checkAllUsed();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		final OfflineWinterface stoppable = winterface;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				stoppable.stop();
+			}
+		});
+		System.out.println("Offline Winterface on http://" + winterface.getHost() + ":" + winterface.getPort() + "/");
+		winterface.run();
+	}
+}
@@ -0,0 +1,83 @@
+package freenet.winterface.loadtest;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Command line options of the form {@code name=value}. Each option is looked
+ * up with a default; options given but never looked up are reported by
+ * {@link #checkAllUsed()}, so typos don't go unnoticed.
+ */
+class Options {
+
+	private final Map<String, String> values = new LinkedHashMap<String, String>();
+	private final Set<String> used = new HashSet<String>();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if an argument is not of the form {@code name=value}
+	 */
+	Options(String[] args) throws IllegalArgumentException {
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			values.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+	}
+
+	String getString(String name, String defaultValue) {
+		used.add(name);
+		String value = values.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	int getInt(String name, int defaultValue) throws IllegalArgumentException {
+		return (int) getLong(name, defaultValue);
+	}
+
+	long getLong(String name, long defaultValue) throws IllegalArgumentException {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + name + "=" + value);
+		}
+	}
+
+	double getDouble(String name, double defaultValue) throws IllegalArgumentException {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + name + "=" + value);
+		}
+	}
+
+	boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             naming the first option that was given but not looked up
+	 */
+	void checkAllUsed() throws IllegalArgumentException {
+		for (Entry<String, String> entry : values.entrySet()) {
+			if (!used.contains(entry.getKey())) {
+				throw new IllegalArgumentException("Unknown option " + entry.getKey());
+			}
+		}
+	}
+}
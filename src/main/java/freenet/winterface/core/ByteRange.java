@@ -0,0 +1,132 @@
+package freenet.winterface.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of an HTTP {@code Range} request header (see RFC
+ * 2616, section 14.35).
+ * <p>
+ * Use {@link #parse(String, long)} to turn a header value into the ranges to
+ * send for an entity of known length.
+ * </p>
+ *
+ * @see RequestsUtil#HEADER_RANGE
+ */
+public final class ByteRange {
+
+	/** Unit prefix of a byte range set */
+	private final static String BYTES_UNIT = "bytes=";
+	/**
+	 * Upper bound for ranges in one header. Larger sets are ignored (answered
+	 * with the full entity) as they are most likely abusive.
+	 */
+	public final static int MAX_RANGES = 16;
+
+	/** First byte of range (inclusive) */
+	public final long first;
+	/** Last byte of range (inclusive) */
+	public final long last;
+
+	private ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * @return number of bytes in this range
+	 */
+	public long length() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @param entityLength
+	 *            total length of the entity
+	 * @return value for the {@code Content-Range} header
+	 */
+	public String toContentRange(long entityLength) {
+		return "bytes " + first + "-" + last + "/" + entityLength;
+	}
+
+	/**
+	 * @param entityLength
+	 *            total length of the entity
+	 * @return value for the {@code Content-Range} header of a 416 response
+	 */
+	public static String unsatisfiableContentRange(long entityLength) {
+		return "bytes */" + entityLength;
+	}
+
+	/**
+	 * Parses a {@code Range} header value.
+	 *
+	 * @param header
+	 *            value of the header, may be {@code null}
+	 * @param entityLength
+	 *            total length of the entity in bytes
+	 * @return {@code null} if the header is missing, malformed or too complex
+	 *         (the full entity should be sent then), an empty list if no range
+	 *         is satisfiable (416), otherwise the satisfiable ranges in the
+	 *         order they were requested
+	 */
+	public static List<ByteRange> parse(String header, long entityLength) {
+		if (header == null) {
+			return null;
+		}
+		header = header.trim();
+		if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+			return null;
+		}
+		String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			String firstPart = spec.substring(0, dash).trim();
+			String lastPart = spec.substring(dash + 1).trim();
+			long first;
+			long last;
+			try {
+				if (firstPart.isEmpty()) {
+					// Suffix range: the last n bytes
+					long suffix = Long.parseLong(lastPart);
+					if (suffix < 0) {
+						return null;
+					}
+					if (suffix == 0 || entityLength == 0) {
+						continue;
+					}
+					first = Math.max(0, entityLength - suffix);
+					last = entityLength - 1;
+				} else {
+					first = Long.parseLong(firstPart);
+					last = lastPart.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastPart);
+					if (first < 0 || last < first) {
+						return null;
+					}
+					if (first >= entityLength) {
+						continue;
+					}
+					last = Math.min(last, entityLength - 1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			ranges.add(new ByteRange(first, last));
+		}
+		return ranges.isEmpty() ? Collections.<ByteRange> emptyList() : ranges;
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+}
@@ -36,6 +36,22 @@ public class Configuration {
 	private String bindTo;
 	/** Maximum size for transparent pass-through */
 	private long maxLength;
+	/** If the non-blocking connector is used */
+	private boolean nioConnector;
+	/** Minimum server threads */
+	private int minThreads;
+	/** Maximum server threads */
+	private int maxThreads;
+	/** Maximum requests waiting for a thread */
+	private int maxQueued;
+	/** Acceptor threads per connector */
+	private int acceptors;
+	/** Milliseconds the node status shown on pages is reused */
+	private volatile int statusInterval;
+	/** If the phases of fetches are traced */
+	private volatile boolean traceFetches;
+	/** Maximum bytes of fetched files kept to answer range requests */
+	private long rangeCacheSize;
 
 	/** Default server port value */
 	private final static int PORT_DEFAULT = 8088;
@@ -72,6 +88,51 @@ public class Configuration {
 	/** MaxLength entry name in config file */
 	private final static String MAXLENGTH_OPTION = "maxLength";
 
+	/**
+	 * Default connector mode. The non-blocking connector needs no thread for
+	 * idle connections and suspended requests.
+	 */
+	private final static boolean NIO_CONNECTOR_DEFAULT = true;
+	/** Connector mode entry name in config file */
+	private final static String NIO_CONNECTOR_OPTION = "nioConnector";
+
+	/** Default minimum server threads */
+	private final static int MIN_THREADS_DEFAULT = 4;
+	/** Minimum server threads entry name in config file */
+	private final static String MIN_THREADS_OPTION = "minThreads";
+
+	/** Default maximum server threads */
+	private final static int MAX_THREADS_DEFAULT = 32;
+	/** Maximum server threads entry name in config file */
+	private final static String MAX_THREADS_OPTION = "maxThreads";
+	/** Server threads left for requests besides acceptors and selectors */
+	private final static int MIN_REQUEST_THREADS = 4;
+
+	/** Default maximum requests waiting for a thread */
+	private final static int MAX_QUEUED_DEFAULT = 256;
+	/** Maximum waiting requests entry name in config file */
+	private final static String MAX_QUEUED_OPTION = "maxQueued";
+
+	/** Default acceptor threads per connector */
+	private final static int ACCEPTORS_DEFAULT = 1;
+	/** Acceptor threads entry name in config file */
+	private final static String ACCEPTORS_OPTION = "acceptors";
+
+	/** Default milliseconds the node status is reused */
+	private final static int STATUS_INTERVAL_DEFAULT = 2000;
+	/** Status interval entry name in config file */
+	private final static String STATUS_INTERVAL_OPTION = "statusInterval";
+
+	/** Default fetch tracing, off as it costs a little on every fetch */
+	private final static boolean TRACE_FETCHES_DEFAULT = false;
+	/** Fetch tracing entry name in config file */
+	private final static String TRACE_FETCHES_OPTION = "traceFetches";
+
+	/** Default maximum bytes of files kept for range requests */
+	private final static long RANGE_CACHE_SIZE_DEFAULT = 64L << 20;
+	/** Range cache size entry name in config file */
+	private final static String RANGE_CACHE_SIZE_OPTION = "rangeCacheSize";
+
 	/**
 	 * {@link ConfigCallback} for gate public way mode
 	 * 
@@ -220,6 +281,177 @@ public class Configuration {
 
 	}
 
+	/**
+	 * {@link ConfigCallback} for connector mode
+	 * 
+	 */
+	class NioConnectorOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return nioConnector;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException, NodeNeedRestartException {
+			nioConnector = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for minimum server threads
+	 * 
+	 */
+	class MinThreadsOption extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return minThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1) {
+				throw new InvalidConfigValueException("At least one thread is needed.");
+			}
+			minThreads = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum server threads
+	 * 
+	 */
+	class MaxThreadsOption extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxThreads;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			int needed = getMaxThreadsNeeded();
+			if (val < needed) {
+				throw new InvalidConfigValueException("At least " + needed + " threads are needed: " + MIN_REQUEST_THREADS
+						+ " for requests and the rest to accept connections.");
+			}
+			maxThreads = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum requests waiting for a thread
+	 * 
+	 */
+	class MaxQueuedOption extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return maxQueued;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1) {
+				throw new InvalidConfigValueException("At least one request must be able to wait.");
+			}
+			maxQueued = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for milliseconds the node status is reused
+	 * 
+	 */
+	class StatusIntervalOption extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return statusInterval;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Interval must not be negative.");
+			}
+			statusInterval = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for fetch tracing
+	 * 
+	 */
+	class TraceFetchesOption extends BooleanCallback {
+
+		@Override
+		public Boolean get() {
+			return traceFetches;
+		}
+
+		@Override
+		public void set(Boolean val) throws InvalidConfigValueException {
+			traceFetches = val;
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for maximum bytes of files kept for range
+	 * requests
+	 * 
+	 */
+	class RangeCacheSizeOption extends LongCallback {
+
+		@Override
+		public Long get() {
+			return rangeCacheSize;
+		}
+
+		@Override
+		public void set(Long val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 0) {
+				throw new InvalidConfigValueException("Size must not be negative.");
+			}
+			rangeCacheSize = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
+	/**
+	 * {@link ConfigCallback} for acceptor threads per connector
+	 * 
+	 */
+	class AcceptorsOption extends IntCallback {
+
+		@Override
+		public Integer get() {
+			return acceptors;
+		}
+
+		@Override
+		public void set(Integer val) throws InvalidConfigValueException, NodeNeedRestartException {
+			if (val < 1) {
+				throw new InvalidConfigValueException("At least one acceptor is needed.");
+			}
+			acceptors = val;
+			throw new NodeNeedRestartException("Winterface server needs to be restarted.");
+		}
+
+	}
+
 	/**
 	 * Initializes {@link SubConfig} passed by Freenet before
 	 * {@link WinterfacePlugin} starts
@@ -249,6 +481,30 @@ public class Configuration {
 		subConfig.register(MAXLENGTH_OPTION, MAXLENGTH_DEFAULT, ++sortOrder, true, false, shortDesc(MAXLENGTH_OPTION), longDesc(MAXLENGTH_OPTION),
 				new MaxLength(), false);
 		maxLength = subConfig.getLong(MAXLENGTH_OPTION);
+		subConfig.register(NIO_CONNECTOR_OPTION, NIO_CONNECTOR_DEFAULT, ++sortOrder, true, false, shortDesc(NIO_CONNECTOR_OPTION),
+				longDesc(NIO_CONNECTOR_OPTION), new NioConnectorOption());
+		nioConnector = subConfig.getBoolean(NIO_CONNECTOR_OPTION);
+		subConfig.register(MIN_THREADS_OPTION, MIN_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MIN_THREADS_OPTION), longDesc(MIN_THREADS_OPTION),
+				new MinThreadsOption(), false);
+		minThreads = subConfig.getInt(MIN_THREADS_OPTION);
+		subConfig.register(MAX_THREADS_OPTION, MAX_THREADS_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_THREADS_OPTION), longDesc(MAX_THREADS_OPTION),
+				new MaxThreadsOption(), false);
+		maxThreads = subConfig.getInt(MAX_THREADS_OPTION);
+		subConfig.register(MAX_QUEUED_OPTION, MAX_QUEUED_DEFAULT, ++sortOrder, true, false, shortDesc(MAX_QUEUED_OPTION), longDesc(MAX_QUEUED_OPTION),
+				new MaxQueuedOption(), false);
+		maxQueued = subConfig.getInt(MAX_QUEUED_OPTION);
+		subConfig.register(ACCEPTORS_OPTION, ACCEPTORS_DEFAULT, ++sortOrder, true, false, shortDesc(ACCEPTORS_OPTION), longDesc(ACCEPTORS_OPTION),
+				new AcceptorsOption(), false);
+		acceptors = subConfig.getInt(ACCEPTORS_OPTION);
+		subConfig.register(STATUS_INTERVAL_OPTION, STATUS_INTERVAL_DEFAULT, ++sortOrder, true, false, shortDesc(STATUS_INTERVAL_OPTION),
+				longDesc(STATUS_INTERVAL_OPTION), new StatusIntervalOption(), false);
+		statusInterval = subConfig.getInt(STATUS_INTERVAL_OPTION);
+		subConfig.register(TRACE_FETCHES_OPTION, TRACE_FETCHES_DEFAULT, ++sortOrder, true, false, shortDesc(TRACE_FETCHES_OPTION),
+				longDesc(TRACE_FETCHES_OPTION), new TraceFetchesOption());
+		traceFetches = subConfig.getBoolean(TRACE_FETCHES_OPTION);
+		subConfig.register(RANGE_CACHE_SIZE_OPTION, RANGE_CACHE_SIZE_DEFAULT, ++sortOrder, true, false, shortDesc(RANGE_CACHE_SIZE_OPTION),
+				longDesc(RANGE_CACHE_SIZE_OPTION), new RangeCacheSizeOption(), true);
+		rangeCacheSize = subConfig.getLong(RANGE_CACHE_SIZE_OPTION);
 	}
 
 	/**
@@ -335,6 +591,94 @@ public class Configuration {
 	public long getMaxLength() {
 		return maxLength;
 	}
+
+	/**
+	 * {@code true} if the server uses the non-blocking connector
+	 * 
+	 * @return {@code false} if the blocking connector is used
+	 */
+	public boolean isNioConnector() {
+		return nioConnector;
+	}
+
+	/**
+	 * Returns minimum number of server threads
+	 * 
+	 * @return minimum threads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Returns maximum number of server threads
+	 * 
+	 * @return maximum threads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Returns the lowest maximum number of server threads that still leaves
+	 * threads for requests. Each connector holds its acceptor threads, and
+	 * the non-blocking connector a selector thread per acceptor as well.
+	 * 
+	 * @return lowest useful maximum threads
+	 */
+	public int getMaxThreadsNeeded() {
+		String hosts = getBindToHosts();
+		int connectors = hosts == null ? 1 : hosts.split(",").length;
+		int perConnector = isNioConnector() ? 2 * getAcceptors() : getAcceptors();
+		return connectors * perConnector + MIN_REQUEST_THREADS;
+	}
+
+	/**
+	 * Returns maximum number of requests waiting for a server thread
+	 * 
+	 * @return maximum waiting requests
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Returns number of acceptor threads per connector
+	 * 
+	 * @return acceptor threads
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Returns milliseconds the node status shown on pages is reused before
+	 * asking the node again
+	 * 
+	 * @return status interval
+	 */
+	public int getStatusInterval() {
+		return statusInterval;
+	}
+
+	/**
+	 * {@code true} if the phases of fetches made for pages are traced
+	 * 
+	 * @return {@code false} if fetches are not traced
+	 */
+	public boolean isTraceFetches() {
+		return traceFetches;
+	}
+
+	/**
+	 * Returns maximum bytes of fetched files kept to answer range requests.
+	 * Larger files are fetched again for each request.
+	 * 
+	 * @return range cache size
+	 */
+	public long getRangeCacheSize() {
+		return rangeCacheSize;
+	}
 	
 	/**
 	 * Checks a comma separated list of hosts (IPs) for validity.
@@ -2,9 +2,6 @@ package freenet.winterface.core;
 
 import org.apache.velocity.tools.generic.EscapeTool;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-
 /**
  * Provides methods to escape user-supplied text.
  *
@@ -13,6 +10,42 @@ import java.net.URLEncoder;
 public class Escaper {
     private static final EscapeTool ESCAPE_TOOL = new EscapeTool();
 
+    /**
+     * ASCII characters {@link #url(String...)} leaves alone: those
+     * {@link java.net.URLEncoder} leaves alone, and those allowed in a URL path or query.
+     */
+    private static final boolean[] URL_SAFE = new boolean[128];
+    /** ASCII characters {@link EscapeTool#html(Object)} replaces */
+    private static final boolean[] HTML_SPECIAL = new boolean[128];
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    /** Buffers grown beyond this many characters are not kept */
+    private static final int MAX_BUFFER_SIZE = 8192;
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            URL_SAFE[c] = true;
+        }
+        for (char c : ".-*_!&'(),/~:=?".toCharArray()) {
+            URL_SAFE[c] = true;
+        }
+        for (char c : "&<>\"".toCharArray()) {
+            HTML_SPECIAL[c] = true;
+        }
+    }
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
     /**
      * Constructs a new escaper. This escaper does not keep state and is thread-safe.
      */
@@ -21,45 +54,92 @@ public class Escaper {
     
     /**
      * URL-encode an url. For use in e.g. {@code <a href="…"></a>}.
+     * <p>
+     * Characters are encoded as UTF-8, except for letters, digits and {@code .-*_!&'(),/~:=?}.
+     * Unpaired surrogates become {@code ?}.
      * @param url URL parts ({@code null} values are skipped)
      * @return The concatenated and URL-encoded URL, or {@code null} if all parts are {@code null}.
      */
-    public String url(String... url) throws UnsupportedEncodingException {
-        boolean onlyNull = true;
-        StringBuilder sb = new StringBuilder();
-        for (String s : url) {
-            if (s != null) {
-                sb.append(s);
-                onlyNull = false;
+    public String url(String... url) {
+        String text;
+        if (url.length == 1) {
+            text = url[0];
+        } else {
+            // A surrogate pair may be split between parts
+            boolean onlyNull = true;
+            StringBuilder sb = new StringBuilder();
+            for (String s : url) {
+                if (s != null) {
+                    sb.append(s);
+                    onlyNull = false;
+                }
             }
+            text = onlyNull ? null : sb.toString();
         }
-        if (onlyNull) {
+        if (text == null) {
             return null;
         }
-        // URLEncoder produces query strings, convert back to URL
-        return URLEncoder.encode(sb.toString(), "UTF-8")
-            .replaceAll("\\+", "%20")
-            .replaceAll("\\%21", "!")
-            .replaceAll("\\%26", "&")
-            .replaceAll("\\%27", "'")
-            .replaceAll("\\%28", "(")
-            .replaceAll("\\%29", ")")
-            .replaceAll("\\%2C", ",")
-            .replaceAll("\\%2F", "/")
-            .replaceAll("\\%7E", "~")
-            .replaceAll("\\%3A", ":")
-            .replaceAll("\\%3D", "=")
-            .replaceAll("\\%3F", "?");
+        int length = text.length();
+        int i = 0;
+        while (i < length && text.charAt(i) < 128 && URL_SAFE[text.charAt(i)]) {
+            i++;
+        }
+        if (i == length) {
+            return text;
+        }
+        StringBuilder out = BUFFERS.get();
+        out.setLength(0);
+        out.append(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (URL_SAFE[c]) {
+                    out.append(c);
+                } else {
+                    appendByte(out, c);
+                }
+            } else if (c < 0x800) {
+                appendByte(out, 0xc0 | (c >> 6));
+                appendByte(out, 0x80 | (c & 0x3f));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                appendByte(out, 0xe0 | (c >> 12));
+                appendByte(out, 0x80 | ((c >> 6) & 0x3f));
+                appendByte(out, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                appendByte(out, 0xf0 | (codePoint >> 18));
+                appendByte(out, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendByte(out, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendByte(out, 0x80 | (codePoint & 0x3f));
+            } else {
+                // Cannot be encoded as UTF-8, replaced like String.getBytes does
+                out.append('?');
+            }
+        }
+        String result = out.toString();
+        if (out.capacity() > MAX_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return result;
+    }
+
+    private static void appendByte(StringBuilder out, int b) {
+        out.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
     }
     
     /**
-     * HTML-encode the text.
+     * HTML-encode the text. ASCII text without {@code &<>"} is returned as it is.
      */
     public String text(String text) {
         if (text == null) {
             return null;
         }
-        return ESCAPE_TOOL.html(text);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 128 || HTML_SPECIAL[c]) {
+                return ESCAPE_TOOL.html(text);
+            }
+        }
+        return text;
     }
 }
-
@@ -0,0 +1,470 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Request;
+
+import freenet.node.useralerts.UserAlert;
+import freenet.winterface.freenet.AlertSnapshot;
+import freenet.winterface.freenet.ConnectionOverview;
+import freenet.winterface.freenet.FreenetInterface;
+
+/**
+ * Pushes changes of connections, alerts and queue progress to open pages as
+ * Server-Sent Events.
+ * <p>
+ * One thread polls the node every {@link #POLL_INTERVAL} milliseconds, and
+ * only while clients are connected. Each event is serialized once, however
+ * many clients receive it. Events a client has not received yet are coalesced
+ * into the latest state, so a slow client never holds more than one pending
+ * event of each type. Writes block, so each client being written to has a
+ * writer thread of its own, taken from a pool that shrinks again once
+ * writes are done: a client that stops reading only holds up its own events.
+ * Clients that do not take data for {@link #WRITE_TIMEOUT} milliseconds are
+ * disconnected, which ends their write and frees the thread.
+ * </p>
+ * <p>
+ * Events sent:
+ * <ul>
+ * <li>{@code connections}: {@code {"current":…,"maximum":…}}</li>
+ * <li>{@code alerts}: all valid alerts, {@code {"count":…,"highestClass":…,"alerts":[{"id":…,"class":…,"title":…,"text":…,"dismissable":…}]}}.
+ * Additions and dismissals show as ids coming and going.</li>
+ * <li>{@code queue}: progress changes as served by {@link freenet.winterface.web.QueueUpdates},
+ * with the version token as event id. Browsers pass it back as
+ * {@code Last-Event-ID} when reconnecting. Only sent to clients asking
+ * for it.</li>
+ * </ul>
+ * </p>
+ */
+public class EventBroadcaster {
+
+	/** Milliseconds between two polls of the node */
+	public final static long POLL_INTERVAL = 1000;
+	/** Milliseconds after which an idle stream gets a comment */
+	public final static long HEARTBEAT_INTERVAL = 30000;
+	/** Milliseconds a client may take to accept an event */
+	public final static long WRITE_TIMEOUT = 10000;
+
+	private final static int CONNECTIONS = 1;
+	private final static int ALERTS = 2;
+	private final static int QUEUE = 4;
+	private final static int HEARTBEAT = 8;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(EventBroadcaster.class);
+
+	private final FreenetInterface freenetInterface;
+	private final long pollInterval;
+	private final long writeTimeout;
+	private final Set<Client> clients = new CopyOnWriteArraySet<Client>();
+	private ScheduledExecutorService poller;
+	private ExecutorService writers;
+
+	/** Latest events, written by the poller and read by the writers */
+	private volatile String connectionsEvent;
+	private volatile String alertsEvent;
+	private volatile QueueDelta queueDelta;
+
+	/** State of the last poll, only used by the poller */
+	private int lastCurrentConnections = -1;
+	private int lastMaximumConnections = -1;
+	private List<Integer> lastAlerts;
+	private String queueVersion;
+	private boolean queueCatchingUp;
+	private long lastHeartbeat;
+
+	public EventBroadcaster(FreenetInterface freenetInterface) {
+		this(freenetInterface, POLL_INTERVAL, WRITE_TIMEOUT);
+	}
+
+	/**
+	 * @param pollInterval
+	 *            milliseconds between two polls of the node
+	 * @param writeTimeout
+	 *            milliseconds a client may take to accept an event
+	 */
+	EventBroadcaster(FreenetInterface freenetInterface, long pollInterval, long writeTimeout) {
+		this.freenetInterface = freenetInterface;
+		this.pollInterval = pollInterval;
+		this.writeTimeout = writeTimeout;
+	}
+
+	/**
+	 * Starts polling the node.
+	 */
+	public synchronized void start() {
+		poller = Executors.newSingleThreadScheduledExecutor(daemonThreads("Winterface event poller"));
+		// At most one thread per client, as a client is written to by one writer at a time
+		writers = Executors.newCachedThreadPool(daemonThreads("Winterface event writer"));
+		poller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops polling and disconnects all clients.
+	 */
+	public synchronized void stop() {
+		if (poller != null) {
+			poller.shutdownNow();
+			writers.shutdownNow();
+		}
+		for (Client client : clients) {
+			client.drop();
+		}
+	}
+
+	/**
+	 * Subscribes a client to all events. The response must be set up as
+	 * event stream already.
+	 *
+	 * @param context
+	 *            asynchronous context of the client's request
+	 * @param lastEventId
+	 *            value of the {@code Last-Event-ID} header, may be
+	 *            {@code null}
+	 * @param queue
+	 *            {@code true} to also send queue progress
+	 */
+	public void addClient(AsyncContext context, String lastEventId, boolean queue) {
+		final Client client = new Client(context, lastEventId, queue);
+		context.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				clients.remove(client);
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				client.drop();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				client.drop();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		clients.add(client);
+		// Latest state right away, unless the poller has yet to produce it
+		client.post(CONNECTIONS | ALERTS | QUEUE);
+	}
+
+	/**
+	 * @return number of connected clients
+	 */
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * Polls the node once and posts what changed to the clients. Called by
+	 * the poller.
+	 */
+	void poll() {
+		try {
+			if (clients.isEmpty()) {
+				// Start over with the next client
+				connectionsEvent = alertsEvent = null;
+				queueDelta = null;
+				lastCurrentConnections = lastMaximumConnections = -1;
+				lastAlerts = null;
+				queueVersion = null;
+				return;
+			}
+			int events = pollConnections() | pollAlerts();
+			if (hasQueueClients()) {
+				events |= pollQueue();
+			} else {
+				// Leaves the queue index idle
+				queueDelta = null;
+				queueVersion = null;
+			}
+			long now = System.currentTimeMillis();
+			if (events == 0 && now - lastHeartbeat >= HEARTBEAT_INTERVAL) {
+				events = HEARTBEAT;
+			}
+			if (events != 0) {
+				lastHeartbeat = now;
+			}
+			for (Client client : clients) {
+				if (client.isStuck(now)) {
+					logger.debug("Disconnecting client not taking events");
+					client.abort();
+				} else if (events != 0) {
+					client.post(events);
+				}
+			}
+		} catch (RuntimeException e) {
+			// Keep the schedule alive
+			logger.error("Could not poll for events", e);
+		}
+	}
+
+	private int pollConnections() {
+		ConnectionOverview connections = freenetInterface.getConnections();
+		if (connections.getCurrent() == lastCurrentConnections && connections.getMaximum() == lastMaximumConnections) {
+			return 0;
+		}
+		lastCurrentConnections = connections.getCurrent();
+		lastMaximumConnections = connections.getMaximum();
+		StringWriter data = new StringWriter();
+		try {
+			new JsonWriter(data).beginObject().name("current").value(lastCurrentConnections).name("maximum").value(lastMaximumConnections).endObject();
+		} catch (IOException e) {
+			// Not thrown by StringWriter
+		}
+		connectionsEvent = event("connections", null, data.toString());
+		return CONNECTIONS;
+	}
+
+	private int pollAlerts() {
+		AlertSnapshot snapshot = freenetInterface.getAlertSnapshot();
+		UserAlert[] alerts = snapshot.getValidAlerts();
+		List<Integer> ids = new ArrayList<Integer>(alerts.length);
+		for (UserAlert alert : alerts) {
+			ids.add(alert.hashCode());
+		}
+		if (ids.equals(lastAlerts)) {
+			return 0;
+		}
+		lastAlerts = ids;
+		StringWriter data = new StringWriter();
+		try {
+			JsonWriter json = new JsonWriter(data);
+			json.beginObject();
+			json.name("count").value(alerts.length);
+			json.name("highestClass").value(snapshot.getHighestClass());
+			json.name("alerts").beginArray();
+			for (UserAlert alert : alerts) {
+				json.beginObject();
+				json.name("id").value(alert.hashCode());
+				json.name("class").value(alert.getPriorityClass());
+				json.name("title").value(alert.getTitle());
+				json.name("text").value(alert.getShortText());
+				json.name("dismissable").value(alert.userCanDismiss());
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+		} catch (IOException e) {
+			// Not thrown by StringWriter
+		}
+		alertsEvent = event("alerts", null, data.toString());
+		return ALERTS;
+	}
+
+	private boolean hasQueueClients() {
+		for (Client client : clients) {
+			if ((client.subscribed & QUEUE) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int pollQueue() {
+		QueueChanges changes = freenetInterface.getQueueIndex().getChangesSince(queueVersion);
+		if (!changes.complete && changes.changed.isEmpty() && changes.removed.isEmpty() && changes.catchingUp == queueCatchingUp) {
+			return 0;
+		}
+		queueDelta = new QueueDelta(queueVersion, changes.version, queueEvent(changes));
+		queueVersion = changes.version;
+		queueCatchingUp = changes.catchingUp;
+		return QUEUE;
+	}
+
+	private static String queueEvent(QueueChanges changes) {
+		StringWriter data = new StringWriter();
+		try {
+			changes.writeTo(new JsonWriter(data));
+		} catch (IOException e) {
+			// Not thrown by StringWriter
+		}
+		return event("queue", changes.version, data.toString());
+	}
+
+	private static String event(String name, String id, String data) {
+		StringBuilder event = new StringBuilder(data.length() + 32);
+		event.append("event: ").append(name).append('\n');
+		if (id != null) {
+			event.append("id: ").append(id).append('\n');
+		}
+		return event.append("data: ").append(data).append("\n\n").toString();
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Queue event of one poll, shared by all clients that received the
+	 * previous one.
+	 */
+	private static class QueueDelta {
+		final String from;
+		final String to;
+		final String event;
+
+		QueueDelta(String from, String to, String event) {
+			this.from = from;
+			this.to = to;
+			this.event = event;
+		}
+	}
+
+	/**
+	 * A connected client and the events it has yet to receive.
+	 */
+	private class Client implements Runnable {
+		private final AsyncContext context;
+		/** Events the client subscribed to */
+		private final int subscribed;
+		/** Version of the last queue event received */
+		private String queueVersion;
+		/** Events to send, as bit set */
+		private int pending;
+		private boolean writing;
+		private long writingSince;
+
+		Client(AsyncContext context, String queueVersion, boolean queue) {
+			this.context = context;
+			this.subscribed = queue ? CONNECTIONS | ALERTS | QUEUE | HEARTBEAT : CONNECTIONS | ALERTS | HEARTBEAT;
+			this.queueVersion = queueVersion;
+		}
+
+		/**
+		 * Marks events as pending, if subscribed, and makes sure a writer
+		 * takes care of them.
+		 */
+		void post(int events) {
+			synchronized (this) {
+				pending |= events & subscribed;
+				if (writing || pending == 0) {
+					return;
+				}
+				writing = true;
+				writingSince = System.currentTimeMillis();
+			}
+			try {
+				writers.execute(this);
+			} catch (RuntimeException e) {
+				// Shutting down
+				drop();
+			}
+		}
+
+		synchronized boolean isStuck(long now) {
+			return writing && now - writingSince > writeTimeout;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				int events;
+				synchronized (this) {
+					events = pending;
+					pending = 0;
+					if (events == 0) {
+						writing = false;
+						return;
+					}
+					writingSince = System.currentTimeMillis();
+				}
+				try {
+					write(events);
+				} catch (IOException e) {
+					drop();
+					return;
+				}
+			}
+		}
+
+		private void write(int events) throws IOException {
+			PrintWriter out = context.getResponse().getWriter();
+			String connections = connectionsEvent;
+			if ((events & CONNECTIONS) != 0 && connections != null) {
+				out.write(connections);
+			}
+			String alerts = alertsEvent;
+			if ((events & ALERTS) != 0 && alerts != null) {
+				out.write(alerts);
+			}
+			if ((events & QUEUE) != 0) {
+				QueueDelta delta = queueDelta;
+				if (delta != null && delta.to.equals(queueVersion)) {
+					// Up to date
+				} else if (delta != null && (delta.from == null ? queueVersion == null : delta.from.equals(queueVersion))) {
+					out.write(delta.event);
+					queueVersion = delta.to;
+				} else if (delta != null || queueVersion == null) {
+					// Missed some or just connected, catch up on its own
+					QueueChanges changes = freenetInterface.getQueueIndex().getChangesSince(queueVersion);
+					out.write(queueEvent(changes));
+					queueVersion = changes.version;
+				}
+			}
+			if ((events & HEARTBEAT) != 0) {
+				out.write(":\n\n");
+			}
+			out.flush();
+			// PrintWriter swallows exceptions
+			if (out.checkError()) {
+				throw new IOException("Client disconnected");
+			}
+		}
+
+		/**
+		 * Cuts the connection, which also ends a write blocked on it.
+		 */
+		void abort() {
+			clients.remove(this);
+			try {
+				Request.getRequest((HttpServletRequest) context.getRequest()).getConnection().getEndPoint().close();
+			} catch (IOException e) {
+				logger.debug("Could not close connection", e);
+			} catch (RuntimeException e) {
+				logger.debug("Could not close connection", e);
+			}
+		}
+
+		void drop() {
+			clients.remove(this);
+			try {
+				context.complete();
+			} catch (IllegalStateException e) {
+				// Completed already
+			}
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package freenet.winterface.core;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Matches IP addresses against a fixed list of hosts and subnets.
+ * <p>
+ * The list is compiled once into a binary prefix trie per IP version, so
+ * matching an address takes one walk of at most 32 (IPv4) or 128 (IPv6)
+ * steps. Addresses are parsed by hand: no {@link java.net.InetAddress}, no
+ * resolver and (after the first call per thread) no allocation.
+ * </p>
+ * <p>
+ * Entries take the same forms as for {@link freenet.io.AddressMatcher}: a
+ * literal address, optionally followed by {@code /bits} or a {@code /netmask}
+ * written as address. IPv4-mapped IPv6 addresses ({@code ::ffff:a.b.c.d})
+ * match IPv4 entries and vice versa. Entries that are no IP address (e.g.
+ * hostnames) or have a non-contiguous netmask are ignored.
+ * </p>
+ *
+ * @see IPFilter
+ */
+public final class HostMatcher {
+
+	/** Separator of hosts in a host list */
+	private final static String HOST_SEPARATOR = ",";
+	/** Character denoting start of subnet mask */
+	private final static char MASK_CHAR = '/';
+	/** Upper 96 bits of an IPv4-mapped IPv6 address */
+	private final static long IPV4_MAPPED_PREFIX = 0xffffL;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(HostMatcher.class);
+
+	private final Trie ipv4 = new Trie();
+	private final Trie ipv6 = new Trie();
+
+	/** Scratch space for parsing IPv6 addresses */
+	private final ThreadLocal<long[]> buffers = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[4];
+		}
+	};
+
+	private HostMatcher() {
+	}
+
+	/**
+	 * Compiles a host list.
+	 *
+	 * @param hostList
+	 *            comma separated list of addresses and subnets
+	 * @return matcher for the given hosts
+	 */
+	public static HostMatcher compile(String hostList) {
+		HostMatcher matcher = new HostMatcher();
+		for (String host : hostList.split(HOST_SEPARATOR)) {
+			host = host.trim();
+			if (!host.isEmpty() && !matcher.add(host)) {
+				logger.warn("Ignoring host " + host + ", it is neither an IP address nor a subnet");
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * @param address
+	 *            literal IPv4 or IPv6 address, as returned by
+	 *            {@link javax.servlet.ServletRequest#getRemoteAddr()}
+	 * @return {@code true} if the address is contained in one of the hosts
+	 */
+	public boolean matches(String address) {
+		if (address == null) {
+			return false;
+		}
+		long v4 = parseIPv4(address, 0, address.length());
+		if (v4 >= 0) {
+			return ipv4.matches(v4 << 32, 0, 32);
+		}
+		long[] v6 = buffers.get();
+		if (!parseIPv6(address, 0, address.length(), v6)) {
+			return false;
+		}
+		if (ipv6.matches(v6[0], v6[1], 128)) {
+			return true;
+		}
+		return isIPv4Mapped(v6[0], v6[1]) && ipv4.matches(v6[1] << 32, 0, 32);
+	}
+
+	private boolean add(String host) {
+		int maskIndex = host.indexOf(MASK_CHAR);
+		String address = maskIndex < 0 ? host : host.substring(0, maskIndex);
+		String mask = maskIndex < 0 ? null : host.substring(maskIndex + 1);
+		long v4 = parseIPv4(address, 0, address.length());
+		if (v4 >= 0) {
+			int bits = 32;
+			if (mask != null && mask.indexOf('.') >= 0) {
+				long maskValue = parseIPv4(mask, 0, mask.length());
+				bits = maskValue < 0 ? -1 : prefixLength(maskValue << 32, 0);
+			} else if (mask != null) {
+				bits = parseBits(mask, 32);
+			}
+			if (bits < 0) {
+				return false;
+			}
+			ipv4.add(v4 << 32, 0, bits);
+			return true;
+		}
+		long[] v6 = new long[4];
+		if (!parseIPv6(address, 0, address.length(), v6)) {
+			return false;
+		}
+		int bits = 128;
+		if (mask != null && mask.indexOf(':') >= 0) {
+			long[] maskValue = new long[4];
+			bits = parseIPv6(mask, 0, mask.length(), maskValue) ? prefixLength(maskValue[0], maskValue[1]) : -1;
+		} else if (mask != null) {
+			bits = parseBits(mask, 128);
+		}
+		if (bits < 0) {
+			return false;
+		}
+		ipv6.add(v6[0], v6[1], bits);
+		if (bits >= 96 && isIPv4Mapped(v6[0], v6[1])) {
+			ipv4.add(v6[1] << 32, 0, bits - 96);
+		}
+		return true;
+	}
+
+	private static boolean isIPv4Mapped(long high, long low) {
+		return high == 0 && (low >>> 32) == IPV4_MAPPED_PREFIX;
+	}
+
+	/**
+	 * @return prefix length written as decimal number, or {@code -1} if
+	 *         invalid
+	 */
+	private static int parseBits(String bits, int max) {
+		if (bits.isEmpty() || bits.length() > 3) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < bits.length(); i++) {
+			char c = bits.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value <= max ? value : -1;
+	}
+
+	/**
+	 * @return number of leading one bits of a 128 bit netmask, or {@code -1}
+	 *         if the mask is not contiguous
+	 */
+	static int prefixLength(long high, long low) {
+		if (high != -1L) {
+			int bits = Long.numberOfLeadingZeros(~high);
+			return (high << bits) == 0 && low == 0 ? bits : -1;
+		}
+		if (low == -1L) {
+			return 128;
+		}
+		int bits = Long.numberOfLeadingZeros(~low);
+		return (low << bits) == 0 ? 64 + bits : -1;
+	}
+
+	/**
+	 * Parses a dotted decimal IPv4 address.
+	 *
+	 * @return the address as unsigned 32 bit value, or {@code -1} if the text
+	 *         is no IPv4 address
+	 */
+	static long parseIPv4(String text, int start, int end) {
+		long value = 0;
+		int dots = 0;
+		int octet = -1;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+				if (octet > 255) {
+					return -1;
+				}
+			} else if (c == '.' && octet >= 0 && dots < 3) {
+				value = (value << 8) | octet;
+				octet = -1;
+				dots++;
+			} else {
+				return -1;
+			}
+		}
+		if (octet < 0 || dots != 3) {
+			return -1;
+		}
+		return (value << 8) | octet;
+	}
+
+	/**
+	 * Parses an IPv6 address, with or without brackets, zone index and
+	 * embedded IPv4 address.
+	 *
+	 * @param result
+	 *            receives the upper 64 bits at index 0 and the lower ones at
+	 *            index 1; index 2 and 3 are used as scratch space
+	 * @return {@code false} if the text is no IPv6 address
+	 */
+	static boolean parseIPv6(String text, int start, int end, long[] result) {
+		if (end - start >= 2 && text.charAt(start) == '[' && text.charAt(end - 1) == ']') {
+			start++;
+			end--;
+		}
+		int zone = text.indexOf('%', start);
+		if (zone >= 0 && zone < end) {
+			end = zone;
+		}
+		// Groups before "::" go to 0 and 1, groups after it are shifted in at 2 and 3
+		result[0] = result[1] = result[2] = result[3] = 0;
+		int groups = 0;
+		boolean compressed = false;
+		int i = start;
+		if (i + 1 < end && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+			compressed = true;
+			i += 2;
+		}
+		while (i < end) {
+			int groupStart = i;
+			int value = 0;
+			int digit;
+			while (i < end && i - groupStart < 4 && (digit = Character.digit(text.charAt(i), 16)) >= 0) {
+				value = (value << 4) | digit;
+				i++;
+			}
+			if (i < end && text.charAt(i) == '.') {
+				// Embedded IPv4 address takes the last two groups
+				long v4 = parseIPv4(text, groupStart, end);
+				if (v4 < 0 || groups > 6) {
+					return false;
+				}
+				addGroup(result, groups++, compressed, (int) (v4 >>> 16));
+				addGroup(result, groups++, compressed, (int) (v4 & 0xffff));
+				i = end;
+				break;
+			}
+			if (i == groupStart || groups == 8) {
+				return false;
+			}
+			addGroup(result, groups++, compressed, value);
+			if (i == end) {
+				break;
+			}
+			if (text.charAt(i) != ':' || ++i == end) {
+				return false;
+			}
+			if (text.charAt(i) == ':') {
+				if (compressed) {
+					return false;
+				}
+				compressed = true;
+				i++;
+			}
+		}
+		if (compressed ? groups > 7 : groups != 8) {
+			return false;
+		}
+		result[0] |= result[2];
+		result[1] |= result[3];
+		return true;
+	}
+
+	private static void addGroup(long[] result, int index, boolean compressed, int value) {
+		if (compressed) {
+			// Position is known at the end only, but these groups end the address
+			result[2] = (result[2] << 16) | (result[3] >>> 48);
+			result[3] = (result[3] << 16) | value;
+		} else if (index < 4) {
+			result[0] |= (long) value << (16 * (3 - index));
+		} else {
+			result[1] |= (long) value << (16 * (7 - index));
+		}
+	}
+
+	/**
+	 * Binary trie of address prefixes, up to 128 bits long. A node marked as
+	 * terminal matches every address below it.
+	 */
+	private static final class Trie {
+
+		/** Children of node n are at 2n (bit 0) and 2n+1 (bit 1), 0 if none */
+		private int[] children = new int[32];
+		private boolean[] terminal = new boolean[16];
+		/** Number of nodes, node 0 is the root */
+		private int size = 1;
+
+		void add(long high, long low, int bits) {
+			int node = 0;
+			for (int i = 0; i < bits; i++) {
+				if (terminal[node]) {
+					// Already covered by a shorter prefix
+					return;
+				}
+				int slot = 2 * node + bit(high, low, i);
+				if (children[slot] == 0) {
+					int child = newNode();
+					children[slot] = child;
+				}
+				node = children[slot];
+			}
+			terminal[node] = true;
+		}
+
+		boolean matches(long high, long low, int bits) {
+			int node = 0;
+			for (int i = 0; !terminal[node]; i++) {
+				if (i == bits) {
+					return false;
+				}
+				node = children[2 * node + bit(high, low, i)];
+				if (node == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int newNode() {
+			if (size == terminal.length) {
+				boolean[] newTerminal = new boolean[size * 2];
+				System.arraycopy(terminal, 0, newTerminal, 0, size);
+				terminal = newTerminal;
+				int[] newChildren = new int[size * 4];
+				System.arraycopy(children, 0, newChildren, 0, size * 2);
+				children = newChildren;
+			}
+			return size++;
+		}
+
+		private static int bit(long high, long low, int index) {
+			return (int) (index < 64 ? (high >>> (63 - index)) & 1 : (low >>> (127 - index)) & 1);
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package freenet.winterface.core;
 
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -25,8 +24,9 @@ import freenet.io.AddressMatcher;
  * hosts in its {@link Configuration}. Hosts can be also in CIDR format.
  * Filtering is done in following steps:
  * <ul>
- * <li>Match remote address against allowed hosts. This is done using
- * {@link AddressMatcher} which is also capable of subnet matching.</li>
+ * <li>Match remote address against allowed hosts. This is done using a
+ * {@link HostMatcher} compiled on startup, which accepts the same host and
+ * subnet formats as {@link AddressMatcher}.</li>
  * <li>If remote host is not in the list of allowed hosts it is blocked
  * <b>only</b> if required page is not contained in list of white listed paths
  * (see bellow)</li>
@@ -44,8 +44,8 @@ import freenet.io.AddressMatcher;
  */
 public class IPFilter implements Filter {
 
-	/** List of allowedHosts as read from filter config */
-	private String[] allowedHosts;
+	/** Allowed hosts as read from filter config, compiled for matching */
+	private HostMatcher allowedHosts;
 
 	/** Filter parameter name containing allowed hosts */
 	public final static String ALLOWED_HOSTS_PARAM = "allowedHosts";
@@ -60,23 +60,15 @@ public class IPFilter implements Filter {
 	public void init(FilterConfig filterConfig) throws ServletException {
 		String configAllowed = filterConfig.getInitParameter(ALLOWED_HOSTS_PARAM);
 		logger.info("Filter initiated with following hosts: " + configAllowed);
-		allowedHosts = configAllowed.split(",");
+		allowedHosts = HostMatcher.compile(configAllowed);
 	}
 
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
 		String path = ((HttpServletRequest) request).getServletPath();
 		String remoteAddr = request.getRemoteAddr();
-		boolean unblock = false;
 		// First check if remote address is included in allowed hosts
-		for (String allowed : allowedHosts) {
-			try {
-				unblock |= IPUtils.quietMatches(allowed, remoteAddr);
-			} catch (UnknownHostException e) {
-				logger.error("Error while matching allowed hosts and remoter address.", e);
-				unblock = false;
-			}
-		}
+		boolean unblock = allowedHosts.matches(remoteAddr);
 		// We don't block access to specific URLs such as error pages and static
 		// data.
 		// This is necessary because a blocking request forwards to an error
@@ -0,0 +1,291 @@
+package freenet.winterface.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON text into plain Java objects: {@link Map} for objects,
+ * {@link List} for arrays, {@link String}, {@link Long} or {@link Double} for
+ * numbers, {@link Boolean} and {@code null}.
+ * <p>
+ * Meant for the small documents clients send, the whole text is held in
+ * memory.
+ * </p>
+ *
+ * @see JsonWriter
+ */
+public class JsonReader {
+
+	/** Deepest nesting accepted */
+	private final static int MAX_DEPTH = 64;
+
+	private final String text;
+	private int pos;
+	private int depth;
+
+	private JsonReader(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @param text
+	 *            JSON text
+	 * @return the value the text describes
+	 * @throws IllegalArgumentException
+	 *             if the text is no valid JSON
+	 */
+	public static Object parse(String text) {
+		JsonReader reader = new JsonReader(text);
+		Object value = reader.value();
+		reader.skipWhitespace();
+		if (reader.pos != text.length()) {
+			throw reader.error("Unexpected text after value");
+		}
+		return value;
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (pos == text.length()) {
+			throw error("Unexpected end");
+		}
+		char c = text.charAt(pos);
+		switch (c) {
+		case '{':
+			return object();
+		case '[':
+			return array();
+		case '"':
+			return string();
+		case 't':
+			return literal("true", Boolean.TRUE);
+		case 'f':
+			return literal("false", Boolean.FALSE);
+		case 'n':
+			return literal("null", null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return number();
+			}
+			throw error("Unexpected character " + c);
+		}
+	}
+
+	private Map<String, Object> object() {
+		enter();
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			depth--;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Expected name");
+			}
+			String name = string();
+			skipWhitespace();
+			expect(':');
+			object.put(name, value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				depth--;
+				return object;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		enter();
+		List<Object> array = new ArrayList<Object>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			depth--;
+			return array;
+		}
+		while (true) {
+			array.add(value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				depth--;
+				return array;
+			}
+		}
+	}
+
+	private String string() {
+		pos++;
+		StringBuilder result = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return result.toString();
+			} else if (c == '\\') {
+				if (pos >= text.length()) {
+					throw error("Unterminated string");
+				}
+				char escaped = text.charAt(pos++);
+				switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					result.append(escaped);
+					break;
+				case 'b':
+					result.append('\b');
+					break;
+				case 'f':
+					result.append('\f');
+					break;
+				case 'n':
+					result.append('\n');
+					break;
+				case 'r':
+					result.append('\r');
+					break;
+				case 't':
+					result.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) {
+						throw error("Invalid escape");
+					}
+					int code = 0;
+					for (int end = pos + 4; pos < end; pos++) {
+						code = code << 4 | hexDigit(text.charAt(pos));
+					}
+					result.append((char) code);
+					break;
+				default:
+					throw error("Invalid escape");
+				}
+			} else if (c < 0x20) {
+				throw error("Control character in string");
+			} else {
+				result.append(c);
+			}
+		}
+	}
+
+	/**
+	 * @return value of a hexadecimal digit of a Unicode escape
+	 */
+	private int hexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		throw error("Invalid escape");
+	}
+
+	private Object number() {
+		int start = pos;
+		boolean integral = true;
+		skip('-');
+		if (!skip('0')) {
+			digits();
+		}
+		if (skip('.')) {
+			integral = false;
+			digits();
+		}
+		if (skip('e') || skip('E')) {
+			integral = false;
+			if (!skip('+')) {
+				skip('-');
+			}
+			digits();
+		}
+		String number = text.substring(start, pos);
+		try {
+			return integral ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+		} catch (NumberFormatException e) {
+			throw error("Invalid number " + number);
+		}
+	}
+
+	/**
+	 * Skips one or more decimal digits.
+	 */
+	private void digits() {
+		int start = pos;
+		while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+			pos++;
+		}
+		if (pos == start) {
+			throw error("Invalid number");
+		}
+	}
+
+	/**
+	 * @return {@code true} if the given character was next and skipped
+	 */
+	private boolean skip(char c) {
+		if (pos < text.length() && text.charAt(pos) == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private Object literal(String literal, Object value) {
+		if (!text.startsWith(literal, pos)) {
+			throw error("Unexpected text");
+		}
+		pos += literal.length();
+		return value;
+	}
+
+	private void enter() {
+		if (++depth > MAX_DEPTH) {
+			throw error("Nested too deeply");
+		}
+	}
+
+	private char peek() {
+		if (pos >= text.length()) {
+			throw error("Unexpected end");
+		}
+		return text.charAt(pos);
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("Expected " + c);
+		}
+		pos++;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + pos);
+	}
+}
@@ -0,0 +1,147 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+
+/**
+ * Writes JSON to a {@link Writer}, one token at a time, without building a
+ * document in memory.
+ * <p>
+ * The writer only places separators; it is up to the caller to nest objects
+ * and arrays properly and to write a name before each value in an object.
+ * </p>
+ */
+public class JsonWriter {
+
+	private final Writer out;
+	/** Nesting depth, 0 at top level */
+	private int depth;
+	/** Set for every depth at which a value has been written already */
+	private final BitSet hasValue = new BitSet();
+	/** {@code true} if a name was just written, so no separator is due */
+	private boolean afterName;
+
+	/**
+	 * @param out
+	 *            receives the JSON text
+	 */
+	public JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	/**
+	 * Writes the name of the next value in an object.
+	 */
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		string(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes a string value, or {@code null}.
+	 */
+	public JsonWriter value(String value) throws IOException {
+		separate();
+		if (value == null) {
+			out.write("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * Flushes the underlying writer.
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		separate();
+		out.write(bracket);
+		depth++;
+		hasValue.clear(depth);
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		if (depth == 0) {
+			throw new IllegalStateException("Nothing to close");
+		}
+		depth--;
+		out.write(bracket);
+		return this;
+	}
+
+	/**
+	 * Writes a comma if a value preceded at this depth, unless the next value
+	 * follows a name.
+	 */
+	private void separate() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (hasValue.get(depth)) {
+			out.write(',');
+		}
+		hasValue.set(depth);
+	}
+
+	private void string(String value) throws IOException {
+		out.write('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String escaped;
+			if (c == '"') {
+				escaped = "\\\"";
+			} else if (c == '\\') {
+				escaped = "\\\\";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029' || c == '<') {
+				// Also escapes "</script>" and line separators JavaScript chokes on
+				escaped = String.format("\\u%04x", (int) c);
+			} else {
+				continue;
+			}
+			out.write(value, start, i - start);
+			out.write(escaped);
+			start = i + 1;
+		}
+		out.write(value, start, value.length() - start);
+		out.write('"');
+	}
+}
@@ -0,0 +1,123 @@
+package freenet.winterface.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, laid out like an HdrHistogram:
+ * values below 64 are counted exactly, larger ones in 32 buckets per power of
+ * two. Percentiles are thus off by at most about 3%. Values up to
+ * {@link #MAX_VALUE} (about 12 days) are told apart, larger ones count as
+ * {@link #MAX_VALUE}.
+ * <p>
+ * Recording is lock-free and allocates nothing, so it can be done on every
+ * request. Reading while others record may miss the latest values.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	/** log2 of the number of buckets per power of two */
+	private final static int SUB_BUCKET_BITS = 5;
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Values below this are counted exactly */
+	private final static int EXACT_VALUES = SUB_BUCKETS << 1;
+	/** Largest value told apart */
+	public final static long MAX_VALUE = (1L << 40) - 1;
+	private final static int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts a latency.
+	 *
+	 * @param micros
+	 *            the latency in microseconds; negative values count as
+	 *            {@code 0}
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, Math.min(micros, MAX_VALUE));
+		counts.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// Lost against another thread, look again
+		}
+	}
+
+	/**
+	 * Counts the time passed since the given {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * @return number of latencies counted
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of all latencies counted, in microseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return largest latency counted, in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param share
+	 *            share of latencies, between {@code 0} and {@code 1}, e.g.
+	 *            {@code 0.99} for the 99th percentile
+	 * @return the latency in microseconds not exceeded by the given share of
+	 *         the latencies counted, or {@code 0} if none was counted
+	 */
+	public long getPercentile(double share) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long) Math.ceil(share * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= wanted) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	static int bucketOf(long value) {
+		if (value < EXACT_VALUES) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return EXACT_VALUES + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueIn(int bucket) {
+		if (bucket < EXACT_VALUES) {
+			return bucket;
+		}
+		int shift = (bucket - EXACT_VALUES) / SUB_BUCKETS + 1;
+		long lowest = (long) ((bucket - EXACT_VALUES) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
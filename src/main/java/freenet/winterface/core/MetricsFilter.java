@@ -0,0 +1,80 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * {@link Filter} timing every request into the {@link RouteMetrics} of its
+ * route, as found in the {@link MetricsRegistry} of the servlet context.
+ * <p>
+ * Requests handled asynchronously, e.g. fetches waiting for the node, are
+ * finished by a listener once they complete. Servlets start them with
+ * {@link #startAsync(HttpServletRequest)}, which adds the listener right
+ * away: the request may be completed by another thread before the filter
+ * gets to see it, and other requests are recorded when the servlet returns.
+ * </p>
+ */
+public class MetricsFilter implements Filter {
+
+	/** Request attribute telling that the request is recorded by its listener */
+	private static final String ASYNC_RECORDED = MetricsFilter.class.getName() + ".async";
+
+	private MetricsRegistry registry;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		registry = (MetricsRegistry) filterConfig.getServletContext().getAttribute(ServerManager.METRICS);
+		if (registry == null) {
+			throw new ServletException("No metrics registry");
+		}
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		RouteMetrics route = registry.getRoute(((HttpServletRequest) request).getServletPath());
+		long started = System.nanoTime();
+		route.start();
+		boolean handled = false;
+		try {
+			chain.doFilter(request, response);
+			handled = true;
+		} finally {
+			if (handled && request.getAttribute(ASYNC_RECORDED) != null) {
+				// Recorded once it completes, see startAsync(HttpServletRequest)
+			} else {
+				route.finish(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started), !handled || ((HttpServletResponse) response).getStatus() >= 400);
+			}
+		}
+	}
+
+	/**
+	 * Puts a request into asynchronous mode, and records it in the metrics of
+	 * its route once it completes.
+	 * 
+	 * @see HttpServletRequest#startAsync()
+	 */
+	public static AsyncContext startAsync(HttpServletRequest request) {
+		AsyncContext async = request.startAsync();
+		MetricsRegistry registry = (MetricsRegistry) request.getServletContext().getAttribute(ServerManager.METRICS);
+		if (registry != null) {
+			async.addListener(registry.getRoute(request.getServletPath()).getAsyncListener());
+			request.setAttribute(ASYNC_RECORDED, Boolean.TRUE);
+		}
+		return async;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+}
@@ -0,0 +1,89 @@
+package freenet.winterface.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+
+import freenet.winterface.freenet.FetchMetrics;
+
+/**
+ * Holds the {@link RouteMetrics} of every route registered in {@link Routes},
+ * and the {@link FetchMetrics} of the node.
+ * <p>
+ * The routes are fixed when the registry is created, so looking them up needs
+ * no locks. Requests to paths of no route, e.g. static resources, are counted
+ * under {@link #OTHER_ROUTE}.
+ * </p>
+ */
+public class MetricsRegistry {
+
+	/** Name of the metrics of requests to no route */
+	public final static String OTHER_ROUTE = "other";
+
+	private final Map<String, RouteMetrics> byPath = new HashMap<String, RouteMetrics>();
+	private final Map<Class<?>, RouteMetrics> byServlet = new HashMap<Class<?>, RouteMetrics>();
+	private final List<RouteMetrics> all;
+	private final RouteMetrics other = new RouteMetrics(OTHER_ROUTE, null);
+	private final FetchMetrics fetches;
+
+	/**
+	 * @param routes
+	 *            the routes, already initialized
+	 * @param fetches
+	 *            metrics of the fetches made for Winterface
+	 */
+	public MetricsRegistry(Routes routes, FetchMetrics fetches) {
+		this.fetches = fetches;
+		List<RouteMetrics> list = new ArrayList<RouteMetrics>();
+		for (Class<? extends HttpServlet> servletClass : routes.getServletClasses()) {
+			String path = routes.getPathFor(servletClass);
+			RouteMetrics route = new RouteMetrics(servletClass.getSimpleName(), path);
+			// Equals the servlet path of the requests for both wildcard and exact matches
+			byPath.put(path, route);
+			byServlet.put(servletClass, route);
+			list.add(route);
+		}
+		Collections.sort(list, new Comparator<RouteMetrics>() {
+			@Override
+			public int compare(RouteMetrics o1, RouteMetrics o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		list.add(other);
+		all = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return metrics of the route with the given servlet path, or of
+	 *         {@link #OTHER_ROUTE}
+	 */
+	public RouteMetrics getRoute(String servletPath) {
+		RouteMetrics route = byPath.get(servletPath);
+		return route == null ? other : route;
+	}
+
+	/**
+	 * @return metrics of the route served by the given servlet class, or of
+	 *         {@link #OTHER_ROUTE}
+	 */
+	public RouteMetrics getRoute(Class<?> servletClass) {
+		RouteMetrics route = byServlet.get(servletClass);
+		return route == null ? other : route;
+	}
+
+	/**
+	 * @return metrics of all routes by name, {@link #OTHER_ROUTE} last
+	 */
+	public List<RouteMetrics> getRoutes() {
+		return all;
+	}
+
+	public FetchMetrics getFetches() {
+		return fetches;
+	}
+}
@@ -0,0 +1,67 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Progress of the requests that changed since a given version of a
+ * {@link QueueIndex}.
+ *
+ * @see QueueIndex#getChangesSince(String)
+ */
+public final class QueueChanges {
+
+	/** Token to ask for the changes after these */
+	public final String version;
+	/**
+	 * {@code true} if {@link #changed} lists all requests, because the given
+	 * version was unknown or too old. Requests not listed are gone then.
+	 */
+	public final boolean complete;
+	/** Requests added or changed */
+	public final List<QueueProgress> changed;
+	/** Identifiers of removed requests */
+	public final List<String> removed;
+	/**
+	 * {@code true} if the index is still catching up with the node, so
+	 * requests may be missing or outdated
+	 */
+	public final boolean catchingUp;
+
+	QueueChanges(String version, boolean complete, List<QueueProgress> changed, List<String> removed, boolean catchingUp) {
+		this.version = version;
+		this.complete = complete;
+		this.changed = changed;
+		this.removed = removed;
+		this.catchingUp = catchingUp;
+	}
+
+	/**
+	 * Writes these changes as JSON object.
+	 */
+	public void writeTo(JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("version").value(version);
+		json.name("complete").value(complete);
+		json.name("catchingUp").value(catchingUp);
+		json.name("changed").beginArray();
+		for (QueueProgress progress : changed) {
+			json.beginObject();
+			json.name("id").value(progress.identifier);
+			json.name("class").value(progress.queueClass);
+			json.name("fetched").value(progress.fetchedBlocks);
+			json.name("failed").value(progress.failedBlocks);
+			json.name("min").value(progress.minBlocks);
+			json.name("total").value(progress.totalBlocks);
+			json.name("flag").value(progress.specialFlag);
+			json.endObject();
+		}
+		json.endArray();
+		json.name("removed").beginArray();
+		for (String identifier : removed) {
+			json.value(identifier);
+		}
+		json.endArray();
+		json.endObject();
+	}
+}
@@ -1,5 +1,6 @@
 package freenet.winterface.core;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -8,75 +9,44 @@ import org.apache.log4j.Logger;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableBiMap.Builder;
-import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
-import freenet.client.FetchException;
-import freenet.client.async.DatabaseDisabledException;
-import freenet.client.filter.ContentFilter;
-import freenet.client.filter.FilterMIMEType;
-import freenet.node.RequestStarter;
-import freenet.node.fcp.DownloadRequestStatus;
-import freenet.node.fcp.FCPServer;
 import freenet.node.fcp.RequestStatus;
-import freenet.node.fcp.UploadDirRequestStatus;
-import freenet.node.fcp.UploadFileRequestStatus;
 
 /**
- * A util class which reads all the global requests from {@link FCPServer} (see
- * {@link FCPServer#getGlobalRequests()}) and divides them into separate lists
- * of {@link RequestStatus}.
+ * A util class which reads the global requests from a {@link QueueIndex} and
+ * divides them into separate lists of {@link RequestStatus}.
  * <p>
  * It is possible to filter out the {@link RequestStatus} in final results. An
  * integer (called queue class) is used for that purpose. The constructor
  * accepts a combination of classes for filtering:
  * 
  * <pre>
- * new QueueUtil(DL_C_DISK | UP_F_DIR)}
+ * new QueueHelper(DL_C_DISK | UP_F_DIR, index)
  * </pre>
  * 
  * would return only download requests which have been completed (saved to disk)
  * and failed upload directories.
  * </p>
+ * <p>
+ * Lists are read from the index when asked for, so a helper costs time
+ * proportional to the lists used rather than to the whole queue. To show a
+ * page of a long list use {@link QueueIndex#query(QueueQuery)} instead.
+ * </p>
  * 
  * @author pausb
  */
 public class QueueHelper {
 
 	/** Contains total size of result */
-	private int queueSize;
+	private final int queueSize;
 	/** Lowest found queue priority */
-	private short lowestQueuedPriority;
+	private final short lowestQueuedPriority;
 
 	/** Contains desired target class */
 	private final int requestedClass;
-	/** {@link FCPServer} to read an manipulate messages */
-	private final FCPServer fcp;
-
-	/**
-	 * {@link Map}s unknown MIME-Types to A list of {@link RequestStatus}*
-	 * (immutable)
-	 */
-	public final ImmutableBiMap<String, List<RequestStatus>> dl_f_u_mime;
-	/** Backing map of {@link #dl_f_u_mime} (mutable) */
-	private final Map<String, List<RequestStatus>> dl_f_u_mimeBackingMap;
-	/**
-	 * {@link Map}s bad MIME-Types to A list of {@link RequestStatus}
-	 * (immutable)
-	 */
-	public final ImmutableBiMap<String, List<RequestStatus>> dl_f_b_mime;
-	/** Backing map of {@link #dl_f_b_mime} (mutable) */
-	private final Map<String, List<RequestStatus>> dl_f_b_mimeBackingMap;
-
-	/**
-	 * A bi directional map of class codes to corresponding list of
-	 * {@link RequestStatus} (immutable)
-	 */
-	public final ImmutableBiMap<Integer, List<RequestStatus>> requests;
-	/** Backing map of {@link #requests} (mutable) */
-	private final Map<Integer, List<RequestStatus>> requestsBackingMap;
+	/** {@link QueueIndex} to read requests from */
+	private final QueueIndex index;
 
 	/** Total download queue size in byte */
 	public final long totalQueueDownloadSize;
@@ -155,175 +125,17 @@ public class QueueHelper {
 	 * 
 	 * @param requestedClass
 	 *            class of requested queues
-	 * @param fcpServer
+	 * @param index
 	 *            used to query global requests.
-	 * @throws DatabaseDisabledException
-	 *             is thrown if database is disabled
 	 */
-	public QueueHelper(int requestedClass, FCPServer fcpServer) throws DatabaseDisabledException {
-		requestsBackingMap = Maps.newHashMap();
-		dl_f_b_mimeBackingMap = Maps.newHashMap();
-		dl_f_u_mimeBackingMap = Maps.newHashMap();
-		queueSize = 0;
+	public QueueHelper(int requestedClass, QueueIndex index) {
 		logger.debug("Getting request queue for code " + Integer.toBinaryString(requestedClass));
 		this.requestedClass = requestedClass;
-		this.lowestQueuedPriority = RequestStarter.MINIMUM_PRIORITY_CLASS;
-		fcp = fcpServer;
-		RequestStatus[] globalRequests;
-		globalRequests = fcp.getGlobalRequests();
-		long tmpTotalQueuedDownloadSize = 0;
-		long tmpTotalQueuedUploadSize = 0;
-		for (RequestStatus req : globalRequests) {
-			// If current request (req) is a download request and user wanted to
-			// get download requests (DL flag)
-			tmpTotalQueuedDownloadSize += checkIfDownloadDesired(req);
-			// If current request (req) is an upload request and user wanted to
-			// get upload requests (UP flag)
-			tmpTotalQueuedUploadSize += checkIfUploadDesired(req);
-			// If current request (req) is an upload dir request and user wanted
-			// to get upload requests (DL flag)
-			tmpTotalQueuedUploadSize += checkIfUploadDirDesired(req);
-
-		}
-		totalQueueDownloadSize = tmpTotalQueuedDownloadSize;
-		totalQueueUploadSize = tmpTotalQueuedUploadSize;
-		// Create immutable bimaps from backing maps
-		requests = ImmutableBiMap.copyOf(requestsBackingMap);
-		dl_f_b_mime = ImmutableBiMap.copyOf(dl_f_b_mimeBackingMap);
-		dl_f_u_mime = ImmutableBiMap.copyOf(dl_f_u_mimeBackingMap);
-	}
-
-	/**
-	 * Checks if the given {@link RequestStatus} is an
-	 * {@link DownloadRequestStatus} and if it matches the request class
-	 * provided at the initialization (see {@link #requestedClass}). If yes, it
-	 * adds the {@link RequestStatus} to the corresponding {@link List}
-	 * 
-	 * @param req
-	 *            {@link RequestStatus} to check
-	 * @return size of {@link RequestStatus} if its known and if
-	 *         {@link RequestStatus} is desired, otherwise {@code 0}
-	 * @see #get(int)
-	 * @see #getList(int)
-	 * @see #getMap(int)
-	 */
-	private long checkIfDownloadDesired(RequestStatus req) {
-		long requestSize = 0;
-		if (req instanceof DownloadRequestStatus && isDesired(DL)) {
-			DownloadRequestStatus download = (DownloadRequestStatus) req;
-			if (download.hasSucceeded()) {
-				if (download.toTempSpace()) {
-					addToList(download, DL_C_TEMP);
-				} else {
-					addToList(download, DL_C_TEMP);
-				}
-			} else if (download.hasFinished() && isDesired(DL_F)) {
-				int failureCode = download.getFailureCode();
-				if (failureCode == FetchException.CONTENT_VALIDATION_UNKNOWN_MIME) {
-					String mimeType = download.getMIMEType();
-					mimeType = ContentFilter.stripMIMEType(mimeType);
-					addToMap(download, mimeType, DL_F_U_MIME);
-				} else if (failureCode == FetchException.CONTENT_VALIDATION_BAD_MIME) {
-					String mimeType = download.getMIMEType();
-					mimeType = ContentFilter.stripMIMEType(mimeType);
-					FilterMIMEType type = ContentFilter.getMIMEType(mimeType);
-					if (type == null) {
-						if (isDesired(DL_F_U_MIME)) {
-							logger.warn("Bad MIME failure code yet MIME is " + mimeType + " which does not have a handler!");
-							addToMap(download, mimeType, DL_F_U_MIME);
-						}
-					} else {
-						addToMap(download, mimeType, DL_F_B_MIME);
-					}
-				} else {
-					addToList(download, DL_F);
-				}
-			} else {
-				// Request is still running
-				short prio = download.getPriority();
-				if (prio < lowestQueuedPriority) {
-					lowestQueuedPriority = prio;
-				}
-				addToList(download, DL_UC);
-				long size = download.getDataSize();
-				if (size > 0) {
-					requestSize = size;
-				}
-			}
-		}
-		return requestSize;
-	}
-
-	/**
-	 * Checks if the given {@link RequestStatus} is an
-	 * {@link UploadFileRequestStatus} and if it matches the request class
-	 * provided at the initialization (see {@link #requestedClass}). If yes, it
-	 * adds the {@link RequestStatus} to the corresponding {@link List}
-	 * 
-	 * @param req
-	 *            {@link RequestStatus} to check
-	 * @return size of {@link RequestStatus} if its known and if
-	 *         {@link RequestStatus} is desired, otherwise {@code 0}
-	 * @see #get(int)
-	 * @see #getList(int)
-	 */
-	private long checkIfUploadDesired(RequestStatus req) {
-		long requestSize = 0;
-		if (req instanceof UploadFileRequestStatus && isDesired(UP)) {
-			UploadFileRequestStatus upload = (UploadFileRequestStatus) req;
-			if (upload.hasSucceeded()) {
-				addToList(upload, UP_C);
-			} else if (upload.hasFinished()) {
-				addToList(upload, UP_F);
-			} else {
-				short prio = upload.getPriority();
-				if (prio < lowestQueuedPriority) {
-					lowestQueuedPriority = prio;
-				}
-				addToList(upload, UP_UC);
-			}
-			long size = upload.getDataSize();
-			if (size > 0) {
-				requestSize = size;
-			}
-		}
-		return requestSize;
-	}
-
-	/**
-	 * Checks if the given {@link RequestStatus} is an
-	 * {@link UploadDirRequestStatus} and if it matches the request class
-	 * provided at the initialization (see {@link #requestedClass}). If yes, it
-	 * adds the {@link RequestStatus} to the corresponding {@link List}
-	 * 
-	 * @param req
-	 *            {@link RequestStatus} to check
-	 * @return size of {@link RequestStatus} if its known and if
-	 *         {@link RequestStatus} is desired, otherwise {@code 0}
-	 * @see #get(int)
-	 * @see #getList(int)
-	 */
-	private long checkIfUploadDirDesired(RequestStatus req) {
-		long requestSize = 0;
-		if (req instanceof UploadDirRequestStatus && isDesired(UP)) {
-			UploadDirRequestStatus upload = (UploadDirRequestStatus) req;
-			if (upload.hasSucceeded()) {
-				addToList(upload, UP_C_DIR);
-			} else if (upload.hasFinished()) {
-				addToList(upload, UP_F_DIR);
-			} else {
-				short prio = upload.getPriority();
-				if (prio < lowestQueuedPriority) {
-					lowestQueuedPriority = prio;
-				}
-				addToList(upload, UP_UC_DIR);
-			}
-			long size = upload.getTotalDataSize();
-			if (size > 0) {
-				requestSize = size;
-			}
-		}
-		return requestSize;
+		this.index = index;
+		queueSize = index.getCount(requestedClass);
+		lowestQueuedPriority = index.getLowestQueuedPriority(requestedClass);
+		totalQueueDownloadSize = isDesired(DL) ? index.getTotalQueueDownloadSize() : 0;
+		totalQueueUploadSize = isDesired(UP) ? index.getTotalQueueUploadSize() : 0;
 	}
 
 	/**
@@ -367,69 +179,6 @@ public class QueueHelper {
 		return (((i + (i >> 4)) & 0x0F0F0F0F) * 0x01010101) >> 24;
 	}
 
-	/**
-	 * Adds given {@link RequestStatus} to the {@link List} with desired target
-	 * class
-	 * 
-	 * @param request
-	 *            to add
-	 * @param targetClass
-	 *            queue class of {@link RequestStatus}
-	 */
-	private void addToList(RequestStatus request, int targetClass) {
-		if (!isDesired(targetClass)) {
-			return;
-		}
-		List<RequestStatus> list = requestsBackingMap.get(targetClass);
-		if (list == null) {
-			list = Lists.newLinkedList();
-		}
-		list.add(request);
-		requestsBackingMap.put(targetClass, list);
-		queueSize++;
-		logger.trace("Added request " + request.hashCode() + " to list with code " + Integer.toBinaryString(targetClass));
-	}
-
-	/**
-	 * Add given {@link RequestStatus} to the Map of unknown/bad MIME types
-	 * regarding given target class and MIME type
-	 * 
-	 * @param request
-	 *            to add
-	 * @param MIMEType
-	 *            content type
-	 * @param targetClass
-	 *            queue class of {@link RequestStatus}
-	 */
-	private void addToMap(RequestStatus request, String MIMEType, int targetClass) {
-		if (!isDesired(targetClass)) {
-			return;
-		}
-		List<RequestStatus> list = null;
-		switch (targetClass) {
-		case DL_F_B_MIME:
-			list = dl_f_b_mimeBackingMap.get(MIMEType);
-			if (list == null) {
-				list = Lists.newLinkedList();
-			}
-			dl_f_b_mimeBackingMap.put(MIMEType, list);
-			break;
-		case DL_F_U_MIME:
-			list = dl_f_u_mimeBackingMap.get(MIMEType);
-			if (list == null) {
-				list = Lists.newLinkedList();
-			}
-			dl_f_u_mimeBackingMap.put(MIMEType, list);
-			break;
-		default:
-			logger.warn("Tried to add a RequestStatus with an unknown class: " + targetClass);
-		}
-		if (list != null) {
-			list.add(request);
-		}
-		queueSize++;
-	}
-
 	/**
 	 * Returns {@code true} if base class contains the target class.
 	 * <p>
@@ -470,17 +219,20 @@ public class QueueHelper {
 	 * <li>{@link #UP_UC_DIR}</li>
 	 * </ul>
 	 * To access queues corresponding to {@link #DL_F_B_MIME} and
-	 * {@link #DL_F_U_MIME} use {@link #getMap(int)}.
+	 * {@link #DL_F_U_MIME} by MIME type use {@link #getMap(int)}.
 	 * </p>
 	 * 
 	 * @param targetClass
 	 *            desired queue class
-	 * @return desired {@link List}
+	 * @return desired {@link List}, or {@code null} if the class was not
+	 *         requested
 	 */
 	public List<RequestStatus> getList(int targetClass) {
 		classMustBeSingle(targetClass);
-		List<RequestStatus> result = requests.get(targetClass);
-		return result != null ? ImmutableList.copyOf(result) : null;
+		if (!isDesired(targetClass)) {
+			return null;
+		}
+		return ImmutableList.copyOf(index.get(targetClass, 0, Integer.MAX_VALUE));
 	}
 
 	/**
@@ -499,13 +251,13 @@ public class QueueHelper {
 	 * @see #getList(int)
 	 */
 	public Map<String, List<RequestStatus>> getMap(int targetClass) {
-		if (targetClass == DL_F_B_MIME) {
-			return dl_f_b_mime;
-		} else if (targetClass == DL_F_U_MIME) {
-			return dl_f_u_mime;
-		} else {
+		if (targetClass != DL_F_B_MIME && targetClass != DL_F_U_MIME) {
 			throw new IllegalArgumentException("Only applicable for values " + DL_F_B_MIME + " and " + DL_F_U_MIME);
 		}
+		if (!isDesired(targetClass)) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(index.getByMimeType(targetClass));
 	}
 
 	/**
@@ -514,8 +266,8 @@ public class QueueHelper {
 	 * {@link #getMap(int)}.
 	 * <p>
 	 * Since the queue classes of {@link #DL_F_B_MIME} and {@link #DL_F_U_MIME}
-	 * correspond to {@link Map}s. This method just merges all values of those
-	 * maps into a single {@link List} and returns that.
+	 * correspond to {@link Map}s. This method lists all values of those
+	 * maps in a single {@link List}.
 	 * </p>
 	 * 
 	 * @param targetClass
@@ -525,30 +277,14 @@ public class QueueHelper {
 	 * @see #getMap(int)
 	 */
 	public List<RequestStatus> get(int targetClass) {
-		classMustBeSingle(targetClass);
-		ImmutableCollection<List<RequestStatus>> values = null;
-		if (targetClass == DL_F_U_MIME) {
-			values = ImmutableList.copyOf(dl_f_b_mime.values());
-		} else if (targetClass == DL_F_B_MIME) {
-			values = ImmutableList.copyOf(dl_f_b_mime.values());
-		}
-		if (values != null) {
-			List<RequestStatus> result = Lists.newLinkedList();
-			for (List<RequestStatus> list : values) {
-				result.addAll(list);
-			}
-			return ImmutableList.copyOf(result);
-		} else {
-			return getList(targetClass);
-		}
+		return getList(targetClass);
 	}
 
 	/**
 	 * This depends on the requested queue class by the initialization (
-	 * {@link #requestedClass}). For example if {@link FCPServer} contains only
-	 * {@code n} {@link DownloadRequestStatus} and the request class equals to
-	 * {@link #UP_ALL}, this method would return zero since the
-	 * {@link DownloadRequestStatus} were not desired.
+	 * {@link #requestedClass}). For example if the queue contains only
+	 * {@code n} downloads and the request class equals to {@link #UP_ALL},
+	 * this method would return zero since the downloads were not desired.
 	 * 
 	 * @return total size of requested items
 	 */
@@ -565,10 +301,9 @@ public class QueueHelper {
 	}
 
 	/**
-	 * @return {@link FCPServer} to fetch and manipulate global
-	 *         {@link RequestStatus}s
+	 * @return {@link QueueIndex} the requests are read from
 	 */
-	public FCPServer getFCPServer() {
-		return fcp;
+	public QueueIndex getIndex() {
+		return index;
 	}
 }
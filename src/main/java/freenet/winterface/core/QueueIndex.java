@@ -0,0 +1,733 @@
+package freenet.winterface.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import freenet.client.FetchException;
+import freenet.client.filter.ContentFilter;
+import freenet.node.RequestStarter;
+import freenet.node.fcp.DownloadRequestStatus;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.fcp.UploadDirRequestStatus;
+import freenet.node.fcp.UploadFileRequestStatus;
+
+/**
+ * Long-lived index of the global request queue, kept up to date one
+ * {@link RequestStatus} at a time.
+ * <p>
+ * Requests are sorted into the queue classes of {@link QueueHelper} when they
+ * are added, so counts, total sizes and the lowest queued priority are ready
+ * to read, and a page of a class costs time proportional to its length.
+ * Sorted pages (see {@link #query(QueueQuery)}) are read from a sorted view
+ * per class and {@link QueueSortKey}, which is built on first use and kept
+ * sorted from then on: requests entering or leaving the class are inserted or
+ * removed by binary search. Only views by a volatile key of classes still
+ * running, whose values the node changes in place, are rebuilt after
+ * {@link #VOLATILE_VIEW_TTL} milliseconds.
+ * Every change of a request's progress gets a new version number, so clients
+ * can poll for what changed since their last version (see
+ * {@link #getChangesSince(String)}) instead of the whole queue. The node
+ * updates the status of running requests in place, so their progress is
+ * brought up to date by {@link #refreshProgress()} without asking the node.
+ * The index never scans all requests on a query; the owner feeds it changes (see {@link #put(RequestStatus)} and
+ * {@link #remove(String)}) and the occasional full list (see
+ * {@link #replaceAll(RequestStatus[])}).
+ * </p>
+ *
+ * @see QueueHelper
+ */
+public class QueueIndex {
+
+	/** All indexed requests by identifier */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	/** Requests of each queue class */
+	private final Map<Integer, ClassQueue> classes = new HashMap<Integer, ClassQueue>();
+	/** Number of failed downloads per MIME type, for the two MIME classes */
+	private final Map<Integer, Map<String, Integer>> mimeTypeCounts = new HashMap<Integer, Map<String, Integer>>();
+	/** Number of queued requests per priority class */
+	private final int[] queuedPriorities = new int[RequestStarter.NUMBER_OF_PRIORITY_CLASSES];
+
+	private long totalQueueDownloadSize;
+	private long totalQueueUploadSize;
+
+	/** Version of the latest change */
+	private long version;
+	/** Identifiers of indexed requests by version of their latest change */
+	private final TreeMap<Long, String> changes = new TreeMap<Long, String>();
+	/** Identifiers of removed requests by version of their removal */
+	private final TreeMap<Long, String> removals = new TreeMap<Long, String>();
+	/** Version of removal by identifier, the reverse of {@link #removals} */
+	private final Map<String, Long> removedAt = new HashMap<String, Long>();
+	/** Removals up to this version are forgotten */
+	private long horizon;
+	/** If the owner is still bringing the index up to date with the node */
+	private volatile boolean catchingUp;
+	/** Tells versions of this index from those of an earlier one */
+	private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	/** Number of removals remembered for {@link #getChangesSince(String)} */
+	public final static int MAX_REMOVALS = 1024;
+	/** Separates epoch and version in a version token */
+	private final static char VERSION_SEPARATOR = '.';
+
+	/** Queue classes of requests still running */
+	private final static int[] RUNNING_CLASSES = { QueueHelper.DL_UC, QueueHelper.UP_UC, QueueHelper.UP_UC_DIR };
+
+	/** Milliseconds a sorted view by a volatile key of a running class is used */
+	public final static long VOLATILE_VIEW_TTL = 5000;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(QueueIndex.class);
+
+	public QueueIndex() {
+		for (int queueClass : QueueHelper.DOWNLOAD_CLASSES) {
+			classes.put(queueClass, new ClassQueue());
+		}
+		for (int queueClass : QueueHelper.UPLOAD_CLASSES) {
+			classes.put(queueClass, new ClassQueue());
+		}
+		for (int queueClass : RUNNING_CLASSES) {
+			classes.get(queueClass).running = true;
+		}
+		mimeTypeCounts.put(QueueHelper.DL_F_U_MIME, new HashMap<String, Integer>());
+		mimeTypeCounts.put(QueueHelper.DL_F_B_MIME, new HashMap<String, Integer>());
+	}
+
+	/**
+	 * Adds a request, or updates it if a request with the same identifier is
+	 * already indexed.
+	 *
+	 * @param request
+	 *            current status of the request
+	 */
+	public synchronized void put(RequestStatus request) {
+		Entry entry = classify(request);
+		if (entry == null) {
+			logger.debug("Ignoring request of unknown type " + request.getClass().getName());
+			return;
+		}
+		Entry old = entries.put(entry.identifier, entry);
+		if (old != null && old.progress.sameAs(entry.progress)) {
+			entry.version = old.version;
+		} else {
+			if (old != null) {
+				changes.remove(old.version);
+			} else {
+				Long removal = removedAt.remove(entry.identifier);
+				if (removal != null) {
+					removals.remove(removal);
+				}
+			}
+			entry.version = ++version;
+			changes.put(entry.version, entry.identifier);
+		}
+		if (old != null && old.queueClass == entry.queueClass) {
+			// Stays in its class, only moves within sorted views if its value changed
+			ClassQueue queue = classes.get(entry.queueClass);
+			entry.position = old.position;
+			queue.entries.set(entry.position, entry);
+			queue.updated(entry);
+			unaccount(old);
+			account(entry);
+			return;
+		}
+		if (old != null) {
+			unlink(old);
+		}
+		link(entry);
+	}
+
+	/**
+	 * Removes a request.
+	 *
+	 * @param identifier
+	 *            identifier of the request
+	 * @return {@code true} if the request was indexed
+	 */
+	public synchronized boolean remove(String identifier) {
+		Entry old = entries.remove(identifier);
+		if (old == null) {
+			return false;
+		}
+		unlink(old);
+		recordRemoval(old);
+		return true;
+	}
+
+	/**
+	 * Reads the progress of all running requests again from their status,
+	 * and records those that changed. Costs time proportional to the number
+	 * of running requests.
+	 *
+	 * @return number of requests whose progress changed
+	 */
+	public synchronized int refreshProgress() {
+		int changed = 0;
+		for (int queueClass : RUNNING_CLASSES) {
+			for (Entry entry : classes.get(queueClass).entries) {
+				QueueProgress progress = new QueueProgress(entry.request, queueClass);
+				if (!progress.sameAs(entry.progress)) {
+					entry.progress = progress;
+					changes.remove(entry.version);
+					entry.version = ++version;
+					changes.put(entry.version, entry.identifier);
+					changed++;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Brings the index in line with the given complete list of requests:
+	 * adds and updates all of them and removes those not listed anymore.
+	 *
+	 * @param requests
+	 *            all global requests
+	 */
+	public synchronized void replaceAll(RequestStatus[] requests) {
+		Set<String> current = new HashSet<String>(requests.length * 2);
+		for (RequestStatus request : requests) {
+			put(request);
+			current.add(request.getIdentifier());
+		}
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+			if (!current.contains(entry.identifier)) {
+				it.remove();
+				unlink(entry);
+				recordRemoval(entry);
+			}
+		}
+	}
+
+	/**
+	 * @param requestedClass
+	 *            a queue class or a combination of them, e.g.
+	 *            {@link QueueHelper#DL_ALL}
+	 * @return number of requests in all matching queue classes
+	 */
+	public synchronized int getCount(int requestedClass) {
+		int count = 0;
+		for (Map.Entry<Integer, ClassQueue> queue : classes.entrySet()) {
+			if (QueueHelper.matches(requestedClass, queue.getKey())) {
+				count += queue.getValue().entries.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a page of the requests in a single queue class.
+	 *
+	 * @param targetClass
+	 *            a single queue class, e.g. {@link QueueHelper#DL_UC}
+	 * @param offset
+	 *            index of the first request to return
+	 * @param limit
+	 *            maximum number of requests to return
+	 * @return requests of the page, in no particular order
+	 */
+	public synchronized List<RequestStatus> get(int targetClass, int offset, int limit) {
+		List<Entry> queue = getClassQueue(targetClass).entries;
+		int end = (int) Math.min(queue.size(), (long) offset + limit);
+		if (offset < 0 || offset >= end) {
+			return Collections.emptyList();
+		}
+		List<RequestStatus> page = new ArrayList<RequestStatus>(end - offset);
+		for (int i = offset; i < end; i++) {
+			page.add(queue.get(i).request);
+		}
+		return page;
+	}
+
+	/**
+	 * Returns a sorted page of the requests in a single queue class. The sort
+	 * order is computed once per class and key, so browsing a large queue
+	 * page by page costs time proportional to the page.
+	 *
+	 * @param query
+	 *            describes the page
+	 * @return the page
+	 */
+	public synchronized QueuePage query(QueueQuery query) {
+		if (query.sortKey == null) {
+			return new QueuePage(get(query.queueClass, query.offset, query.limit), query.offset, getCount(query.queueClass));
+		}
+		SortedView sorted = getClassQueue(query.queueClass).getSortedView(query.sortKey);
+		int size = sorted.size();
+		int end = (int) Math.min(size, (long) query.offset + query.limit);
+		List<RequestStatus> page = new ArrayList<RequestStatus>(Math.max(0, end - query.offset));
+		for (int i = query.offset; i < end; i++) {
+			String identifier = sorted.get(query.ascending ? i : size - 1 - i);
+			page.add(entries.get(identifier).request);
+		}
+		return new QueuePage(page, query.offset, size);
+	}
+
+	/**
+	 * Returns the progress of all requests changed since the given version.
+	 * If the version is unknown, e.g. because it is {@code null}, belongs to
+	 * an earlier index or is so old that removals have been forgotten meanwhile,
+	 * the progress of all requests is returned.
+	 *
+	 * @param since
+	 *            version token as returned by an earlier call, may be
+	 *            {@code null}
+	 * @return changes since then, with the current version token
+	 */
+	public synchronized QueueChanges getChangesSince(String since) {
+		String current = epoch + VERSION_SEPARATOR + Long.toString(version, Character.MAX_RADIX);
+		long sinceVersion = parseVersion(since);
+		if (sinceVersion < horizon || sinceVersion > version) {
+			List<QueueProgress> all = new ArrayList<QueueProgress>(entries.size());
+			for (Entry entry : entries.values()) {
+				all.add(entry.progress);
+			}
+			return new QueueChanges(current, true, all, Collections.<String> emptyList(), catchingUp);
+		}
+		Collection<String> changedIds = changes.tailMap(sinceVersion, false).values();
+		List<QueueProgress> changed = new ArrayList<QueueProgress>(changedIds.size());
+		for (String identifier : changedIds) {
+			changed.add(entries.get(identifier).progress);
+		}
+		List<String> removed = new ArrayList<String>(removals.tailMap(sinceVersion, false).values());
+		return new QueueChanges(current, false, changed, removed, catchingUp);
+	}
+
+	/**
+	 * @return version of the given token, or {@code -1} if it is not a token
+	 *         of this index
+	 */
+	private long parseVersion(String token) {
+		if (token == null) {
+			return -1;
+		}
+		int separator = token.indexOf(VERSION_SEPARATOR);
+		if (separator < 0 || !token.substring(0, separator).equals(epoch)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(token.substring(separator + 1), Character.MAX_RADIX);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param targetClass
+	 *            either {@link QueueHelper#DL_F_U_MIME} or
+	 *            {@link QueueHelper#DL_F_B_MIME}
+	 * @return number of failed downloads per MIME type
+	 */
+	public synchronized Map<String, Integer> getMimeTypeCounts(int targetClass) {
+		Map<String, Integer> counts = mimeTypeCounts.get(targetClass);
+		if (counts == null) {
+			throw new IllegalArgumentException("Only applicable for values " + QueueHelper.DL_F_B_MIME + " and " + QueueHelper.DL_F_U_MIME);
+		}
+		return new HashMap<String, Integer>(counts);
+	}
+
+	/**
+	 * @param targetClass
+	 *            either {@link QueueHelper#DL_F_U_MIME} or
+	 *            {@link QueueHelper#DL_F_B_MIME}
+	 * @return failed downloads by MIME type
+	 */
+	public synchronized Map<String, List<RequestStatus>> getByMimeType(int targetClass) {
+		if (!mimeTypeCounts.containsKey(targetClass)) {
+			throw new IllegalArgumentException("Only applicable for values " + QueueHelper.DL_F_B_MIME + " and " + QueueHelper.DL_F_U_MIME);
+		}
+		Map<String, List<RequestStatus>> byMimeType = new HashMap<String, List<RequestStatus>>();
+		for (Entry entry : classes.get(targetClass).entries) {
+			List<RequestStatus> requests = byMimeType.get(entry.mimeType);
+			if (requests == null) {
+				requests = new ArrayList<RequestStatus>();
+				byMimeType.put(entry.mimeType, requests);
+			}
+			requests.add(entry.request);
+		}
+		return byMimeType;
+	}
+
+	/**
+	 * @return {@code true} if the index is being brought up to date with the
+	 *         node, so requests may be missing or outdated
+	 */
+	public boolean isCatchingUp() {
+		return catchingUp;
+	}
+
+	/**
+	 * Tells whether the index is being brought up to date with the node. A
+	 * change gets a new version, so clients polling for changes learn of it.
+	 *
+	 * @param catchingUp
+	 *            if the index is being brought up to date with the node
+	 */
+	public synchronized void setCatchingUp(boolean catchingUp) {
+		if (this.catchingUp != catchingUp) {
+			this.catchingUp = catchingUp;
+			version++;
+		}
+	}
+
+	/**
+	 * @return number of indexed requests
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return total size of queued downloads in byte, as far as known
+	 */
+	public synchronized long getTotalQueueDownloadSize() {
+		return totalQueueDownloadSize;
+	}
+
+	/**
+	 * @return total size of uploads in byte, as far as known
+	 */
+	public synchronized long getTotalQueueUploadSize() {
+		return totalQueueUploadSize;
+	}
+
+	/**
+	 * @return the lowest priority of all queued requests, or
+	 *         {@link RequestStarter#MINIMUM_PRIORITY_CLASS} if nothing is
+	 *         queued
+	 */
+	public synchronized short getLowestQueuedPriority() {
+		for (short priority = 0; priority < queuedPriorities.length; priority++) {
+			if (queuedPriorities[priority] > 0) {
+				return priority;
+			}
+		}
+		return RequestStarter.MINIMUM_PRIORITY_CLASS;
+	}
+
+	/**
+	 * @param requestedClass
+	 *            a queue class or a combination of them
+	 * @return the lowest priority of the queued requests in all matching queue
+	 *         classes, or {@link RequestStarter#MINIMUM_PRIORITY_CLASS} if
+	 *         none of them is queued
+	 */
+	public synchronized short getLowestQueuedPriority(int requestedClass) {
+		for (short priority = 0; priority < queuedPriorities.length; priority++) {
+			if (queuedPriorities[priority] == 0) {
+				continue;
+			}
+			for (Map.Entry<Integer, ClassQueue> queue : classes.entrySet()) {
+				if (QueueHelper.matches(requestedClass, queue.getKey()) && queue.getValue().queuedPriorities[priority] > 0) {
+					return priority;
+				}
+			}
+		}
+		return RequestStarter.MINIMUM_PRIORITY_CLASS;
+	}
+
+	private void recordRemoval(Entry entry) {
+		changes.remove(entry.version);
+		long removal = ++version;
+		removals.put(removal, entry.identifier);
+		removedAt.put(entry.identifier, removal);
+		if (removals.size() > MAX_REMOVALS) {
+			Map.Entry<Long, String> oldest = removals.pollFirstEntry();
+			removedAt.remove(oldest.getValue());
+			horizon = oldest.getKey();
+		}
+	}
+
+	private ClassQueue getClassQueue(int targetClass) {
+		ClassQueue queue = classes.get(targetClass);
+		if (queue == null) {
+			throw new IllegalArgumentException("Not a single queue class: " + targetClass);
+		}
+		return queue;
+	}
+
+	private void link(Entry entry) {
+		ClassQueue queue = classes.get(entry.queueClass);
+		entry.position = queue.entries.size();
+		queue.entries.add(entry);
+		queue.added(entry);
+		account(entry);
+	}
+
+	private void unlink(Entry entry) {
+		// Move the last entry into the gap, so removal needs no shifting
+		ClassQueue queue = classes.get(entry.queueClass);
+		Entry last = queue.entries.remove(queue.entries.size() - 1);
+		if (last != entry) {
+			last.position = entry.position;
+			queue.entries.set(entry.position, last);
+		}
+		queue.removed(entry);
+		unaccount(entry);
+	}
+
+	private void account(Entry entry) {
+		if (entry.mimeType != null) {
+			Map<String, Integer> counts = mimeTypeCounts.get(entry.queueClass);
+			Integer count = counts.get(entry.mimeType);
+			counts.put(entry.mimeType, count == null ? 1 : count + 1);
+		}
+		if (entry.queuedPriority >= 0) {
+			queuedPriorities[entry.queuedPriority]++;
+			classes.get(entry.queueClass).queuedPriorities[entry.queuedPriority]++;
+		}
+		totalQueueDownloadSize += entry.downloadSize;
+		totalQueueUploadSize += entry.uploadSize;
+	}
+
+	private void unaccount(Entry entry) {
+		if (entry.mimeType != null) {
+			Map<String, Integer> counts = mimeTypeCounts.get(entry.queueClass);
+			int count = counts.get(entry.mimeType);
+			if (count == 1) {
+				counts.remove(entry.mimeType);
+			} else {
+				counts.put(entry.mimeType, count - 1);
+			}
+		}
+		if (entry.queuedPriority >= 0) {
+			queuedPriorities[entry.queuedPriority]--;
+			classes.get(entry.queueClass).queuedPriorities[entry.queuedPriority]--;
+		}
+		totalQueueDownloadSize -= entry.downloadSize;
+		totalQueueUploadSize -= entry.uploadSize;
+	}
+
+	/**
+	 * Sorts a request into its queue class.
+	 *
+	 * @return entry for the request, or {@code null} if its type is unknown
+	 */
+	private static Entry classify(RequestStatus request) {
+		Entry entry = new Entry(request);
+		if (request instanceof DownloadRequestStatus) {
+			DownloadRequestStatus download = (DownloadRequestStatus) request;
+			if (download.hasSucceeded()) {
+				entry.queueClass = download.toTempSpace() ? QueueHelper.DL_C_TEMP : QueueHelper.DL_C_DISK;
+			} else if (download.hasFinished()) {
+				int failureCode = download.getFailureCode();
+				if (failureCode == FetchException.CONTENT_VALIDATION_UNKNOWN_MIME) {
+					entry.mimeType = ContentFilter.stripMIMEType(download.getMIMEType());
+					entry.queueClass = QueueHelper.DL_F_U_MIME;
+				} else if (failureCode == FetchException.CONTENT_VALIDATION_BAD_MIME) {
+					entry.mimeType = ContentFilter.stripMIMEType(download.getMIMEType());
+					boolean known = ContentFilter.getMIMEType(entry.mimeType) != null;
+					entry.queueClass = known ? QueueHelper.DL_F_B_MIME : QueueHelper.DL_F_U_MIME;
+				} else {
+					entry.queueClass = QueueHelper.DL_F;
+				}
+			} else {
+				entry.queueClass = QueueHelper.DL_UC;
+				entry.queuedPriority = download.getPriority();
+				entry.downloadSize = Math.max(0, download.getDataSize());
+			}
+		} else if (request instanceof UploadFileRequestStatus) {
+			UploadFileRequestStatus upload = (UploadFileRequestStatus) request;
+			if (upload.hasSucceeded()) {
+				entry.queueClass = QueueHelper.UP_C;
+			} else if (upload.hasFinished()) {
+				entry.queueClass = QueueHelper.UP_F;
+			} else {
+				entry.queueClass = QueueHelper.UP_UC;
+				entry.queuedPriority = upload.getPriority();
+			}
+			entry.uploadSize = Math.max(0, upload.getDataSize());
+		} else if (request instanceof UploadDirRequestStatus) {
+			UploadDirRequestStatus upload = (UploadDirRequestStatus) request;
+			if (upload.hasSucceeded()) {
+				entry.queueClass = QueueHelper.UP_C_DIR;
+			} else if (upload.hasFinished()) {
+				entry.queueClass = QueueHelper.UP_F_DIR;
+			} else {
+				entry.queueClass = QueueHelper.UP_UC_DIR;
+				entry.queuedPriority = upload.getPriority();
+			}
+			entry.uploadSize = Math.max(0, upload.getTotalDataSize());
+		} else {
+			return null;
+		}
+		if (entry.queuedPriority >= RequestStarter.NUMBER_OF_PRIORITY_CLASSES) {
+			entry.queuedPriority = RequestStarter.MINIMUM_PRIORITY_CLASS;
+		}
+		entry.progress = new QueueProgress(request, entry.queueClass);
+		return entry;
+	}
+
+	/**
+	 * Requests of one queue class, in no particular order, and sorted views
+	 * on them.
+	 */
+	private static class ClassQueue {
+		final List<Entry> entries = new ArrayList<Entry>();
+		/** Number of queued requests per priority class */
+		final int[] queuedPriorities = new int[RequestStarter.NUMBER_OF_PRIORITY_CLASSES];
+		/** If requests of the class run, so the node changes their status in place */
+		boolean running;
+		private final Map<QueueSortKey, SortedView> views = new EnumMap<QueueSortKey, SortedView>(QueueSortKey.class);
+
+		/**
+		 * Called when a request entered the class.
+		 */
+		void added(Entry entry) {
+			for (SortedView view : views.values()) {
+				view.add(entry);
+			}
+		}
+
+		/**
+		 * Called when a request left the class.
+		 */
+		void removed(Entry entry) {
+			for (SortedView view : views.values()) {
+				view.remove(entry.identifier);
+			}
+		}
+
+		/**
+		 * Called when the status of a request in the class was replaced.
+		 */
+		void updated(Entry entry) {
+			for (SortedView view : views.values()) {
+				view.update(entry);
+			}
+		}
+
+		/**
+		 * @return all requests, sorted ascending by the given key
+		 */
+		SortedView getSortedView(QueueSortKey key) {
+			SortedView view = views.get(key);
+			long now = System.currentTimeMillis();
+			if (view == null || (running && key.isVolatile && now - view.createdAt > VOLATILE_VIEW_TTL)) {
+				view = new SortedView(entries, key, now);
+				views.put(key, view);
+			}
+			return view;
+		}
+	}
+
+	/**
+	 * Identifiers of requests sorted by values captured when they entered the
+	 * view, so the order stays consistent while paging.
+	 */
+	private static class SortedView {
+		/** Orders by value, then by identifier, so no two items are equal */
+		private final static Comparator<Item> ORDER = new Comparator<Item>() {
+			@Override
+			public int compare(Item a, Item b) {
+				int result = a.value.compareTo(b.value);
+				return result != 0 ? result : a.identifier.compareTo(b.identifier);
+			}
+		};
+
+		private final QueueSortKey key;
+		final long createdAt;
+		private final List<Item> sorted;
+		/** Items by identifier, to find them again by their captured value */
+		private final Map<String, Item> items;
+
+		SortedView(List<Entry> entries, QueueSortKey key, long createdAt) {
+			this.key = key;
+			this.createdAt = createdAt;
+			Item[] all = new Item[entries.size()];
+			items = new HashMap<String, Item>(all.length * 2);
+			for (int i = 0; i < all.length; i++) {
+				all[i] = item(entries.get(i));
+				items.put(all[i].identifier, all[i]);
+			}
+			Arrays.sort(all, ORDER);
+			sorted = new ArrayList<Item>(Arrays.asList(all));
+		}
+
+		int size() {
+			return sorted.size();
+		}
+
+		String get(int index) {
+			return sorted.get(index).identifier;
+		}
+
+		void add(Entry entry) {
+			Item item = item(entry);
+			items.put(item.identifier, item);
+			sorted.add(-Collections.binarySearch(sorted, item, ORDER) - 1, item);
+		}
+
+		void remove(String identifier) {
+			sorted.remove(Collections.binarySearch(sorted, items.remove(identifier), ORDER));
+		}
+
+		void update(Entry entry) {
+			Item item = items.get(entry.identifier);
+			if (item.value.compareTo(key.valueOf(entry.request)) != 0) {
+				remove(entry.identifier);
+				add(entry);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Item item(Entry entry) {
+			return new Item(entry.identifier, (Comparable<Object>) key.valueOf(entry.request));
+		}
+	}
+
+	/**
+	 * A request in a {@link SortedView}
+	 */
+	private static class Item {
+		final String identifier;
+		final Comparable<Object> value;
+
+		Item(String identifier, Comparable<Object> value) {
+			this.identifier = identifier;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * An indexed request with everything derived from it at indexing time, so
+	 * it can be removed again even if the status changed meanwhile.
+	 */
+	private static class Entry {
+		final RequestStatus request;
+		final String identifier;
+		int queueClass;
+		/** MIME type for the MIME failure classes, {@code null} otherwise */
+		String mimeType;
+		/** Priority if queued, {@code -1} otherwise */
+		short queuedPriority = -1;
+		long downloadSize;
+		long uploadSize;
+		/** Index in the list of its queue class */
+		int position;
+		/** Progress when indexed */
+		QueueProgress progress;
+		/** Version of the latest change of progress */
+		long version;
+
+		Entry(RequestStatus request) {
+			this.request = request;
+			this.identifier = request.getIdentifier();
+		}
+	}
+}
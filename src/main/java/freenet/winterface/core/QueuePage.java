@@ -0,0 +1,31 @@
+package freenet.winterface.core;
+
+import java.util.List;
+
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * A page of a queue class, as answered by {@link QueueIndex#query(QueueQuery)}.
+ */
+public final class QueuePage {
+
+	/** Requests on this page, in order */
+	public final List<RequestStatus> requests;
+	/** Index of the first request on this page */
+	public final int offset;
+	/** Number of requests in the whole queue class */
+	public final int total;
+
+	QueuePage(List<RequestStatus> requests, int offset, int total) {
+		this.requests = requests;
+		this.offset = offset;
+		this.total = total;
+	}
+
+	/**
+	 * @return {@code true} if there are requests after this page
+	 */
+	public boolean hasMore() {
+		return offset + requests.size() < total;
+	}
+}
@@ -0,0 +1,40 @@
+package freenet.winterface.core;
+
+import freenet.node.fcp.RequestStatus;
+
+/**
+ * Compact progress of one request, as sent to clients that poll the queue.
+ *
+ * @see QueueIndex#getChangesSince(String)
+ */
+public final class QueueProgress {
+
+	/** Identifier of the request */
+	public final String identifier;
+	/** Queue class the request is in */
+	public final int queueClass;
+	public final int fetchedBlocks;
+	public final int failedBlocks;
+	public final int minBlocks;
+	public final int totalBlocks;
+	/** Special state, see {@link RequestProgress#specialFlag} */
+	public final int specialFlag;
+
+	QueueProgress(RequestStatus request, int queueClass) {
+		this.identifier = request.getIdentifier();
+		this.queueClass = queueClass;
+		this.fetchedBlocks = request.getFetchedBlocks();
+		this.failedBlocks = request.getFailedBlocks();
+		this.minBlocks = request.getMinBlocks();
+		this.totalBlocks = request.getTotalBlocks();
+		this.specialFlag = new RequestProgress(request).specialFlag;
+	}
+
+	/**
+	 * @return {@code true} if both describe the same progress
+	 */
+	boolean sameAs(QueueProgress other) {
+		return queueClass == other.queueClass && fetchedBlocks == other.fetchedBlocks && failedBlocks == other.failedBlocks
+				&& minBlocks == other.minBlocks && totalBlocks == other.totalBlocks && specialFlag == other.specialFlag;
+	}
+}
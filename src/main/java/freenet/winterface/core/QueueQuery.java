@@ -0,0 +1,42 @@
+package freenet.winterface.core;
+
+/**
+ * Describes a page of a single queue class, see
+ * {@link QueueIndex#query(QueueQuery)}.
+ */
+public final class QueueQuery {
+
+	/** Single queue class, e.g. {@link QueueHelper#DL_UC} */
+	public final int queueClass;
+	/** Key to sort by, {@code null} for no particular order */
+	public final QueueSortKey sortKey;
+	/** {@code true} to sort ascending */
+	public final boolean ascending;
+	/** Index of first request on the page */
+	public final int offset;
+	/** Maximum number of requests on the page */
+	public final int limit;
+
+	/**
+	 * @param queueClass
+	 *            single queue class, e.g. {@link QueueHelper#DL_UC}
+	 * @param sortKey
+	 *            key to sort by, {@code null} for no particular order
+	 * @param ascending
+	 *            {@code true} to sort ascending
+	 * @param offset
+	 *            index of first request on the page
+	 * @param limit
+	 *            maximum number of requests on the page
+	 */
+	public QueueQuery(int queueClass, QueueSortKey sortKey, boolean ascending, int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("Offset and limit must not be negative");
+		}
+		this.queueClass = queueClass;
+		this.sortKey = sortKey;
+		this.ascending = ascending;
+		this.offset = offset;
+		this.limit = limit;
+	}
+}
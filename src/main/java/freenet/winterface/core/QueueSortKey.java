@@ -0,0 +1,83 @@
+package freenet.winterface.core;
+
+import freenet.node.fcp.DownloadRequestStatus;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.fcp.UploadDirRequestStatus;
+import freenet.node.fcp.UploadFileRequestStatus;
+
+/**
+ * Properties a queue can be sorted by.
+ * <p>
+ * Each key reads a sortable value from a {@link RequestStatus}. Keys marked
+ * as volatile read values that change while a request runs, so sorted views
+ * by them are only trusted for a short while.
+ * </p>
+ *
+ * @see QueueQuery
+ */
+public enum QueueSortKey {
+
+	/** Priority class, most important first when ascending */
+	PRIORITY(true) {
+		@Override
+		Comparable<?> valueOf(RequestStatus request) {
+			return Short.valueOf(request.getPriority());
+		}
+	},
+	/** Size in byte, {@code -1} if unknown */
+	SIZE(true) {
+		@Override
+		Comparable<?> valueOf(RequestStatus request) {
+			long size = -1;
+			if (request instanceof DownloadRequestStatus) {
+				size = ((DownloadRequestStatus) request).getDataSize();
+			} else if (request instanceof UploadFileRequestStatus) {
+				size = ((UploadFileRequestStatus) request).getDataSize();
+			} else if (request instanceof UploadDirRequestStatus) {
+				size = ((UploadDirRequestStatus) request).getTotalDataSize();
+			}
+			return Long.valueOf(Math.max(-1, size));
+		}
+	},
+	/** Share of fetched blocks */
+	PROGRESS(true) {
+		@Override
+		Comparable<?> valueOf(RequestStatus request) {
+			if (request.hasSucceeded()) {
+				return Double.valueOf(1);
+			}
+			int total = request.isTotalFinalized() ? request.getTotalBlocks() : request.getMinBlocks();
+			return Double.valueOf(total > 0 ? (double) request.getFetchedBlocks() / total : 0);
+		}
+	},
+	/** Time of last activity */
+	LAST_ACTIVITY(true) {
+		@Override
+		Comparable<?> valueOf(RequestStatus request) {
+			return Long.valueOf(request.getLastActivity());
+		}
+	},
+	/** File name, ignoring case */
+	NAME(false) {
+		@Override
+		Comparable<?> valueOf(RequestStatus request) {
+			String name = request.getPreferredFilename();
+			return name != null ? name.toLowerCase() : "";
+		}
+	};
+
+	/** If values change while a request is queued */
+	final boolean isVolatile;
+
+	private QueueSortKey(boolean isVolatile) {
+		this.isVolatile = isVolatile;
+	}
+
+	/**
+	 * @param request
+	 *            request to read
+	 * @return the value to sort the request by. All values of one key are
+	 *         mutually comparable.
+	 */
+	abstract Comparable<?> valueOf(RequestStatus request);
+}
@@ -27,6 +27,10 @@ public final class RequestsUtil {
 	public final static String HEADER_MAX_SIZE = "max-size";
 	/** Header key for accepted MIME types */
 	public final static String HEADER_ACCEPT = "accept";
+	/** Header key for requested byte ranges */
+	public final static String HEADER_RANGE = "range";
+	/** Header key for the entity a range request is conditional on */
+	public final static String HEADER_IF_RANGE = "if-range";
 
 	/** Number of maximum redirect follows */
 	public final static short MAX_RECURSION = 5;
@@ -69,4 +73,20 @@ public final class RequestsUtil {
 		return f;
 	}
 
+	/**
+	 * Creates a (strong) entity tag for the content of given key. Only
+	 * meaningful for keys whose content cannot change (CHKs and SSKs).
+	 *
+	 * @param key
+	 *            a {@link FreenetURI}
+	 * @return quoted entity tag
+	 */
+	public static String getEntityTag(FreenetURI key) {
+		try {
+			return "\"" + HexUtil.bytesToHex(SHA256.digest(key.toString().getBytes("UTF-8"))) + "\"";
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
 }
@@ -0,0 +1,129 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Counters and latencies of the requests to one route.
+ * <p>
+ * Request latencies are taken by the {@link MetricsFilter}, the time spent
+ * filling the context and rendering the template by {@link VelocityBase}.
+ * </p>
+ */
+public class RouteMetrics {
+
+	private final String name;
+	private final String path;
+	private final LatencyHistogram requests = new LatencyHistogram();
+	private final LatencyHistogram fillContext = new LatencyHistogram();
+	private final LatencyHistogram render = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong active = new AtomicLong();
+
+	/**
+	 * Finishes asynchronous requests. Holds no state of its own, so one
+	 * listener serves all requests of the route.
+	 */
+	private final AsyncListener asyncListener = new AsyncListener() {
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			// The start of the request is only known to the millisecond here
+			long startMillis = Request.getRequest((HttpServletRequest) event.getAsyncContext().getRequest()).getTimeStamp();
+			long micros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - startMillis);
+			finish(micros, ((HttpServletResponse) event.getAsyncContext().getResponse()).getStatus() >= 400);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			// Completed afterwards
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			// Completed afterwards
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+	};
+
+	/**
+	 * @param name
+	 *            name of the route, e.g. the simple name of its servlet
+	 * @param path
+	 *            servlet path of the route, {@code null} if it has none
+	 */
+	RouteMetrics(String name, String path) {
+		this.name = name;
+		this.path = path;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return latencies of whole requests, as seen by the server
+	 */
+	public LatencyHistogram getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return latencies of filling the context of a page
+	 */
+	public LatencyHistogram getFillContext() {
+		return fillContext;
+	}
+
+	/**
+	 * @return latencies of merging the template of a page
+	 */
+	public LatencyHistogram getRender() {
+		return render;
+	}
+
+	/**
+	 * @return number of requests answered with a status of 400 or more, or
+	 *         not answered at all
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @return number of requests being handled right now
+	 */
+	public long getActive() {
+		return active.get();
+	}
+
+	void start() {
+		active.incrementAndGet();
+	}
+
+	void finish(long micros, boolean failed) {
+		active.decrementAndGet();
+		requests.record(micros);
+		if (failed) {
+			errors.incrementAndGet();
+		}
+	}
+
+	AsyncListener getAsyncListener() {
+		return asyncListener;
+	}
+}
@@ -10,10 +10,15 @@ import javax.servlet.http.HttpServlet;
 
 import freenet.winterface.web.Alerts;
 import freenet.winterface.web.Bookmarks;
+import freenet.winterface.web.BookmarksBulk;
 import freenet.winterface.web.Dashboard;
+import freenet.winterface.web.Events;
 import freenet.winterface.web.InvalidKey;
+import freenet.winterface.web.Metrics;
 import freenet.winterface.web.Plugins;
+import freenet.winterface.web.QueueUpdates;
 import freenet.winterface.web.Root;
+import freenet.winterface.web.Traces;
 import freenet.winterface.web.VelocityTest;
 
 public class Routes {
@@ -31,6 +36,11 @@ public class Routes {
 		addRoute(InvalidKey.class, "/invalidkey", true, "invalidkey.vm");
 		addRoute(Alerts.class, "/alerts", true, "alerts.vm");
 		addRoute(Bookmarks.class, "/bookmarkEditor", true, "bookmarks.vm");
+		addRoute(BookmarksBulk.class, "/bookmarkEditor/bulk", false, null);
+		addRoute(QueueUpdates.class, "/queue/updates", false, null);
+		addRoute(Events.class, "/events", false, null);
+		addRoute(Metrics.class, "/metrics", false, null);
+		addRoute(Traces.class, "/traces", true, "traces.vm");
 		addRoute(VelocityTest.class, "/test", false, "test.vm");
 	}
 	
@@ -1,23 +1,34 @@
 package freenet.winterface.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletResponse;
 
+import freenet.winterface.freenet.FetchTraceLog;
 import freenet.winterface.freenet.FreenetInterface;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.spi.ErrorHandler;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.exception.VelocityException;
+import org.eclipse.jetty.server.AbstractConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ErrorPageErrorHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 /**
  * Takes care of {@link Server}
@@ -40,6 +51,11 @@ public class ServerManager {
 	 */
 	private Server server;
 
+	/**
+	 * Pushes events to open pages while the server runs
+	 */
+	private EventBroadcaster eventBroadcaster;
+
 	/**
 	 * Log4j logger
 	 */
@@ -49,6 +65,9 @@ public class ServerManager {
 	public static final String FREENET_INTERFACE = "freenet-interface";
 	public static final String WINTERFACE_ROUTES = "winterface-routes";
 	public static final String CONFIG_ID = "winterface-configuration";
+	public static final String EVENT_BROADCASTER = "winterface-events";
+	public static final String METRICS = "winterface-metrics";
+	public static final String FETCH_TRACES = "winterface-fetch-traces";
 	/**
 	 * Starts {@link Server} in the desired mode.
 	 * <p>
@@ -68,19 +87,22 @@ public class ServerManager {
 	public Server startServer(boolean devMode, final Configuration config, FreenetInterface freenetInterface, WinterfacePlugin winterfacePlugin) {
 		if (server == null) {
 			server = new Server();
+			server.setThreadPool(createThreadPool(config));
 
 			// Bind
 			String[] hosts = config.getBindToHosts().split(",");
 			for (String host : hosts) {
-				SocketConnector connector = new SocketConnector();
+				AbstractConnector connector = config.isNioConnector() ? new SelectChannelConnector() : new SocketConnector();
 				connector.setMaxIdleTime(config.getIdleTimeout());
 				connector.setSoLingerTime(-1);
+				connector.setAcceptors(config.getAcceptors());
 				connector.setHost(host);
 				connector.setPort(config.getPort());
 				server.addConnector(connector);
 			}
 
 			ServletContextHandler sch = new ServletContextHandler(ServletContextHandler.SESSIONS);
+			initMetricsFilter(sch);
 			initIPFilter(sch, config);
 			initErrorHandlers(sch);
 			initStaticResources(sch);
@@ -88,8 +110,13 @@ public class ServerManager {
 			
 			Routes routes = new Routes();
 			routes.initRoutes();
+			if (!devMode) {
+				preloadTemplates(routes);
+			}
 			for (Class<? extends HttpServlet> servletClass : routes.getServletClasses()) {
-				sch.addServlet(servletClass, routes.getMatchFor(servletClass));
+				ServletHolder holder = sch.addServlet(servletClass, routes.getMatchFor(servletClass));
+				// Lets servlets wait for Freenet without holding a thread
+				holder.setAsyncSupported(true);
 			}
 
 			/*
@@ -101,11 +128,16 @@ public class ServerManager {
 			sch.setAttribute(FREENET_INTERFACE, freenetInterface);
 			sch.setAttribute(WINTERFACE_ROUTES, routes);
 			sch.setAttribute(CONFIG_ID, config);
+			sch.setAttribute(METRICS, new MetricsRegistry(routes, freenetInterface.getFetchMetrics()));
+			sch.setAttribute(FETCH_TRACES, new FetchTraceLog(FetchTraceLog.DEFAULT_CAPACITY));
+			eventBroadcaster = new EventBroadcaster(freenetInterface);
+			sch.setAttribute(EVENT_BROADCASTER, eventBroadcaster);
 
 			server.setHandler(sch);
 
 			try {
 				logger.info("Starting Jetty Server on port " + config.getPort());
+				eventBroadcaster.start();
 				server.start();
 				server.join();
 			} catch (Exception e) {
@@ -115,6 +147,66 @@ public class ServerManager {
 		return server;
 	}
 
+	/**
+	 * Parses all templates ahead of the first request. In deployment mode
+	 * Velocity caches them, so no request has to wait for parsing.
+	 * 
+	 * @param routes
+	 *            {@link Routes} listing the page templates
+	 */
+	private void preloadTemplates(Routes routes) {
+		List<String> templates = new ArrayList<String>(Arrays.asList(VelocityBase.COMMON_TEMPLATES));
+		templates.addAll(routes.getTemplatesList());
+		for (String template : templates) {
+			if (template == null) {
+				continue;
+			}
+			try {
+				Velocity.getTemplate(VelocityBase.TEMPLATE_PATH + template);
+			} catch (VelocityException e) {
+				logger.error("Could not preload template " + template, e);
+			}
+		}
+		logger.debug("Preloaded " + templates.size() + " templates");
+	}
+
+	/**
+	 * Creates the {@link ThreadPool} shared by all connectors. Requests
+	 * exceeding the thread limit wait in a bounded queue. The limit is raised
+	 * if acceptors and selectors would take all threads.
+	 * 
+	 * @param config
+	 *            thread limits
+	 * @return a new thread pool
+	 */
+	private ThreadPool createThreadPool(Configuration config) {
+		int maxThreads = Math.max(config.getMinThreads(), config.getMaxThreads());
+		int needed = config.getMaxThreadsNeeded();
+		if (maxThreads < needed) {
+			// Acceptors or hosts changed after the thread limit was checked
+			logger.warn("Raising maximum server threads from " + maxThreads + " to " + needed + ", fewer leave no thread for requests");
+			maxThreads = needed;
+		}
+		QueuedThreadPool pool = new QueuedThreadPool(new ArrayBlockingQueue<Runnable>(config.getMaxQueued()));
+		pool.setName("Winterface");
+		pool.setMinThreads(config.getMinThreads());
+		pool.setMaxThreads(maxThreads);
+		return pool;
+	}
+
+	/**
+	 * Initializes {@link MetricsFilter} in front of all other filters, so
+	 * blocked requests are counted as well
+	 * 
+	 * @param sch
+	 *            parent {@link ServletContextHandler}
+	 */
+	private void initMetricsFilter(ServletContextHandler sch) {
+		FilterHolder fh = new FilterHolder(MetricsFilter.class);
+		fh.setAsyncSupported(true);
+		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
+	}
+
 	/**
 	 * Initializes and configures {@link IPFilter}
 	 * 
@@ -124,6 +216,8 @@ public class ServerManager {
 	private void initIPFilter(ServletContextHandler sch, Configuration config) {
 		FilterHolder fh = new FilterHolder(IPFilter.class);
 		fh.setInitParameter(IPFilter.ALLOWED_HOSTS_PARAM, config.getAllowedHosts());
+		// Filters in front of asynchronous servlets must allow it as well
+		fh.setAsyncSupported(true);
 		sch.addFilter(fh, "/*", EnumSet.of(DispatcherType.REQUEST));
 	}
 
@@ -171,6 +265,9 @@ public class ServerManager {
 	 * Terminates {@link Server} (if running)
 	 */
 	public void terminateServer() {
+		if (eventBroadcaster != null) {
+			eventBroadcaster.stop();
+		}
 		if (server != null) {
 			try {
 				server.stop();
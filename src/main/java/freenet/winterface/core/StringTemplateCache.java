@@ -0,0 +1,90 @@
+package freenet.winterface.core;
+
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Compiled {@link Template}s by their source, for templates built at runtime
+ * rather than loaded from the resources, which Velocity caches itself.
+ * <p>
+ * A source is parsed once; its template is shared from then on, as Velocity
+ * templates can be merged by several threads at once. The cache holds at most
+ * the given number of templates and drops the least recently used first.
+ * </p>
+ */
+public class StringTemplateCache {
+
+	private final Cache<String, Template> templates;
+
+	/**
+	 * @param maxEntries number of templates kept
+	 */
+	public StringTemplateCache(int maxEntries) {
+		templates = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+	}
+
+	/**
+	 * @return the compiled template of the given source
+	 * @throws ParseException if the source is not a valid template
+	 */
+	public Template get(final String source) throws ParseException {
+		try {
+			return templates.get(source, new Callable<Template>() {
+				@Override
+				public Template call() throws ParseException {
+					return parse(source);
+				}
+			});
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), ParseException.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Compiles a template, called on a miss
+	 */
+	Template parse(String source) throws ParseException {
+		RuntimeServices runtimeServices = RuntimeSingleton.getRuntimeServices();
+		SimpleNode node = runtimeServices.parse(new StringReader(source), "Template name");
+		Template template = new Template();
+		template.setRuntimeServices(runtimeServices);
+		template.setData(node);
+		template.initDocument();
+		return template;
+	}
+
+	public long getEntryCount() {
+		return templates.size();
+	}
+
+	/**
+	 * @return number of lookups answered without parsing
+	 */
+	public long getHits() {
+		return stats().hitCount();
+	}
+
+	/**
+	 * @return number of lookups that parsed their source, successfully or not
+	 */
+	public long getMisses() {
+		return stats().missCount();
+	}
+
+	private CacheStats stats() {
+		return templates.stats();
+	}
+}
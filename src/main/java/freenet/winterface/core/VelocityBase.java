@@ -1,15 +1,11 @@
 package freenet.winterface.core;
 
 import java.io.IOException;
-import java.io.StringReader;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.app.Velocity;
 import org.apache.velocity.context.Context;
-import org.apache.velocity.runtime.RuntimeServices;
-import org.apache.velocity.runtime.RuntimeSingleton;
 import org.apache.velocity.runtime.parser.ParseException;
-import org.apache.velocity.runtime.parser.node.SimpleNode;
 import org.apache.velocity.tools.view.VelocityViewServlet;
 
 import freenet.winterface.freenet.FreenetInterface;
@@ -29,12 +25,25 @@ public abstract class VelocityBase extends VelocityViewServlet {
 	 * Path within /resources/ to the base templates directory.
 	 */
 	public static final String TEMPLATE_PATH = "/templates/";
+
+	/**
+	 * Templates used by all pages, besides the ones listed in {@link Routes}.
+	 */
+	public static final String[] COMMON_TEMPLATES = { "index.vm", "navbar.vm", "status.vm", "plain.vm" };
 	
 	private static final Escaper ESCAPER = new Escaper();
 
+	/** Maximum number of templates kept by {@link #STRING_TEMPLATES} */
+	private static final int STRING_TEMPLATES_MAX = 128;
+
+	/** Templates compiled by {@link #templateFromString(String)} */
+	private static final StringTemplateCache STRING_TEMPLATES = new StringTemplateCache(STRING_TEMPLATES_MAX);
+
 	protected String templateName;
 	private final I18n i18n;
 	private final WinterfaceConstants constants;
+	/** Metrics of this page, looked up on first use */
+	private RouteMetrics metrics;
 
 	/**
 	 * @param templateName path to the template for this page. It is relative to the /templates/ resources directory.
@@ -55,9 +64,12 @@ public abstract class VelocityBase extends VelocityViewServlet {
 	 */
 	@Override
 	protected void fillContext(Context context, HttpServletRequest request) {
+		long started = System.nanoTime();
 		this.templateName = getTemplateFromRoutes(getClass());
 		context.put("esc", ESCAPER);
 		context.put("freenet", context.get(ServerManager.FREENET_INTERFACE));
+		// One look at the alerts for the whole page
+		context.put("alerts", ((FreenetInterface) context.get(ServerManager.FREENET_INTERFACE)).getAlertSnapshot());
 		context.put("winterface-routes", context.get(ServerManager.WINTERFACE_ROUTES));
 		context.put("fproxy", "http://127.0.0.1:" + ((FreenetInterface) context.get(ServerManager.FREENET_INTERFACE)).getFproxyPort());
 		context.put("requestedPage", templateFor(templateName));
@@ -68,6 +80,10 @@ public abstract class VelocityBase extends VelocityViewServlet {
 		constants.addConstantsToContext(context);
 		context.put("page_title", new String("Freenet"));
 		subFillContext(context, request);
+		RouteMetrics routeMetrics = getMetrics();
+		if (routeMetrics != null) {
+			routeMetrics.getFillContext().recordSince(started);
+		}
 	}
 
 	/**
@@ -81,6 +97,31 @@ public abstract class VelocityBase extends VelocityViewServlet {
 		return Velocity.getTemplate(templateFor("index.vm"));
 	}
 
+	@Override
+	protected void mergeTemplate(Template template, Context context, HttpServletResponse response) throws IOException {
+		long started = System.nanoTime();
+		super.mergeTemplate(template, context, response);
+		RouteMetrics routeMetrics = getMetrics();
+		if (routeMetrics != null) {
+			routeMetrics.getRender().recordSince(started);
+		}
+	}
+
+	/**
+	 * @return metrics of this page, {@code null} if none are kept
+	 */
+	private RouteMetrics getMetrics() {
+		RouteMetrics routeMetrics = metrics;
+		if (routeMetrics == null) {
+			MetricsRegistry registry = (MetricsRegistry) getServletContext().getAttribute(ServerManager.METRICS);
+			if (registry != null) {
+				// Safe to publish without locks, its fields are final
+				metrics = routeMetrics = registry.getRoute(getClass());
+			}
+		}
+		return routeMetrics;
+	}
+
 	protected String templateFor(String name) {
 		return TEMPLATE_PATH + name;
 	}
@@ -98,15 +139,20 @@ public abstract class VelocityBase extends VelocityViewServlet {
 		return getRoutes().getTemplateFor(classObject);
 	}
 	
+	/**
+	 * Returns the compiled template for the given source. Sources seen before
+	 * are not parsed again, see {@link #getStringTemplates()}.
+	 */
 	protected Template templateFromString(String inputString) throws ParseException {
-		RuntimeServices runtimeServices = RuntimeSingleton.getRuntimeServices();
-		StringReader reader = new StringReader(inputString);
-		SimpleNode node = runtimeServices.parse(reader, "Template name");
-		Template template = new Template();
-		template.setRuntimeServices(runtimeServices);
-		template.setData(node);
-		template.initDocument();
-		return template;
+		return STRING_TEMPLATES.get(inputString);
+	}
+
+	/**
+	 * @return the templates compiled by {@link #templateFromString(String)},
+	 *         with their hit and miss counts
+	 */
+	public static StringTemplateCache getStringTemplates() {
+		return STRING_TEMPLATES;
 	}
 	
 	/**
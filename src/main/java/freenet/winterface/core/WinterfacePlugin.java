@@ -20,6 +20,8 @@ import freenet.pluginmanager.PluginHTTPException;
 import freenet.pluginmanager.PluginManager;
 import freenet.pluginmanager.PluginRespirator;
 import freenet.support.api.HTTPRequest;
+import freenet.winterface.freenet.CachingFreenetInterface;
+import freenet.winterface.freenet.FreenetInterface;
 import freenet.winterface.freenet.NodeFreenetInterface;
 import freenet.winterface.freenet.PluginFreenetInterface;
 
@@ -55,6 +57,11 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 	 */
 	private ServerManager serverManager;
 
+	/**
+	 * Interface to the node, shared by all pages
+	 */
+	private FreenetInterface freenetInterface;
+
 	/** Configuration */
 	private final Configuration config;
 	
@@ -96,22 +103,40 @@ public class WinterfacePlugin implements FredPlugin, FredPluginVersioned, FredPl
 		// Register logger and so on
 		logger.debug("Loaded WinterFacePlugin on path " + plugin_path);
 
+		initVelocity(DEV_MODE);
+
+		// initServer();
+		serverManager = new ServerManager();
+		freenetInterface = new CachingFreenetInterface(new NodeFreenetInterface(pr.getNode(), i18n), config);
+		serverManager.startServer(DEV_MODE, config, freenetInterface, this);
+	}
+
+	/**
+	 * Initializes Velocity to load the templates from the classpath.
+	 * 
+	 * @param devMode
+	 *            {@code true} to parse templates on each use, so edits show
+	 *            up right away; {@code false} to parse each template once and
+	 *            never look at it again
+	 */
+	public static void initVelocity(boolean devMode) {
 		// Templates are stored in jars on the classpath.
 		Properties properties = new Properties();
 		properties.setProperty("resource.loader", "class");
 		properties.setProperty("class.resource.loader.class",
 		                       "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+		properties.setProperty("class.resource.loader.cache", Boolean.toString(!devMode));
+		properties.setProperty("class.resource.loader.modificationCheckInterval", "0");
 
 		Velocity.init(properties);
-
-		// initServer();
-		serverManager = new ServerManager();
-		serverManager.startServer(DEV_MODE, config, new NodeFreenetInterface(pr.getNode(), i18n), this);
 	}
 
 	@Override
 	public void terminate() {
 		serverManager.terminateServer();
+		if (freenetInterface != null) {
+			freenetInterface.terminate();
+		}
 	}
 
 	@Override
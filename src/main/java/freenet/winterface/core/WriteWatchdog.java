@@ -0,0 +1,185 @@
+package freenet.winterface.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Bounds how long a thread may be blocked writing to a client.
+ * <p>
+ * Streams returned by {@link #watch(OutputStream, HttpServletRequest)} are
+ * checked every {@link #CHECK_INTERVAL} milliseconds while they write. If a
+ * write or flush takes longer than the timeout, the connection is closed,
+ * which ends the write with an {@link IOException}. Threads that are not the
+ * server's own, e.g. the node's, thus can't be held by a client that stopped
+ * reading.
+ * </p>
+ */
+public class WriteWatchdog {
+
+	/** Milliseconds between two checks of the writing streams */
+	public final static long CHECK_INTERVAL = 1000;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(WriteWatchdog.class);
+
+	private final long timeout;
+	/** Streams in a write right now */
+	private final Set<WatchedStream> writing = Collections.newSetFromMap(new ConcurrentHashMap<WatchedStream, Boolean>());
+	private final ScheduledExecutorService checker;
+
+	/**
+	 * Starts watching.
+	 *
+	 * @param timeout
+	 *            milliseconds a write may take
+	 */
+	public WriteWatchdog(long timeout) {
+		this.timeout = timeout;
+		checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Winterface write watchdog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		checker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param out
+	 *            stream to the client, usually the response's
+	 * @param request
+	 *            the client's request, whose connection is closed if a write
+	 *            takes too long
+	 * @return stream passing everything on to the given one, within the
+	 *         timeout
+	 */
+	public OutputStream watch(OutputStream out, HttpServletRequest request) {
+		return new WatchedStream(out, request);
+	}
+
+	/**
+	 * Stops watching. Writes in progress are no longer bounded.
+	 */
+	public void stop() {
+		checker.shutdownNow();
+		writing.clear();
+	}
+
+	private void check() {
+		long now = System.currentTimeMillis();
+		for (WatchedStream stream : writing) {
+			if (stream.isStuck(now)) {
+				logger.debug("Disconnecting client not taking data for " + timeout + " ms");
+				stream.abort();
+			}
+		}
+	}
+
+	private class WatchedStream extends OutputStream {
+
+		private final OutputStream out;
+		private final HttpServletRequest request;
+		private volatile long writingSince;
+		private volatile boolean aborted;
+
+		WatchedStream(OutputStream out, HttpServletRequest request) {
+			this.out = out;
+			this.request = request;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			begin();
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				throw failure(e);
+			} finally {
+				end();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			begin();
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				throw failure(e);
+			} finally {
+				end();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			begin();
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw failure(e);
+			} finally {
+				end();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		private void begin() throws IOException {
+			if (aborted) {
+				throw new IOException("Client did not take data for " + timeout + " ms");
+			}
+			writingSince = System.currentTimeMillis();
+			writing.add(this);
+		}
+
+		private void end() {
+			writing.remove(this);
+		}
+
+		private IOException failure(IOException e) {
+			return aborted ? new IOException("Client did not take data for " + timeout + " ms", e) : e;
+		}
+
+		boolean isStuck(long now) {
+			return now - writingSince > timeout;
+		}
+
+		/**
+		 * Cuts the connection, which also ends the write blocked on it.
+		 */
+		void abort() {
+			aborted = true;
+			writing.remove(this);
+			try {
+				Request.getRequest(request).getConnection().getEndPoint().close();
+			} catch (IOException e) {
+				logger.debug("Could not close connection", e);
+			} catch (RuntimeException e) {
+				logger.debug("Could not close connection", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package freenet.winterface.freenet;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import freenet.node.useralerts.UserAlert;
+
+/**
+ * Alerts of the node at one point in time, sorted and counted in one pass, so
+ * a page can ask for them as often as it likes.
+ *
+ * @see UserAlertManagerInterface#getSnapshot()
+ */
+public final class AlertSnapshot {
+
+	/** Class reported as highest if there are no valid alerts */
+	public final static int NO_ALERT_CLASS = UserAlert.MINOR + 1;
+
+	/** Most important alerts first, keeping the order within a class */
+	private final static Comparator<UserAlert> BY_PRIORITY = new Comparator<UserAlert>() {
+		@Override
+		public int compare(UserAlert a, UserAlert b) {
+			return a.getPriorityClass() - b.getPriorityClass();
+		}
+	};
+
+	private final UserAlert[] alerts;
+	private final UserAlert[] validAlerts;
+	/** Number of valid alerts per priority class */
+	private final int[] counts = new int[NO_ALERT_CLASS];
+
+	/**
+	 * @param alerts
+	 *            all alerts of the node
+	 */
+	public AlertSnapshot(UserAlert[] alerts) {
+		this.alerts = alerts;
+		UserAlert[] valid = new UserAlert[alerts.length];
+		int validCount = 0;
+		for (UserAlert alert : alerts) {
+			if (alert.isValid()) {
+				valid[validCount++] = alert;
+				int priorityClass = Math.max(0, Math.min(alert.getPriorityClass(), UserAlert.MINOR));
+				counts[priorityClass]++;
+			}
+		}
+		validAlerts = Arrays.copyOf(valid, validCount);
+		Arrays.sort(validAlerts, BY_PRIORITY);
+	}
+
+	/**
+	 * @return all alerts, valid or not. Shared by all readers of this
+	 *         snapshot, must not be modified.
+	 */
+	public UserAlert[] getAlerts() {
+		return alerts;
+	}
+
+	/**
+	 * @return valid alerts, most important first. Shared by all readers of
+	 *         this snapshot, must not be modified.
+	 */
+	public UserAlert[] getValidAlerts() {
+		return validAlerts;
+	}
+
+	public int getValidAlertCount() {
+		return validAlerts.length;
+	}
+
+	/**
+	 * @param priorityClass
+	 *            priority class, e.g. {@link UserAlert#WARNING}
+	 * @return number of valid alerts of this class
+	 */
+	public int getValidAlertCount(int priorityClass) {
+		return priorityClass >= 0 && priorityClass < counts.length ? counts[priorityClass] : 0;
+	}
+
+	/**
+	 * @return the highest class of valid alerts, or {@link #NO_ALERT_CLASS}
+	 *         if there are none
+	 */
+	public int getHighestClass() {
+		return validAlerts.length > 0 ? validAlerts[0].getPriorityClass() : NO_ALERT_CLASS;
+	}
+}
@@ -2,17 +2,23 @@ package freenet.winterface.freenet;
 
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import freenet.client.async.USKManager;
 import freenet.clients.http.bookmark.Bookmark;
 import freenet.clients.http.bookmark.BookmarkCategory;
 import freenet.clients.http.bookmark.BookmarkItem;
 import freenet.clients.http.bookmark.BookmarkManager;
 import freenet.keys.FreenetURI;
+import freenet.keys.USK;
 import freenet.l10n.NodeL10n;
-import freenet.node.FSParseException;
 import freenet.node.Node;
 import freenet.node.useralerts.UserAlertManager;
 import freenet.support.URLEncoder;
@@ -20,42 +26,85 @@ import freenet.winterface.core.I18n;
 
 public class BookmarkFreenetInterface{
 
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(BookmarkFreenetInterface.class);
+
+	private final static String NO_SUCH_BOOKMARK = "No such bookmark";
+	private final static String NO_SUCH_CATEGORY = "No such category";
+	private final static String INVALID_NAME = "Invalid name";
+	private final static String NAME_IN_USE = "Name already in use";
+
 	private BookmarkManager bookmarkManager;
+	/** Stores bookmarks after changes, in the background */
+	private final BookmarkPersister persister;
+	/** Knows the latest editions of bookmarked USKs */
+	private final USKManager uskManager;
 	private Node node;
 	private UserAlertManager uam;
 	private I18n i18n;
 
+	/**
+	 * Milliseconds the flattened bookmark tree is used. Fred does not tell
+	 * about changes made elsewhere, e.g. on its own bookmark page.
+	 */
+	private final static long INDEX_MAX_AGE = 30000;
+
+	/** Flattened bookmark tree, {@code null} if it needs to be built */
+	private volatile BookmarkIndex index;
+
 	public BookmarkFreenetInterface(Node node, I18n i18n) {
-		this(node, node.clientCore.getBookmarkManager(), i18n);
+		this(node, node.clientCore.getBookmarkManager(), node.clientCore.uskManager, i18n);
 	}
 
 	@VisibleForTesting
-	BookmarkFreenetInterface(Node node, BookmarkManager bookmarkManager, I18n i18n) {
+	BookmarkFreenetInterface(Node node, BookmarkManager bookmarkManager, USKManager uskManager, I18n i18n) {
 		this.node = node;
 		this.bookmarkManager = bookmarkManager;
+		this.persister = new BookmarkPersister(bookmarkManager);
+		this.uskManager = uskManager;
 		this.uam = node.clientCore.alerts;
 		this.i18n = i18n;
 	}
 
+	/**
+	 * @return all categories, depth first. The list is shared and must not be
+	 *         modified.
+	 */
 	public List<BookmarkCategoryWithPath> getBookmarkCategories() {
-		List<BookmarkCategoryWithPath> catList = new ArrayList<BookmarkCategoryWithPath>();
-		recursivelyAddSubCategoriesWithPath(catList, BookmarkManager.MAIN_CATEGORY, "");
-		return catList;
+		return getIndex().categories;
 	}
 
 	public int getBookmarkCategoriesCount() {
-		return getBookmarkCategories().size();
+		return getIndex().categories.size();
 	}
 
-	private void recursivelyAddSubCategoriesWithPath(List<BookmarkCategoryWithPath> catList, BookmarkCategory bc, String path) {
-		BookmarkCategoryWithPath bcWithPath = null;
-		try {
-			bcWithPath = new BookmarkCategoryWithPath(bc, path);
-		} catch (FSParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return;
+	/**
+	 * Returns the flattened bookmark tree, building it if bookmarks were
+	 * changed through this interface or it is older than
+	 * {@link #INDEX_MAX_AGE} milliseconds.
+	 */
+	private BookmarkIndex getIndex() {
+		BookmarkIndex current = index;
+		if (current != null && System.currentTimeMillis() - current.builtAt < INDEX_MAX_AGE) {
+			return current;
+		}
+		synchronized (this) {
+			if (index == current) {
+				index = new BookmarkIndex();
+			}
+			return index;
 		}
+	}
+
+	/**
+	 * Drops the flattened bookmark tree after a change.
+	 */
+	private synchronized void invalidate() {
+		index = null;
+	}
+
+	private void recursivelyAddSubCategoriesWithPath(List<BookmarkCategoryWithPath> catList, BookmarkCategory bc, String path) {
+		BookmarkCategoryWithPath bcWithPath = new BookmarkCategoryWithPath(bc, path);
 		catList.add(bcWithPath);
 		for (BookmarkCategory bcChild : bc.getSubCategories()) {
 			recursivelyAddSubCategoriesWithPath(catList, bcChild, bcWithPath.getCatPath());
@@ -96,7 +145,8 @@ public class BookmarkFreenetInterface{
 			item.update(key, hasAnActivelink, descB, explain);
 			//TODO Send feeds to Darknet peers
 		}
-		bookmarkManager.storeBookmarks();
+		invalidate();
+		persister.requestStore();
 	}
 	
 	public void addCategory(String path, String name) {
@@ -111,7 +161,8 @@ public class BookmarkFreenetInterface{
 		
 		if (newCategory != null) {
 			bookmarkManager.addBookmark(path, newCategory);
-			bookmarkManager.storeBookmarks();
+			invalidate();
+			persister.requestStore();
 		}
 	}
 
@@ -132,53 +183,277 @@ public class BookmarkFreenetInterface{
 		
 		if (newBookmark != null) {
 			bookmarkManager.addBookmark(path, newBookmark);
-			bookmarkManager.storeBookmarks();
+			invalidate();
+			persister.requestStore();
 		}
 	}
 
 	public void removeBookmark(String path) {
 		bookmarkManager.removeBookmark(path);
-		bookmarkManager.storeBookmarks();
+		invalidate();
+		persister.requestStore();
 	}
 
+	/**
+	 * @param store
+	 *            {@code true} to store the bookmarks soon, {@code false} if
+	 *            more changes follow and one of them will
+	 */
 	public void moveBookmarkUp(String path, boolean store) {
-		bookmarkManager.moveBookmarkUp(path, store);
-		bookmarkManager.storeBookmarks();
+		bookmarkManager.moveBookmarkUp(path, false);
+		invalidate();
+		if (store) {
+			persister.requestStore();
+		}
 	}
 
+	/**
+	 * @param store
+	 *            {@code true} to store the bookmarks soon, {@code false} if
+	 *            more changes follow and one of them will
+	 */
 	public void moveBookmarkDown(String path, boolean store) {
-		bookmarkManager.moveBookmarkDown(path, store);
-		bookmarkManager.storeBookmarks();
+		bookmarkManager.moveBookmarkDown(path, false);
+		invalidate();
+		if (store) {
+			persister.requestStore();
+		}
+	}
+
+	/**
+	 * Applies several changes at once, in the given order, and stores them
+	 * with a single write. The bookmark manager's monitor is held meanwhile,
+	 * so stores of the {@link BookmarkPersister}, which hold it as well, see
+	 * either none or all of them. Fred's bookmark page and USK updates store
+	 * without that monitor and may write part of the changes; the next store
+	 * writes the rest. A failing operation does not stop the following ones.
+	 *
+	 * @return for each operation {@code null} if it was applied, otherwise
+	 *         why not
+	 */
+	public List<String> applyOperations(List<BookmarkOperation> operations) {
+		List<String> results = new ArrayList<String>(operations.size());
+		boolean changed = false;
+		synchronized (bookmarkManager) {
+			for (BookmarkOperation operation : operations) {
+				String error;
+				try {
+					error = apply(operation);
+				} catch (RuntimeException e) {
+					logger.warn("Could not apply bookmark operation " + operation, e);
+					error = e.toString();
+				}
+				results.add(error);
+				changed |= error == null;
+			}
+		}
+		if (changed) {
+			invalidate();
+			persister.requestStore();
+		}
+		return results;
+	}
+
+	private String apply(BookmarkOperation operation) {
+		String path = operation.getPath();
+		switch (operation.getType()) {
+		case ADD_CATEGORY:
+		case ADD_ITEM:
+			if (bookmarkManager.getCategoryByPath(path) == null) {
+				return NO_SUCH_CATEGORY;
+			}
+			boolean category = operation.getType() == BookmarkOperation.Type.ADD_CATEGORY;
+			String error = checkName(path, operation.getName());
+			if (error != null) {
+				return error;
+			}
+			if (category) {
+				bookmarkManager.addBookmark(path, new BookmarkCategory(operation.getName()));
+			} else {
+				try {
+					bookmarkManager.addBookmark(path, new BookmarkItem(operation.getKey(), operation.getName(), operation.getDescription(),
+							operation.getExplanation(), operation.hasAnActivelink(), uam));
+				} catch (MalformedURLException e) {
+					return "Invalid key";
+				}
+			}
+			return null;
+		case EDIT:
+			return edit(operation);
+		case DELETE:
+			if (getBookmark(path) == null) {
+				return NO_SUCH_BOOKMARK;
+			}
+			bookmarkManager.removeBookmark(path);
+			return null;
+		case MOVE:
+			return move(path, operation.getCategory(), operation.getPosition());
+		default:
+			throw new IllegalArgumentException("Unknown operation " + operation.getType());
+		}
+	}
+
+	private String edit(BookmarkOperation operation) {
+		String path = operation.getPath();
+		Bookmark bookmark = getBookmark(path);
+		if (bookmark == null) {
+			return NO_SUCH_BOOKMARK;
+		}
+		boolean category = bookmark instanceof BookmarkCategory;
+		if (!bookmark.getName().equals(operation.getName())) {
+			String error = checkName(BookmarkManager.parentPath(path), operation.getName());
+			if (error != null) {
+				return error;
+			}
+			bookmarkManager.renameBookmark(path, operation.getName());
+		}
+		if (!category) {
+			BookmarkItem item = (BookmarkItem) bookmark;
+			FreenetURI key = operation.getKey() != null ? operation.getKey() : item.getURI();
+			item.update(key, operation.hasAnActivelink(), operation.getDescription(), operation.getExplanation());
+		}
+		return null;
+	}
+
+	private String move(String path, String categoryPath, int position) {
+		Bookmark bookmark = getBookmark(path);
+		if (bookmark == null) {
+			return NO_SUCH_BOOKMARK;
+		}
+		String parentPath = BookmarkManager.parentPath(path);
+		if (categoryPath != null && !categoryPath.equals(parentPath)) {
+			// Fred removes the children of a removed category, so only items can be taken over
+			if (!(bookmark instanceof BookmarkItem)) {
+				return "Only items can change their category";
+			}
+			if (bookmarkManager.getCategoryByPath(categoryPath) == null) {
+				return NO_SUCH_CATEGORY;
+			}
+			String error = checkName(categoryPath, bookmark.getName());
+			if (error != null) {
+				return error;
+			}
+			bookmarkManager.removeBookmark(path);
+			bookmarkManager.addBookmark(categoryPath, bookmark);
+			parentPath = categoryPath;
+			path = categoryPath + bookmark.getName();
+		}
+		BookmarkCategory parent = bookmarkManager.getCategoryByPath(parentPath);
+		int index = 0;
+		while (index < parent.size() && parent.get(index) != bookmark) {
+			index++;
+		}
+		int target = Math.max(0, Math.min(position, parent.size() - 1));
+		for (; index > target; index--) {
+			bookmarkManager.moveBookmarkUp(path, false);
+		}
+		for (; index < target; index++) {
+			bookmarkManager.moveBookmarkDown(path, false);
+		}
+		return null;
 	}
 
+	/**
+	 * @return the bookmark at the given path, {@code null} if there is none
+	 *         or it is the main category, which cannot be changed
+	 */
+	private Bookmark getBookmark(String path) {
+		if (path == null || path.equals("/")) {
+			return null;
+		}
+		if (path.endsWith("/")) {
+			return bookmarkManager.getCategoryByPath(path);
+		}
+		return bookmarkManager.getItemByPath(path);
+	}
+
+	/**
+	 * @return why {@code name} cannot be used in the category at
+	 *         {@code parentPath}, {@code null} if it can
+	 */
+	private String checkName(String parentPath, String name) {
+		if (name == null || name.isEmpty() || name.contains("/")) {
+			return INVALID_NAME;
+		}
+		if (bookmarkManager.getCategoryByPath(parentPath + name + "/") != null || bookmarkManager.getItemByPath(parentPath + name) != null) {
+			return NAME_IN_USE;
+		}
+		return null;
+	}
+
+	/**
+	 * Stores changes not yet stored right away.
+	 */
 	public void storeBookmarks() {
-		bookmarkManager.storeBookmarks();
+		persister.flush();
+	}
+	
+	/**
+	 * Stores changes not yet stored. Called when Winterface is unloaded.
+	 */
+	public void terminate() {
+		persister.terminate();
 	}
 	
 	public void reAddDefaultBookmarks() {
 		bookmarkManager.reAddDefaultBookmarks();
+		invalidate();
+	}
+
+	/**
+	 * All bookmark categories at one point in time, depth first, with their
+	 * paths and items.
+	 */
+	private class BookmarkIndex {
+		final List<BookmarkCategoryWithPath> categories;
+		final long builtAt = System.currentTimeMillis();
+
+		BookmarkIndex() {
+			List<BookmarkCategoryWithPath> catList = new ArrayList<BookmarkCategoryWithPath>();
+			recursivelyAddSubCategoriesWithPath(catList, BookmarkManager.MAIN_CATEGORY, "");
+			categories = Collections.unmodifiableList(catList);
+		}
 	}
 
 
 	// Inner class to store BookmarkCategory and its path
+	// Only the name is taken over, its items are kept as they were when created.
 	public class BookmarkCategoryWithPath extends BookmarkCategory {
 
 		private final static String mainCategoryPath = "/";
-		private String path;
-		private List<BookmarkItem> bookmarkItems = new ArrayList<BookmarkItem>();
-
-		public BookmarkCategoryWithPath(BookmarkCategory bc, String path) throws FSParseException {
-			super(bc.getSimpleFieldSet());
-			bookmarkItems = bc.getItems();
+		private final String path;
+		private final String pathEncoded;
+		private final String visibleName;
+		private final List<BookmarkItem> bookmarkItems;
+		/**
+		 * Latest editions the node knows of the items that are bookmarked as
+		 * USK. Fred subscribes to all bookmarked USKs, so they stay current.
+		 */
+		private final Map<BookmarkItem, Long> latestEditions = new IdentityHashMap<BookmarkItem, Long>();
+
+		public BookmarkCategoryWithPath(BookmarkCategory bc, String path) {
+			super(bc.getName());
+			bookmarkItems = Collections.unmodifiableList(new ArrayList<BookmarkItem>(bc.getItems()));
+			for (BookmarkItem item : bookmarkItems) {
+				FreenetURI uri = item.getURI();
+				if (uri != null && uri.isUSK()) {
+					try {
+						latestEditions.put(item, uskManager.lookupKnownGood(USK.create(uri)));
+					} catch (MalformedURLException e) {
+						// Shown with its stored edition
+					}
+				}
+			}
 			if(path.isEmpty()) {
 				this.path = mainCategoryPath;
 			} else {
-				this.path = path + getName() + "/";
+				this.path = path + bc.getName() + "/";
 			}
+			pathEncoded = URLEncoder.encode(this.path, false);
+			visibleName = visibleName(bc.getName());
 		}
 
-		@Override
-		public String getVisibleName() {
+		private String visibleName(String name) {
 			if (path.equals(mainCategoryPath)) {
 				return i18n.get("Bookmarks.mainCategory") + "(" + mainCategoryPath + ")";
 			} else if (name.toLowerCase().startsWith("l10n:")) {
@@ -188,18 +463,35 @@ public class BookmarkFreenetInterface{
 			}
 		}
 
+		@Override
+		public String getVisibleName() {
+			return visibleName;
+		}
+
 		public String getCatPath() {
 			return path;
 		}
 
 		public String getCatPathEncoded() {
-			return URLEncoder.encode(getCatPath(), false);
+			return pathEncoded;
 		}
 
 		public List<BookmarkItem> getItems() {
 			return bookmarkItems;
 		}
 
+		/**
+		 * @return key of the item, with the latest known edition if it is a
+		 *         USK, so following it needs no redirect
+		 */
+		public String getLatestKey(BookmarkItem item) {
+			Long edition = latestEditions.get(item);
+			if (edition != null && edition > item.getURI().getSuggestedEdition()) {
+				return item.getURI().setSuggestedEdition(edition).toString();
+			}
+			return item.getKey();
+		}
+
 	}
 
 }
\ No newline at end of file
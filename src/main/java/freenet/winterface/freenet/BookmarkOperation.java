@@ -0,0 +1,135 @@
+package freenet.winterface.freenet;
+
+import freenet.keys.FreenetURI;
+
+/**
+ * One change to the bookmarks, to be applied together with others through
+ * {@link FreenetInterface#applyBookmarkOperations(java.util.List)}.
+ * <p>
+ * Paths are the same as for the single changes: categories end with a
+ * {@code /}, items do not.
+ * </p>
+ */
+public class BookmarkOperation {
+
+	public enum Type {
+		/** Adds category {@code name} to category {@code path} */
+		ADD_CATEGORY,
+		/** Adds an item to category {@code path} */
+		ADD_ITEM,
+		/** Renames (and for items updates) the bookmark at {@code path} */
+		EDIT,
+		/** Removes the bookmark at {@code path} */
+		DELETE,
+		/**
+		 * Moves the bookmark at {@code path} to {@code position} within
+		 * {@code category}, or within its own category if none is given
+		 */
+		MOVE
+	}
+
+	private final Type type;
+	private final String path;
+	private String name;
+	private FreenetURI key;
+	private String description;
+	private String explanation;
+	private boolean activelink;
+	private String category;
+	private int position;
+
+	private BookmarkOperation(Type type, String path) {
+		this.type = type;
+		this.path = path;
+	}
+
+	public static BookmarkOperation addCategory(String parentPath, String name) {
+		BookmarkOperation operation = new BookmarkOperation(Type.ADD_CATEGORY, parentPath);
+		operation.name = name;
+		return operation;
+	}
+
+	public static BookmarkOperation addItem(String parentPath, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+		BookmarkOperation operation = new BookmarkOperation(Type.ADD_ITEM, parentPath);
+		operation.setItem(name, key, descB, explain, hasAnActivelink);
+		return operation;
+	}
+
+	/**
+	 * @param key
+	 *            new key, ignored for categories
+	 */
+	public static BookmarkOperation edit(String path, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+		BookmarkOperation operation = new BookmarkOperation(Type.EDIT, path);
+		operation.setItem(name, key, descB, explain, hasAnActivelink);
+		return operation;
+	}
+
+	public static BookmarkOperation delete(String path) {
+		return new BookmarkOperation(Type.DELETE, path);
+	}
+
+	/**
+	 * @param category
+	 *            path of the target category, {@code null} to stay in the
+	 *            current one. Only items can change their category.
+	 * @param position
+	 *            index within the category, counting items and sub
+	 *            categories; too large values move to the end
+	 */
+	public static BookmarkOperation move(String path, String category, int position) {
+		BookmarkOperation operation = new BookmarkOperation(Type.MOVE, path);
+		operation.category = category;
+		operation.position = position;
+		return operation;
+	}
+
+	private void setItem(String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+		this.name = name;
+		this.key = key;
+		this.description = descB;
+		this.explanation = explain;
+		this.activelink = hasAnActivelink;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FreenetURI getKey() {
+		return key;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getExplanation() {
+		return explanation;
+	}
+
+	public boolean hasAnActivelink() {
+		return activelink;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + path;
+	}
+}
@@ -0,0 +1,116 @@
+package freenet.winterface.freenet;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import freenet.clients.http.bookmark.BookmarkManager;
+
+/**
+ * Stores bookmarks in the background, once per burst of changes.
+ * <p>
+ * A store is requested after every change; it happens when no further change
+ * came in for {@link #QUIET_PERIOD} milliseconds, but no later than
+ * {@link #MAX_DELAY} milliseconds after the first unsaved change. Each store
+ * is a single {@link BookmarkManager#storeBookmarks()}, which writes a new
+ * file and moves it over the old one.
+ * </p>
+ */
+public class BookmarkPersister {
+
+	/** Milliseconds without changes before bookmarks are stored */
+	public final static long QUIET_PERIOD = 2000;
+	/** Milliseconds unsaved changes wait at most */
+	public final static long MAX_DELAY = 10000;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(BookmarkPersister.class);
+
+	private final BookmarkManager bookmarkManager;
+	private final ScheduledExecutorService executor;
+
+	/** Pending store, {@code null} if all changes are stored */
+	private ScheduledFuture<?> pending;
+	/** Time of the first unsaved change */
+	private long dirtySince;
+
+	private final Runnable store = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (BookmarkPersister.this) {
+				pending = null;
+			}
+			store();
+		}
+	};
+
+	public BookmarkPersister(BookmarkManager bookmarkManager) {
+		this.bookmarkManager = bookmarkManager;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Winterface bookmark persister");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Notes a change to be stored soon.
+	 */
+	public synchronized void requestStore() {
+		long now = System.currentTimeMillis();
+		if (pending == null) {
+			dirtySince = now;
+		} else {
+			pending.cancel(false);
+		}
+		long delay = Math.min(QUIET_PERIOD, Math.max(0, dirtySince + MAX_DELAY - now));
+		pending = executor.schedule(store, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stores pending changes right away.
+	 */
+	public void flush() {
+		synchronized (this) {
+			if (pending == null || !pending.cancel(false)) {
+				// Nothing pending, or being stored right now
+				return;
+			}
+			pending = null;
+		}
+		store();
+	}
+
+	/**
+	 * Stores pending changes and stops the background thread.
+	 */
+	public void terminate() {
+		flush();
+		executor.shutdown();
+		try {
+			// Let a store in progress finish
+			executor.awaitTermination(MAX_DELAY, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void store() {
+		try {
+			// Not in the middle of a bulk change of ours, see BookmarkFreenetInterface#applyOperations.
+			// Fred stores without this monitor, so its own stores are not kept out.
+			synchronized (bookmarkManager) {
+				bookmarkManager.storeBookmarks();
+			}
+		} catch (RuntimeException e) {
+			logger.error("Could not store bookmarks", e);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package freenet.winterface.freenet;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.clients.http.bookmark.BookmarkCategory;
+import freenet.clients.http.bookmark.BookmarkItem;
+import freenet.keys.FreenetURI;
+import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
+import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
+import freenet.node.useralerts.UserAlert;
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
+
+/**
+ * {@link FreenetInterface} that answers the status shown on every page from a
+ * {@link StatusSnapshot} instead of asking the node on every call.
+ * <p>
+ * The snapshot is replaced when it is older than
+ * {@link Configuration#getStatusInterval()} milliseconds, or right away when
+ * an alert is dismissed through this interface. One thread takes the new
+ * snapshot while the others keep reading the old one. Version information
+ * does not change while the node runs and is read once. Everything else is
+ * passed to the wrapped interface.
+ * </p>
+ */
+public class CachingFreenetInterface implements FreenetInterface {
+
+	private final FreenetInterface freenetInterface;
+	private final Configuration config;
+
+	private final String publicVersion;
+	private final int buildNumber;
+	private final String cvsRevision;
+	private final String extRevisionNumber;
+	private final boolean fredVersionSupported;
+
+	private volatile StatusSnapshot snapshot;
+	/** Set while one thread takes a new snapshot */
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	/** Number of invalidations, guarded by this */
+	private long generation;
+
+	/**
+	 * @param freenetInterface
+	 *            interface to the node
+	 * @param config
+	 *            provides the refresh interval
+	 */
+	public CachingFreenetInterface(FreenetInterface freenetInterface, Configuration config) {
+		this.freenetInterface = freenetInterface;
+		this.config = config;
+		this.publicVersion = freenetInterface.publicVersion();
+		this.buildNumber = freenetInterface.buildNumber();
+		this.cvsRevision = freenetInterface.cvsRevision();
+		this.extRevisionNumber = freenetInterface.extRevisionNumber();
+		this.fredVersionSupported = freenetInterface.isFredVersionSupported();
+	}
+
+	/**
+	 * @return a recent status of the node
+	 */
+	public StatusSnapshot getStatusSnapshot() {
+		StatusSnapshot current = snapshot;
+		if (current == null) {
+			// No older one to fall back to
+			synchronized (this) {
+				if (snapshot == null) {
+					snapshot = StatusSnapshot.of(freenetInterface);
+				}
+				return snapshot;
+			}
+		}
+		if (System.currentTimeMillis() - current.getCreatedAt() >= config.getStatusInterval() && refreshing.compareAndSet(false, true)) {
+			try {
+				long started;
+				synchronized (this) {
+					started = generation;
+				}
+				StatusSnapshot fresh = StatusSnapshot.of(freenetInterface);
+				synchronized (this) {
+					if (generation != started) {
+						// Invalidated meanwhile, may predate the change
+						return getStatusSnapshot();
+					}
+					current = snapshot = fresh;
+				}
+			} finally {
+				refreshing.set(false);
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Drops the current snapshot, so the next call takes a new one. A
+	 * snapshot being taken meanwhile is not used.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		snapshot = null;
+	}
+
+	@Override
+	public String publicVersion() {
+		return publicVersion;
+	}
+
+	@Override
+	public int buildNumber() {
+		return buildNumber;
+	}
+
+	@Override
+	public String fredMinVersionSupported() {
+		return freenetInterface.fredMinVersionSupported();
+	}
+
+	@Override
+	public int fredMinBuildSupported() {
+		return freenetInterface.fredMinBuildSupported();
+	}
+
+	@Override
+	public boolean isFredVersionSupported() {
+		return fredVersionSupported;
+	}
+
+	@Override
+	public String cvsRevision() {
+		return cvsRevision;
+	}
+
+	@Override
+	public String extRevisionNumber() {
+		return extRevisionNumber;
+	}
+
+	@Override
+	public ConnectionOverview getConnections() {
+		return getStatusSnapshot().getConnections();
+	}
+
+	@Override
+	public NETWORK_THREAT_LEVEL getNetworkThreatLevel() {
+		return getStatusSnapshot().getNetworkThreatLevel();
+	}
+
+	@Override
+	public PHYSICAL_THREAT_LEVEL getPhysicalThreatLevel() {
+		return getStatusSnapshot().getPhysicalThreatLevel();
+	}
+
+	@Override
+	public int getFproxyPort() {
+		return freenetInterface.getFproxyPort();
+	}
+
+	@Override
+	public boolean isPluginLoaded(String plugname) {
+		return freenetInterface.isPluginLoaded(plugname);
+	}
+
+	@Override
+	public List<BookmarkCategoryWithPath> getBookmarkCategories() {
+		return freenetInterface.getBookmarkCategories();
+	}
+
+	@Override
+	public int getBookmarkCategoriesCount() {
+		return freenetInterface.getBookmarkCategoriesCount();
+	}
+
+	@Override
+	public List<BookmarkItem> getBookmarksFromCat(BookmarkCategory cat) {
+		return freenetInterface.getBookmarksFromCat(cat);
+	}
+
+	@Override
+	public int getBookmarksFromCatCount(BookmarkCategory cat) {
+		return freenetInterface.getBookmarksFromCatCount(cat);
+	}
+
+	@Override
+	public BookmarkCategory getCategoryByPath(String path) {
+		return freenetInterface.getCategoryByPath(path);
+	}
+
+	@Override
+	public String getBookmarkItemPathEncoded(String parentPath, BookmarkItem bmItem) {
+		return freenetInterface.getBookmarkItemPathEncoded(parentPath, bmItem);
+	}
+
+	@Override
+	public void editBookmark(String path, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+		freenetInterface.editBookmark(path, name, key, descB, explain, hasAnActivelink);
+	}
+
+	@Override
+	public void addCategory(String path, String name) {
+		freenetInterface.addCategory(path, name);
+	}
+
+	@Override
+	public void addBookmarkItem(String path, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+		freenetInterface.addBookmarkItem(path, name, key, descB, explain, hasAnActivelink);
+	}
+
+	@Override
+	public void removeBookmark(String path) {
+		freenetInterface.removeBookmark(path);
+	}
+
+	@Override
+	public void moveBookmarkUp(String path, boolean store) {
+		freenetInterface.moveBookmarkUp(path, store);
+	}
+
+	@Override
+	public void moveBookmarkDown(String path, boolean store) {
+		freenetInterface.moveBookmarkDown(path, store);
+	}
+
+	@Override
+	public List<String> applyBookmarkOperations(List<BookmarkOperation> operations) {
+		return freenetInterface.applyBookmarkOperations(operations);
+	}
+
+	@Override
+	public void storeBookmarks() {
+		freenetInterface.storeBookmarks();
+	}
+
+	@Override
+	public void reAddDefaultBookmarks() {
+		freenetInterface.reAddDefaultBookmarks();
+	}
+
+	@Override
+	public AlertSnapshot getAlertSnapshot() {
+		return getStatusSnapshot().getAlerts();
+	}
+
+	@Override
+	public UserAlert[] getAlerts() {
+		return getAlertSnapshot().getAlerts();
+	}
+
+	@Override
+	public UserAlert[] getValidAlerts() {
+		return getAlertSnapshot().getValidAlerts();
+	}
+
+	@Override
+	public int alertClass(UserAlert alert) {
+		return freenetInterface.alertClass(alert);
+	}
+
+	@Override
+	public void dismissAlert(int alertHashCode) {
+		freenetInterface.dismissAlert(alertHashCode);
+		invalidate();
+	}
+
+	@Override
+	public int getValidAlertCount() {
+		return getAlertSnapshot().getValidAlertCount();
+	}
+
+	@Override
+	public int getAlertAnchorSafe(String anchorUnsafe) {
+		return freenetInterface.getAlertAnchorSafe(anchorUnsafe);
+	}
+
+	@Override
+	public int alertsHighestClass() {
+		return getAlertSnapshot().getHighestClass();
+	}
+
+	@Override
+	public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+		return freenetInterface.fetchURI(uri);
+	}
+
+	@Override
+	public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+		return freenetInterface.filteredFetchURI(uri);
+	}
+
+	@Override
+	public void filteredFetchURI(FreenetURI uri, FetchCallback callback) {
+		freenetInterface.filteredFetchURI(uri, callback);
+	}
+
+	@Override
+	public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+		freenetInterface.streamFilteredURI(uri, sink);
+	}
+
+	@Override
+	public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback) {
+		freenetInterface.streamFilteredURI(uri, sink, callback);
+	}
+
+	@Override
+	public QueueIndex getQueueIndex() {
+		return freenetInterface.getQueueIndex();
+	}
+
+	@Override
+	public FetchMetrics getFetchMetrics() {
+		return freenetInterface.getFetchMetrics();
+	}
+
+	@Override
+	public void terminate() {
+		freenetInterface.terminate();
+	}
+}
@@ -0,0 +1,288 @@
+package freenet.winterface.freenet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+import freenet.support.io.ArrayBucket;
+
+/**
+ * {@link FreenetURIFetcher} that answers repeated fetches of keys whose content never changes
+ * (CHKs and SSKs) from a {@link FetchResultCache}, and hands everything else to another fetcher.
+ * <p>
+ * Streamed fetches are cached as well: the data is copied aside on the heap while it flows to
+ * the sink, as long as it stays small enough to be kept on the heap. Larger streams are not
+ * cached, so streaming never writes a second copy to disk.
+ * </p>
+ */
+public class CachingFreenetURIFetcher implements FreenetURIFetcher {
+    /** Default maximum number of cached files */
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    /** Default maximum bytes of small files kept on the heap */
+    public static final long DEFAULT_MAX_HEAP_BYTES = 16L << 20;
+    /** Default maximum bytes of larger files kept in temp buckets */
+    public static final long DEFAULT_MAX_DISK_BYTES = 128L << 20;
+    /** Default size up to which files are kept on the heap */
+    public static final long DEFAULT_HEAP_ENTRY_LIMIT = 64L << 10;
+
+    private final FreenetURIFetcher fetcher;
+    private final FetchResultCache cache;
+
+    /**
+     * Constructs a caching fetcher.
+     * @param fetcher does the actual fetching
+     * @param cache keeps the fetched data
+     */
+    public CachingFreenetURIFetcher(FreenetURIFetcher fetcher, FetchResultCache cache) {
+        if (fetcher == null || cache == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+        this.cache = cache;
+    }
+
+    /**
+     * Constructs a caching fetcher with a cache of default size.
+     */
+    public CachingFreenetURIFetcher(FreenetURIFetcher fetcher) {
+        this(fetcher, new FetchResultCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_HEAP_BYTES,
+                DEFAULT_MAX_DISK_BYTES, DEFAULT_HEAP_ENTRY_LIMIT));
+    }
+
+    /**
+     * @return the cache used, e.g. to clear it or read its statistics
+     */
+    public FetchResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+        if (!isImmutable(uri)) {
+            return fetcher.fetchURI(uri);
+        }
+        FetchResult cached = cache.get(uri, false);
+        if (cached != null) {
+            return cached;
+        }
+        FetchResult result = fetcher.fetchURI(uri);
+        try {
+            return cache.put(uri, false, result);
+        } catch (IOException e) {
+            throw new FetchException(FetchException.BUCKET_ERROR, e);
+        }
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        filteredFetchURI(uri, waiter);
+        return waiter.waitForCompletion();
+    }
+
+    @Override
+    public void filteredFetchURI(final FreenetURI uri, final FetchCallback callback) {
+        if (!isImmutable(uri)) {
+            fetcher.filteredFetchURI(uri, callback);
+            return;
+        }
+        FetchResult cached = cache.get(uri, true);
+        if (cached != null) {
+            callback.onSuccess(cached);
+            return;
+        }
+        fetcher.filteredFetchURI(uri, new TracedFetchCallback() {
+            @Override
+            public FetchTrace getTrace() {
+                return FetchTrace.of(callback);
+            }
+
+            @Override
+            public void onSuccess(FetchResult result) {
+                try {
+                    result = cache.put(uri, true, result);
+                } catch (IOException e) {
+                    callback.onFailure(new FetchException(FetchException.BUCKET_ERROR, e));
+                    return;
+                }
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(FetchException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        streamFilteredURI(uri, sink, waiter);
+        waiter.waitForCompletion();
+    }
+
+    @Override
+    public void streamFilteredURI(final FreenetURI uri, FetchSink sink, final FetchCallback callback) {
+        if (!isImmutable(uri)) {
+            fetcher.streamFilteredURI(uri, sink, callback);
+            return;
+        }
+        FetchResult cached = cache.get(uri, true);
+        if (cached != null) {
+            // Local data, quick enough to write right here
+            Bucket data = cached.asBucket();
+            try {
+                InputStream in = data.getInputStream();
+                try {
+                    OutputStream out = sink.open(cached.getMimeType());
+                    IOUtils.copyLarge(in, out);
+                    out.flush();
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } catch (IOException e) {
+                data.free();
+                callback.onFailure(new FetchException(FetchException.BUCKET_ERROR, e));
+                return;
+            }
+            callback.onSuccess(cached);
+            return;
+        }
+        final CapturingSink capture = new CapturingSink(sink);
+        fetcher.streamFilteredURI(uri, capture, new TracedFetchCallback() {
+            @Override
+            public FetchTrace getTrace() {
+                return FetchTrace.of(callback);
+            }
+
+            @Override
+            public void onSuccess(FetchResult result) {
+                Bucket data = capture.detach();
+                if (data != null) {
+                    try {
+                        cache.put(uri, true, capture.mimeType, data).asBucket().free();
+                    } catch (IOException e) {
+                        // Only the cache copy is affected, the sink got its data
+                    }
+                }
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(FetchException e) {
+                Bucket data = capture.detach();
+                if (data != null) {
+                    data.free();
+                }
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if the content behind the URI can never change
+     */
+    private static boolean isImmutable(FreenetURI uri) {
+        return uri.isCHK() || uri.isSSK();
+    }
+
+    /**
+     * {@link FetchSink} that passes everything on and keeps a copy on the heap as long as the
+     * data is small enough for the cache's heap entries. Capturing stops for good once the data
+     * outgrows them.
+     */
+    private class CapturingSink implements FetchSink {
+        private final FetchSink sink;
+        private String mimeType;
+        private ByteArrayOutputStream heapCopy = new ByteArrayOutputStream();
+        private long size;
+        private boolean overflow;
+
+        CapturingSink(FetchSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public OutputStream open(String mimeType) throws IOException {
+            this.mimeType = mimeType;
+            final OutputStream target = sink.open(mimeType);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    target.write(b);
+                    capture(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    target.write(b, off, len);
+                    capture(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    target.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    target.close();
+                }
+            };
+        }
+
+        private synchronized void capture(int b) {
+            if (fits(1)) {
+                heapCopy.write(b);
+            }
+        }
+
+        private synchronized void capture(byte[] b, int off, int len) {
+            if (fits(len)) {
+                heapCopy.write(b, off, len);
+            }
+        }
+
+        /**
+         * @return {@code true} if the copy can take that many more bytes
+         */
+        private boolean fits(int len) {
+            if (overflow) {
+                return false;
+            }
+            size += len;
+            if (!cache.keepsOnHeap(size)) {
+                discard();
+                return false;
+            }
+            return true;
+        }
+
+        private void discard() {
+            overflow = true;
+            heapCopy = null;
+        }
+
+        /**
+         * @return the copied data, or {@code null} if it was too large or the sink was never
+         *         opened. The caller must free it.
+         */
+        synchronized Bucket detach() {
+            if (overflow || mimeType == null) {
+                discard();
+                return null;
+            }
+            Bucket data = new ArrayBucket(heapCopy.toByteArray());
+            heapCopy = null;
+            return data;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+
+/**
+ * Receiver of the outcome of a fetch started without waiting for it, e.g. by
+ * {@link FreenetURIFetcher#filteredFetchURI(freenet.keys.FreenetURI, FetchCallback)}.
+ * <p>
+ * Exactly one of the methods is called, once. This usually happens on a node thread, so
+ * implementations should not block longer than needed to hand the data on.
+ * </p>
+ */
+public interface FetchCallback {
+
+    /**
+     * Called when the fetch succeeded.
+     * @param result the fetched data. Its bucket belongs to the callback and must be freed.
+     */
+    public void onSuccess(FetchResult result);
+
+    /**
+     * Called when the fetch did not succeed.
+     * @param e the reason
+     */
+    public void onFailure(FetchException e);
+}
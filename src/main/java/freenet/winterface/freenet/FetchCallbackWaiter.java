@@ -0,0 +1,48 @@
+package freenet.winterface.freenet;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.client.FetchWaiter;
+
+/**
+ * {@link FetchCallback} that lets a thread wait for the outcome, like {@link FetchWaiter} does for
+ * node callbacks. Used to implement the blocking fetches on top of the callback based ones.
+ */
+class FetchCallbackWaiter implements FetchCallback {
+    private FetchResult result;
+    private FetchException failure;
+    private boolean done;
+
+    @Override
+    public synchronized void onSuccess(FetchResult result) {
+        this.result = result;
+        done = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onFailure(FetchException e) {
+        this.failure = e;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the fetch completed.
+     * @return the fetched data
+     * @throws FetchException When the fetch did not succeed.
+     */
+    synchronized FetchResult waitForCompletion() throws FetchException {
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package freenet.winterface.freenet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import freenet.winterface.core.LatencyHistogram;
+
+/**
+ * Counters and latencies of the fetches made for Winterface, kept by a
+ * {@link MeasuredFreenetURIFetcher}, and the {@link FetchResultCache} in
+ * front of the node, if any.
+ */
+public class FetchMetrics {
+
+	private final LatencyHistogram wait = new LatencyHistogram();
+	private final LatencyHistogram duration = new LatencyHistogram();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong active = new AtomicLong();
+	private final AtomicLong originated = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private volatile FetchResultCache cache;
+
+	/**
+	 * @return latencies until the first data of a fetch was available, i.e.
+	 *         how long a page waited for the node
+	 */
+	public LatencyHistogram getWait() {
+		return wait;
+	}
+
+	/**
+	 * @return latencies of successful fetches, until all data was there
+	 */
+	public LatencyHistogram getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return number of fetches that did not succeed
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return number of fetches running right now
+	 */
+	public long getActive() {
+		return active.get();
+	}
+
+	/**
+	 * @return number of fetches actually started at the node
+	 */
+	public long getOriginated() {
+		return originated.get();
+	}
+
+	/**
+	 * @return number of fetches that joined a fetch already running for the
+	 *         same URI
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return cache answering fetches of files fetched before, {@code null}
+	 *         if fetches are not cached
+	 */
+	public FetchResultCache getCache() {
+		return cache;
+	}
+
+	void setCache(FetchResultCache cache) {
+		this.cache = cache;
+	}
+
+	void originate() {
+		originated.incrementAndGet();
+	}
+
+	void coalesce() {
+		coalesced.incrementAndGet();
+	}
+
+	void start() {
+		active.incrementAndGet();
+	}
+
+	void succeed(long startNanos) {
+		active.decrementAndGet();
+		duration.recordSince(startNanos);
+	}
+
+	void fail() {
+		active.decrementAndGet();
+		failures.incrementAndGet();
+	}
+}
@@ -0,0 +1,271 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+import freenet.support.io.ArrayBucket;
+import freenet.support.io.BucketTools;
+
+/**
+ * Keeps the data of completed fetches, so the same file can be served again
+ * without asking the node for it.
+ * <p>
+ * Entries are keyed by URI and whether the data was run through the content
+ * filter. The cache is bounded by number of entries and by bytes; the least
+ * recently used entries are dropped first. Small results (up to
+ * {@code heapEntryLimit} bytes) are copied onto the heap, larger ones stay in
+ * the node's temp bucket they were fetched into, which lives on disk
+ * (encrypted if the physical security level asks for it). Heap and disk are
+ * accounted separately.
+ * </p>
+ * <p>
+ * Results handed out by {@link #get(FreenetURI, boolean)} stay readable until
+ * they are freed, even if they are evicted meanwhile.
+ * </p>
+ */
+public class FetchResultCache {
+
+	private final int maxEntries;
+	private final long maxHeapBytes;
+	private final long maxDiskBytes;
+	private final long heapEntryLimit;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	private long heapBytes;
+	private long diskBytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of results to keep
+	 * @param maxHeapBytes
+	 *            maximum bytes of results kept on the heap
+	 * @param maxDiskBytes
+	 *            maximum bytes of results kept on disk. Larger results are
+	 *            never cached.
+	 * @param heapEntryLimit
+	 *            results up to this size are kept on the heap
+	 */
+	public FetchResultCache(int maxEntries, long maxHeapBytes, long maxDiskBytes, long heapEntryLimit) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Cache must hold at least one entry");
+		}
+		this.maxEntries = maxEntries;
+		this.maxHeapBytes = maxHeapBytes;
+		this.maxDiskBytes = maxDiskBytes;
+		this.heapEntryLimit = Math.min(heapEntryLimit, maxHeapBytes);
+		// Access order, so iteration starts at the least recently used entry
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param uri
+	 *            URI the data was fetched from
+	 * @param filtered
+	 *            {@code true} if looking for filtered data
+	 * @return a new {@link FetchResult} on the cached data, or {@code null} if
+	 *         nothing is cached. Its bucket must be freed by the caller.
+	 */
+	public synchronized FetchResult get(FreenetURI uri, boolean filtered) {
+		Entry entry = entries.get(new Key(uri, filtered));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new FetchResult(new ClientMetadata(entry.mimeType), entry.data.newHandle());
+	}
+
+	/**
+	 * @param size
+	 *            size of a result in bytes
+	 * @return {@code true} if a result of this size can be cached at all
+	 */
+	public boolean accepts(long size) {
+		return size <= heapEntryLimit || size <= maxDiskBytes;
+	}
+
+	/**
+	 * @param size
+	 *            size of a result in bytes
+	 * @return {@code true} if a result of this size is kept on the heap
+	 */
+	public boolean keepsOnHeap(long size) {
+		return size <= heapEntryLimit;
+	}
+
+	/**
+	 * Caches the given data. The cache takes over the bucket, so the caller
+	 * must not use it afterwards, but the returned result instead.
+	 *
+	 * @param uri
+	 *            URI the data was fetched from
+	 * @param filtered
+	 *            {@code true} if the data was filtered
+	 * @param mimeType
+	 *            MIME type of the data
+	 * @param data
+	 *            the data
+	 * @return a new {@link FetchResult} on the cached data or, if it is too
+	 *         large to be cached, on the given bucket. Its bucket must be freed
+	 *         by the caller.
+	 * @throws IOException
+	 *             if small data could not be copied to the heap. The bucket is
+	 *             freed nevertheless.
+	 */
+	public FetchResult put(FreenetURI uri, boolean filtered, String mimeType, Bucket data) throws IOException {
+		long size = data.size();
+		if (!accepts(size)) {
+			return new FetchResult(new ClientMetadata(mimeType), data);
+		}
+		boolean onHeap = keepsOnHeap(size);
+		if (onHeap && !(data instanceof ArrayBucket)) {
+			// Copy outside the lock, it might have to be read from disk
+			try {
+				Bucket copy = new ArrayBucket(BucketTools.toByteArray(data));
+				data.free();
+				data = copy;
+			} catch (IOException e) {
+				data.free();
+				throw e;
+			}
+		}
+		Entry entry = new Entry(mimeType, new SharedBucket(data), size, onHeap);
+		Bucket handle = entry.data.newHandle();
+		synchronized (this) {
+			Entry old = entries.put(new Key(uri, filtered), entry);
+			if (old != null) {
+				drop(old);
+			}
+			account(entry, 1);
+			evict();
+		}
+		return new FetchResult(new ClientMetadata(mimeType), handle);
+	}
+
+	/**
+	 * Caches the data of the given result, see
+	 * {@link #put(FreenetURI, boolean, String, Bucket)}.
+	 */
+	public FetchResult put(FreenetURI uri, boolean filtered, FetchResult result) throws IOException {
+		return put(uri, filtered, result.getMimeType(), result.asBucket());
+	}
+
+	/**
+	 * Drops least recently used entries until all limits are met.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext() && (entries.size() > maxEntries || heapBytes > maxHeapBytes || diskBytes > maxDiskBytes)) {
+			Entry eldest = it.next().getValue();
+			boolean tierFull = eldest.onHeap ? heapBytes > maxHeapBytes : diskBytes > maxDiskBytes;
+			if (tierFull || entries.size() > maxEntries) {
+				it.remove();
+				drop(eldest);
+			}
+		}
+	}
+
+	private void drop(Entry entry) {
+		account(entry, -1);
+		entry.data.release();
+	}
+
+	private void account(Entry entry, int sign) {
+		if (entry.onHeap) {
+			heapBytes += sign * entry.size;
+		} else {
+			diskBytes += sign * entry.size;
+		}
+	}
+
+	/**
+	 * Drops all entries. Results already handed out stay readable until freed.
+	 */
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			drop(entry);
+		}
+		entries.clear();
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return bytes of cached results held on the heap
+	 */
+	public synchronized long getHeapBytes() {
+		return heapBytes;
+	}
+
+	/**
+	 * @return bytes of cached results held on disk
+	 */
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that found nothing
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static class Key {
+		final FreenetURI uri;
+		final boolean filtered;
+
+		Key(FreenetURI uri, boolean filtered) {
+			this.uri = uri;
+			this.filtered = filtered;
+		}
+
+		@Override
+		public int hashCode() {
+			return uri.hashCode() * 31 + (filtered ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return filtered == other.filtered && uri.equals(other.uri);
+		}
+	}
+
+	private static class Entry {
+		final String mimeType;
+		final SharedBucket data;
+		final long size;
+		final boolean onHeap;
+
+		Entry(String mimeType, SharedBucket data, long size, boolean onHeap) {
+			this.mimeType = mimeType;
+			this.data = data;
+			this.size = size;
+			this.onHeap = onHeap;
+		}
+	}
+}
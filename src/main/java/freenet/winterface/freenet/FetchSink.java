@@ -0,0 +1,21 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receiver of data streamed by {@link FreenetURIFetcher#streamFilteredURI(freenet.keys.FreenetURI, FetchSink)}.
+ */
+public interface FetchSink {
+
+    /**
+     * Called exactly once, right before the first byte of data is written (or when the fetch
+     * completes with an empty file).
+     * @param mimeType the MIME type of the data as known at that point, never {@code null}
+     * @return the stream the data is written to. The fetcher flushes it, but never closes it.
+     *         Writes come from the node's threads, so they should fail rather than block for
+     *         long if the data cannot be passed on.
+     * @throws IOException if the stream could not be opened; this aborts the fetch.
+     */
+    public OutputStream open(String mimeType) throws IOException;
+}
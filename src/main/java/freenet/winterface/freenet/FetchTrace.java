@@ -0,0 +1,116 @@
+package freenet.winterface.freenet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times at which a fetch made for a page reached each {@link Phase}, from the request coming in
+ * to the last byte written to the browser.
+ * <p>
+ * A trace travels with the fetch: its callback implements {@link TracedFetchCallback}, and
+ * fetchers wrapping the callback pass the trace on. Every party marks the phases it sees. A phase
+ * counts when it is first reached; phases never reached, e.g. those of the fetch when the data
+ * came from a cache, stay unset.
+ * </p>
+ */
+public class FetchTrace {
+
+    /**
+     * Phases of a fetch, in the order they are usually reached.
+     */
+    public enum Phase {
+        /** The page was requested */
+        REQUEST_START,
+        /** The fetch was handed to the node, or joined one already running */
+        FETCH_SUBMIT,
+        /** The node got the first block of the file */
+        FIRST_BLOCK,
+        /** The node got all blocks needed to decode the file */
+        FETCH_COMPLETE,
+        /** The file was decoded and filtered */
+        FILTER_COMPLETE,
+        /** The first byte was written to the response */
+        FIRST_BYTE_WRITTEN,
+        /** The response was complete */
+        LAST_BYTE_WRITTEN
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final long UNSET = -1;
+
+    private final String uri;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    /** Nanoseconds from the start to each phase */
+    private final AtomicLongArray phases = new AtomicLongArray(PHASES.length);
+    private volatile String outcome;
+
+    /**
+     * Starts a trace at {@link Phase#REQUEST_START}.
+     * @param uri the URI fetched
+     */
+    public FetchTrace(String uri) {
+        if (uri == null) {
+            throw new NullPointerException();
+        }
+        this.uri = uri;
+        for (int i = 1; i < PHASES.length; i++) {
+            phases.set(i, UNSET);
+        }
+    }
+
+    /**
+     * @return the trace the callback carries, {@code null} if its fetch is not traced
+     */
+    public static FetchTrace of(FetchCallback callback) {
+        return callback instanceof TracedFetchCallback ? ((TracedFetchCallback) callback).getTrace() : null;
+    }
+
+    /**
+     * Marks the phase as reached now, unless it was reached before.
+     */
+    public void mark(Phase phase) {
+        phases.compareAndSet(phase.ordinal(), UNSET, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return {@code true} if the phase was reached
+     */
+    public boolean isReached(Phase phase) {
+        return phases.get(phase.ordinal()) != UNSET;
+    }
+
+    /**
+     * @return microseconds from the start until the phase was reached, {@code -1} if it was not
+     */
+    public long getMicros(Phase phase) {
+        long nanos = phases.get(phase.ordinal());
+        return nanos == UNSET ? UNSET : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Ends the trace.
+     * @param outcome how the request ended, e.g. the status code sent
+     */
+    public void finish(String outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return how the request ended, {@code null} while it is running
+     */
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return time of the request in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+}
@@ -0,0 +1,64 @@
+package freenet.winterface.freenet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent {@link FetchTrace}s, running or finished, in a ring buffer. Adding a
+ * trace overwrites the oldest one and needs no locks.
+ */
+public class FetchTraceLog {
+
+    /** Default number of traces kept */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final AtomicReferenceArray<FetchTrace> traces;
+    private final AtomicLong added = new AtomicLong();
+
+    /**
+     * @param capacity number of traces kept
+     */
+    public FetchTraceLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        traces = new AtomicReferenceArray<FetchTrace>(capacity);
+    }
+
+    /**
+     * Adds a trace, dropping the oldest one if the log is full.
+     */
+    public void add(FetchTrace trace) {
+        if (trace == null) {
+            throw new NullPointerException();
+        }
+        traces.set((int) (added.getAndIncrement() % traces.length()), trace);
+    }
+
+    /**
+     * @return the traces kept, newest first. Traces added meanwhile may be missing.
+     */
+    public List<FetchTrace> getRecent() {
+        long end = added.get();
+        Set<FetchTrace> recent = new LinkedHashSet<FetchTrace>();
+        for (long i = end - 1; i >= 0 && i >= end - traces.length(); i--) {
+            FetchTrace trace = traces.get((int) (i % traces.length()));
+            // The slot may have been taken by a trace added after we looked
+            if (trace != null) {
+                recent.add(trace);
+            }
+        }
+        return new ArrayList<FetchTrace>(recent);
+    }
+
+    /**
+     * @return number of traces kept at most
+     */
+    public int getCapacity() {
+        return traces.length();
+    }
+}
@@ -10,6 +10,7 @@ import freenet.keys.FreenetURI;
 import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
 import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
 import freenet.node.useralerts.UserAlert;
+import freenet.winterface.core.QueueIndex;
 import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
 
 /**
@@ -47,9 +48,11 @@ public interface FreenetInterface extends FreenetURIFetcher {
 	void removeBookmark(String path);
 	void moveBookmarkUp(String path, boolean store);
 	void moveBookmarkDown(String path, boolean store);
+	List<String> applyBookmarkOperations(List<BookmarkOperation> operations);
 	void storeBookmarks();
 	void reAddDefaultBookmarks();
 	
+	AlertSnapshot getAlertSnapshot();
 	UserAlert[] getAlerts();
 	UserAlert[] getValidAlerts();	
 	int alertClass(UserAlert alert);
@@ -58,4 +61,17 @@ public interface FreenetInterface extends FreenetURIFetcher {
 	int getAlertAnchorSafe(String anchorUnsafe);
 	int alertsHighestClass();
 
+	QueueIndex getQueueIndex();
+
+	/**
+	 * @return counters and latencies of the fetches made through this
+	 *         interface
+	 */
+	FetchMetrics getFetchMetrics();
+
+	/**
+	 * Releases everything held to talk to the node. Called when Winterface is
+	 * unloaded.
+	 */
+	void terminate();
 }
@@ -26,5 +26,34 @@ public interface FreenetURIFetcher {
      * @throws FetchException When the fetch did not succeed, or the file could not be filtered.
      */
     public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException;
+
+    /*
+     * Fetch a file from Freenet and filter its contents according to its MIME type, like
+     * filteredFetchURI, but hand the data to the sink while it is decoded instead of keeping the
+     * whole file until the fetch completes. Returns when all data was written.
+     * @param uri the URI of the file
+     * @param sink receives the MIME type and the filtered data
+     * @throws FetchException When the fetch did not succeed, or the file could not be filtered.
+     * The sink may already have received part of the data in that case.
+     */
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException;
+
+    /*
+     * Start fetching a file from Freenet and filter its contents like filteredFetchURI, but return
+     * right away. No thread is held while the fetch is pending.
+     * @param uri the URI of the file
+     * @param callback receives the result or the reason the fetch failed
+     */
+    public void filteredFetchURI(FreenetURI uri, FetchCallback callback);
+
+    /*
+     * Start a streaming fetch like streamFilteredURI, but return right away. No thread is held
+     * while the fetch is pending. The result passed to the callback only carries the MIME type
+     * and size, its data already went to the sink.
+     * @param uri the URI of the file
+     * @param sink receives the MIME type and the filtered data
+     * @param callback learns when all data was written, or why the fetch failed
+     */
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback);
 }
 
@@ -1,25 +1,67 @@
 package freenet.winterface.freenet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
 import freenet.client.FetchContext;
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
-import freenet.client.FetchWaiter;
 import freenet.client.HighLevelSimpleClient;
+import freenet.client.async.ClientContext;
+import freenet.client.async.ClientGetCallback;
+import freenet.client.async.ClientGetter;
+import freenet.client.events.ClientEvent;
+import freenet.client.events.ClientEventListener;
+import freenet.client.events.ExpectedMIMEEvent;
+import freenet.client.events.SimpleEventProducer;
+import freenet.client.events.SplitfileProgressEvent;
 import freenet.keys.FreenetURI;
 import freenet.node.Node;
 import freenet.node.NodeClientCore;
 import freenet.node.RequestClient;
 import freenet.node.RequestStarter;
+import freenet.winterface.freenet.FetchTrace.Phase;
 
 import com.db4o.ObjectContainer; // TODO remove after purge-db4o
 
 /**
  * Fetch URIs through a {@link HighLevelSimpleClient} instance with interactive realtime priority.
+ * <p>
+ * Fetches are driven by node callbacks; the blocking methods merely wait for those. Concurrent
+ * fetches of the same URI with the same filter setting are coalesced: only the first caller starts
+ * a fetch, later callers are called back with the same result or exception. Each caller gets its
+ * own bucket on the shared data and frees it independently.
+ * </p>
+ * <p>
+ * Streams join a running whole-file fetch of the URI and get its data once it is complete, or a
+ * running stream, whose data is then written to all of them. A stream joining after data was
+ * written first gets the data written so far, as long as that fits in {@link #REPLAY_LIMIT}.
+ * Otherwise it starts a fetch of its own. Counts of started and joined fetches go to the
+ * {@link FetchMetrics}.
+ * </p>
+ * <p>
+ * Traced fetches are marked when they are submitted and when the node is done. Streamed fetches
+ * also report their first and last block; whole-file fetches are filtered by the node before it
+ * calls back, so their phases in between cannot be told apart.
+ * </p>
  *
  * @author bertm
  */
 public class InteractiveHLSCFreenetURIFetcher implements FreenetURIFetcher {
+    private static final Logger logger = Logger.getLogger(InteractiveHLSCFreenetURIFetcher.class);
     private static final short REQUEST_PRIORITY = RequestStarter.INTERACTIVE_PRIORITY_CLASS;
+    /** Bytes of a stream kept for streams joining it late */
+    private static final int REPLAY_LIMIT = 256 << 10;
     private static final boolean REQUEST_REALTIME = true;
     private static final RequestClient REQUEST_CLIENT = new RequestClient() {
         @Override
@@ -35,33 +77,43 @@ public class InteractiveHLSCFreenetURIFetcher implements FreenetURIFetcher {
             return REQUEST_REALTIME;
         }
     };
-    
+
     private final HighLevelSimpleClient client;
-    
+    private final ClientContext clientContext;
+    private final FetchMetrics metrics;
+    /** Whole-file fetches currently running, guarded by itself */
+    private final Map<FetchKey, Flight> flights = new HashMap<FetchKey, Flight>();
+    /** Streamed fetches currently running, guarded by {@link #flights} */
+    private final Map<FreenetURI, StreamFlight> streams = new HashMap<FreenetURI, StreamFlight>();
+
     /**
-     * Constructs a URI fetcher from the given {@link HighLevelSimpleClient}.
+     * Constructs a URI fetcher from the given {@link HighLevelSimpleClient}. The
+     * {@link ClientContext} is needed to start streaming fetches.
      */
-    public InteractiveHLSCFreenetURIFetcher(HighLevelSimpleClient client) {
-        if (client == null) {
+    public InteractiveHLSCFreenetURIFetcher(HighLevelSimpleClient client, ClientContext clientContext,
+            FetchMetrics metrics) {
+        if (client == null || clientContext == null || metrics == null) {
             throw new NullPointerException();
         }
         this.client = client;
+        this.clientContext = clientContext;
+        this.metrics = metrics;
     }
 
     /**
      * Constructs a URI fetcher from a new {@link HighLevelSimpleClient} from the
      * {@link NodeClientCore}.
      */
-    public InteractiveHLSCFreenetURIFetcher(NodeClientCore clientCore) {
-        this(clientCore.makeClient(REQUEST_PRIORITY, true, REQUEST_REALTIME));
+    public InteractiveHLSCFreenetURIFetcher(NodeClientCore clientCore, FetchMetrics metrics) {
+        this(clientCore.makeClient(REQUEST_PRIORITY, true, REQUEST_REALTIME), clientCore.clientContext, metrics);
     }
 
     /**
      * Constructs a URI fetcher from a new {@link HighLevelSimpleClient} from the
      * {@link Node}'s {@link Node#clientCore clientCore}.
      */
-    public InteractiveHLSCFreenetURIFetcher(Node node) {
-        this(node.clientCore);
+    public InteractiveHLSCFreenetURIFetcher(Node node, FetchMetrics metrics) {
+        this(node.clientCore, metrics);
     }
 
     @Override
@@ -69,18 +121,488 @@ public class InteractiveHLSCFreenetURIFetcher implements FreenetURIFetcher {
         return internalFetchURI(uri, false);
     }
 
-    @Override    
+    @Override
     public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
         return internalFetchURI(uri, true);
     }
-    
+
+    @Override
+    public void filteredFetchURI(FreenetURI uri, FetchCallback callback) {
+        startFetch(uri, true, callback);
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        streamFilteredURI(uri, sink, waiter);
+        waiter.waitForCompletion();
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback) {
+        FetchTrace trace = FetchTrace.of(callback);
+        if (trace != null) {
+            trace.mark(Phase.FETCH_SUBMIT);
+        }
+        Receiver receiver = new Receiver(trace == null ? sink : new TracingSink(sink, trace), callback);
+        StreamFlight flight;
+        synchronized (flights) {
+            Flight whole = flights.get(new FetchKey(uri, true));
+            if (whole != null) {
+                // Its data is complete before a stream of our own would be
+                whole.callbacks.add(receiver);
+                metrics.coalesce();
+                return;
+            }
+            flight = streams.get(uri);
+            if (flight != null && flight.join(receiver)) {
+                metrics.coalesce();
+                return;
+            }
+            flight = new StreamFlight(uri);
+            flight.join(receiver);
+            streams.put(uri, flight);
+        }
+        metrics.originate();
+        flight.start();
+    }
+
     private FetchResult internalFetchURI(FreenetURI uri, boolean filterData)
             throws FetchException {
-        FetchWaiter waiter = new FetchWaiter();
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        startFetch(uri, filterData, waiter);
+        return waiter.waitForCompletion();
+    }
+
+    /**
+     * Starts a fetch, or joins the one already running for the same URI and filter setting.
+     */
+    private void startFetch(FreenetURI uri, boolean filterData, FetchCallback callback) {
+        FetchTrace trace = FetchTrace.of(callback);
+        if (trace != null) {
+            trace.mark(Phase.FETCH_SUBMIT);
+        }
+        FetchKey key = new FetchKey(uri, filterData);
+        Flight flight;
+        synchronized (flights) {
+            flight = flights.get(key);
+            if (flight != null) {
+                flight.callbacks.add(callback);
+                metrics.coalesce();
+                return;
+            }
+            flight = new Flight(key);
+            flight.callbacks.add(callback);
+            flights.put(key, flight);
+        }
+        metrics.originate();
         FetchContext ctx = client.getFetchContext();
         ctx.filterData = filterData;
-        client.fetch(uri, REQUEST_CLIENT, waiter, ctx, REQUEST_PRIORITY);
-        return waiter.waitForCompletion();
+        try {
+            client.fetch(uri, REQUEST_CLIENT, flight, ctx, REQUEST_PRIORITY);
+        } catch (FetchException e) {
+            flight.finish(null, e);
+        } catch (RuntimeException e) {
+            // Don't leave the others waiting, each caller is told exactly once
+            logger.error("Could not start fetch of " + uri, e);
+            flight.finish(null, new FetchException(FetchException.INTERNAL_ERROR, e));
+        }
     }
-}
 
+    /**
+     * {@link FetchSink} marking the first decoded data of a traced fetch. Files of a single block
+     * report no progress, for them this is when the block arrived.
+     */
+    private static class TracingSink implements FetchSink {
+        private final FetchSink sink;
+        private final FetchTrace trace;
+
+        TracingSink(FetchSink sink, FetchTrace trace) {
+            this.sink = sink;
+            this.trace = trace;
+        }
+
+        @Override
+        public OutputStream open(String mimeType) throws IOException {
+            if (!trace.isReached(Phase.FIRST_BLOCK)) {
+                trace.mark(Phase.FIRST_BLOCK);
+                trace.mark(Phase.FETCH_COMPLETE);
+            }
+            return sink.open(mimeType);
+        }
+    }
+
+    private static class FetchKey {
+        final FreenetURI uri;
+        final boolean filterData;
+
+        FetchKey(FreenetURI uri, boolean filterData) {
+            this.uri = uri;
+            this.filterData = filterData;
+        }
+
+        @Override
+        public int hashCode() {
+            return uri.hashCode() * 31 + (filterData ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FetchKey)) {
+                return false;
+            }
+            FetchKey other = (FetchKey) o;
+            return filterData == other.filterData && uri.equals(other.uri);
+        }
+    }
+
+    /**
+     * A running fetch and the callers waiting for it.
+     */
+    private class Flight implements ClientGetCallback {
+        private final FetchKey key;
+        /** Callbacks of all callers, guarded by the flights map */
+        final List<FetchCallback> callbacks = new ArrayList<FetchCallback>(1);
+
+        Flight(FetchKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onSuccess(FetchResult result, ClientGetter state, ObjectContainer container) {
+            finish(result, null);
+        }
+
+        @Override
+        public void onFailure(FetchException e, ClientGetter state, ObjectContainer container) {
+            finish(null, e);
+        }
+
+        @Override
+        public void onMajorProgress(ObjectContainer container) { // TODO remove after purge-db4o
+        }
+
+        /**
+         * Hands the outcome to all callers. Nobody can join anymore from here on.
+         */
+        void finish(FetchResult result, FetchException failure) {
+            List<FetchCallback> waiting;
+            synchronized (flights) {
+                flights.remove(key);
+                waiting = new ArrayList<FetchCallback>(callbacks);
+            }
+            if (failure != null) {
+                for (FetchCallback callback : waiting) {
+                    try {
+                        callback.onFailure(failure);
+                    } catch (RuntimeException e) {
+                        logger.error("Fetch callback failed", e);
+                    }
+                }
+                return;
+            }
+            // Take all handles before the first one can be freed
+            SharedBucket data = new SharedBucket(result.asBucket());
+            List<FetchResult> results = new ArrayList<FetchResult>(waiting.size());
+            for (int i = 0; i < waiting.size(); i++) {
+                results.add(new FetchResult(result.getMetadata(), data.newHandle()));
+            }
+            data.release();
+            for (int i = 0; i < waiting.size(); i++) {
+                FetchTrace trace = FetchTrace.of(waiting.get(i));
+                if (trace != null) {
+                    trace.mark(Phase.FETCH_COMPLETE);
+                    trace.mark(Phase.FILTER_COMPLETE);
+                }
+                try {
+                    waiting.get(i).onSuccess(results.get(i));
+                } catch (RuntimeException e) {
+                    logger.error("Fetch callback failed", e);
+                    results.get(i).asBucket().free();
+                }
+            }
+        }
+    }
+
+    /**
+     * A caller of {@link #streamFilteredURI(FreenetURI, FetchSink, FetchCallback)}. As callback of
+     * a whole-file fetch it writes the complete data to its sink.
+     */
+    private static class Receiver implements TracedFetchCallback {
+        final FetchSink sink;
+        final FetchCallback callback;
+        final FetchTrace trace;
+        /** Stream returned by the sink, once opened by a stream flight */
+        OutputStream out;
+        /** Why writing to the sink failed */
+        IOException failure;
+
+        Receiver(FetchSink sink, FetchCallback callback) {
+            this.sink = sink;
+            this.callback = callback;
+            this.trace = FetchTrace.of(callback);
+        }
+
+        @Override
+        public FetchTrace getTrace() {
+            return trace;
+        }
+
+        @Override
+        public void onSuccess(FetchResult result) {
+            String mimeType = result.getMimeType();
+            try {
+                InputStream in = result.asBucket().getInputStream();
+                try {
+                    OutputStream target = sink.open(mimeType != null ? mimeType : StreamingBucket.DEFAULT_MIME_TYPE);
+                    IOUtils.copyLarge(in, target);
+                    target.flush();
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } catch (IOException e) {
+                result.asBucket().free();
+                callback.onFailure(new FetchException(FetchException.BUCKET_ERROR, e));
+                return;
+            }
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(FetchException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    /**
+     * A running streamed fetch, writing its data to all callers that joined it. A caller whose
+     * sink fails is dropped and told so; the fetch goes on as long as anyone is left.
+     */
+    private class StreamFlight implements FetchSink, ClientGetCallback {
+        private final FreenetURI uri;
+        private final StreamingBucket bucket = new StreamingBucket(this);
+        /** Callers still receiving data, guarded by this like all state below */
+        private final List<Receiver> receivers = new ArrayList<Receiver>(1);
+        private String mimeType;
+        /** Data written so far, {@code null} once it outgrew {@link #REPLAY_LIMIT} */
+        private ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private boolean done;
+
+        StreamFlight(FreenetURI uri) {
+            this.uri = uri;
+        }
+
+        /**
+         * @return {@code false} if the receiver cannot get all data of this fetch anymore
+         */
+        synchronized boolean join(Receiver receiver) {
+            if (done || written == null) {
+                return false;
+            }
+            receivers.add(receiver);
+            return true;
+        }
+
+        void start() {
+            // Own event producer, so we only see the MIME type announced for this fetch
+            SimpleEventProducer producer = new SimpleEventProducer();
+            producer.addEventListener(new ClientEventListener() {
+                @Override
+                public void receive(ClientEvent ce, ObjectContainer maybeContainer, ClientContext context) {
+                    if (ce instanceof ExpectedMIMEEvent) {
+                        bucket.setMimeType(((ExpectedMIMEEvent) ce).expectedMIMEType);
+                    } else if (ce instanceof SplitfileProgressEvent) {
+                        SplitfileProgressEvent progress = (SplitfileProgressEvent) ce;
+                        if (progress.succeedBlocks > 0) {
+                            mark(Phase.FIRST_BLOCK);
+                        }
+                        if (progress.finalizedTotal && progress.succeedBlocks >= progress.minSuccessfulBlocks) {
+                            mark(Phase.FETCH_COMPLETE);
+                        }
+                    }
+                }
+                @Override
+                public void onRemoveEventProducer(ObjectContainer container) { // TODO remove after purge-db4o
+                }
+            });
+            FetchContext ctx = new FetchContext(client.getFetchContext(), FetchContext.IDENTICAL_MASK, false, producer);
+            ctx.filterData = true;
+            ClientGetter getter = new ClientGetter(this, uri, ctx, REQUEST_PRIORITY, REQUEST_CLIENT, bucket, null);
+            try {
+                getter.start(null, clientContext);
+            } catch (FetchException e) {
+                finish(null, e);
+            } catch (RuntimeException e) {
+                logger.error("Could not start fetch of " + uri, e);
+                finish(null, new FetchException(FetchException.INTERNAL_ERROR, e));
+            }
+        }
+
+        private synchronized void mark(Phase phase) {
+            for (Receiver receiver : receivers) {
+                if (receiver.trace != null) {
+                    receiver.trace.mark(phase);
+                }
+            }
+        }
+
+        @Override
+        public synchronized OutputStream open(String mimeType) {
+            this.mimeType = mimeType;
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    StreamFlight.this.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    StreamFlight.this.write(null, 0, 0);
+                }
+            };
+        }
+
+        /**
+         * Writes data to all receivers, or flushes them if there is none.
+         * @throws IOException if no receiver is left, which aborts the fetch
+         */
+        private void write(byte[] b, int off, int len) throws IOException {
+            List<Receiver> failed = new ArrayList<Receiver>(0);
+            boolean abandoned;
+            synchronized (this) {
+                for (Iterator<Receiver> it = receivers.iterator(); it.hasNext();) {
+                    Receiver receiver = it.next();
+                    try {
+                        catchUp(receiver);
+                        if (b == null) {
+                            receiver.out.flush();
+                        } else {
+                            receiver.out.write(b, off, len);
+                        }
+                    } catch (IOException e) {
+                        receiver.failure = e;
+                        failed.add(receiver);
+                        it.remove();
+                    }
+                }
+                if (b != null && written != null) {
+                    if (written.size() + len <= REPLAY_LIMIT) {
+                        written.write(b, off, len);
+                    } else {
+                        written = null;
+                    }
+                }
+                abandoned = receivers.isEmpty();
+                if (abandoned) {
+                    done = true;
+                }
+            }
+            fail(failed);
+            if (abandoned) {
+                throw new IOException("Nobody is receiving the data anymore");
+            }
+        }
+
+        /**
+         * Opens the receiver's sink if it joined after the last write, and hands it what it
+         * missed.
+         */
+        private void catchUp(Receiver receiver) throws IOException {
+            if (receiver.out == null) {
+                receiver.out = receiver.sink.open(mimeType);
+                if (written != null) {
+                    written.writeTo(receiver.out);
+                }
+            }
+        }
+
+        private void fail(List<Receiver> failed) {
+            for (Receiver receiver : failed) {
+                try {
+                    receiver.callback.onFailure(new FetchException(FetchException.BUCKET_ERROR, receiver.failure));
+                } catch (RuntimeException e) {
+                    logger.error("Fetch callback failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void onSuccess(FetchResult result, ClientGetter state, ObjectContainer container) {
+            if (result.getMimeType() != null && !bucket.isOpened()) {
+                bucket.setMimeType(result.getMimeType());
+            }
+            try {
+                bucket.finish();
+            } catch (IOException e) {
+                finish(null, new FetchException(FetchException.BUCKET_ERROR, e));
+                return;
+            }
+            finish(result, null);
+        }
+
+        @Override
+        public void onFailure(FetchException e, ClientGetter state, ObjectContainer container) {
+            finish(null, e);
+        }
+
+        @Override
+        public void onMajorProgress(ObjectContainer container) { // TODO remove after purge-db4o
+        }
+
+        /**
+         * Hands the outcome to all receivers. Nobody can join anymore from here on.
+         */
+        private void finish(FetchResult result, FetchException failure) {
+            synchronized (flights) {
+                if (streams.get(uri) == this) {
+                    streams.remove(uri);
+                }
+            }
+            List<Receiver> left;
+            List<Receiver> failed = new ArrayList<Receiver>(0);
+            synchronized (this) {
+                done = true;
+                if (failure == null) {
+                    // Some may have joined after the last write
+                    for (Iterator<Receiver> it = receivers.iterator(); it.hasNext();) {
+                        Receiver receiver = it.next();
+                        if (receiver.out == null) {
+                            try {
+                                catchUp(receiver);
+                                receiver.out.flush();
+                            } catch (IOException e) {
+                                receiver.failure = e;
+                                failed.add(receiver);
+                                it.remove();
+                            }
+                        }
+                    }
+                }
+                left = new ArrayList<Receiver>(receivers);
+                receivers.clear();
+                written = null;
+            }
+            fail(failed);
+            for (Receiver receiver : left) {
+                try {
+                    if (failure != null) {
+                        receiver.callback.onFailure(failure);
+                    } else {
+                        if (receiver.trace != null) {
+                            receiver.trace.mark(Phase.FILTER_COMPLETE);
+                        }
+                        // The data went to the sinks, the result only tells its type and size
+                        receiver.callback.onSuccess(result);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Fetch callback failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * {@link FreenetURIFetcher} that times the fetches of another fetcher into {@link FetchMetrics}.
+ * <p>
+ * A fetch started without waiting gets one small object observing its callback (and sink);
+ * recording itself allocates nothing.
+ * </p>
+ */
+public class MeasuredFreenetURIFetcher implements FreenetURIFetcher {
+    private final FreenetURIFetcher fetcher;
+    private final FetchMetrics metrics;
+
+    /**
+     * @param fetcher does the actual fetching
+     * @param metrics receives the counters and latencies
+     */
+    public MeasuredFreenetURIFetcher(FreenetURIFetcher fetcher, FetchMetrics metrics) {
+        if (fetcher == null || metrics == null) {
+            throw new NullPointerException();
+        }
+        this.fetcher = fetcher;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+        long started = System.nanoTime();
+        metrics.start();
+        boolean succeeded = false;
+        try {
+            FetchResult result = fetcher.fetchURI(uri);
+            succeeded = true;
+            return result;
+        } finally {
+            if (succeeded) {
+                metrics.getWait().recordSince(started);
+                metrics.succeed(started);
+            } else {
+                metrics.fail();
+            }
+        }
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        filteredFetchURI(uri, waiter);
+        return waiter.waitForCompletion();
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        streamFilteredURI(uri, sink, waiter);
+        waiter.waitForCompletion();
+    }
+
+    @Override
+    public void filteredFetchURI(FreenetURI uri, FetchCallback callback) {
+        fetcher.filteredFetchURI(uri, new Measurement(callback, null));
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback) {
+        Measurement measurement = new Measurement(callback, sink);
+        fetcher.streamFilteredURI(uri, measurement, measurement);
+    }
+
+    /**
+     * Times one fetch: the wait ends with the first data, i.e. when the sink is opened or, for
+     * fetches of whole files, with the result.
+     */
+    private class Measurement implements TracedFetchCallback, FetchSink {
+        private final long started = System.nanoTime();
+        private final FetchCallback callback;
+        private final FetchSink sink;
+
+        Measurement(FetchCallback callback, FetchSink sink) {
+            this.callback = callback;
+            this.sink = sink;
+            metrics.start();
+        }
+
+        @Override
+        public FetchTrace getTrace() {
+            return FetchTrace.of(callback);
+        }
+
+        @Override
+        public OutputStream open(String mimeType) throws IOException {
+            metrics.getWait().recordSince(started);
+            return sink.open(mimeType);
+        }
+
+        @Override
+        public void onSuccess(FetchResult result) {
+            if (sink == null) {
+                metrics.getWait().recordSince(started);
+            }
+            metrics.succeed(started);
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(FetchException e) {
+            metrics.fail();
+            callback.onFailure(e);
+        }
+    }
+}
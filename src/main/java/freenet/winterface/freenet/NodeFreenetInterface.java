@@ -3,8 +3,12 @@ package freenet.winterface.freenet;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.FluentIterable.from;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
 
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
@@ -12,7 +16,6 @@ import freenet.clients.http.bookmark.BookmarkCategory;
 import freenet.clients.http.bookmark.BookmarkItem;
 import freenet.keys.FreenetURI;
 import freenet.node.DarknetPeerNode;
-import freenet.node.FSParseException;
 import freenet.node.Node;
 import freenet.node.NodeStarter;
 import freenet.node.PeerManager;
@@ -20,12 +23,14 @@ import freenet.node.Version;
 import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
 import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
 import freenet.node.useralerts.UserAlert;
-import freenet.support.SimpleFieldSet;
 import freenet.winterface.core.I18n;
+import freenet.winterface.core.QueueIndex;
 import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 /**
  * {@link FreenetInterface} implementation that uses a {@link Node} instance.
@@ -34,6 +39,9 @@ import com.google.common.base.Predicate;
  */
 public class NodeFreenetInterface implements FreenetInterface {
 
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(NodeFreenetInterface.class);
+
 	private final Node node;
 	private final PeerManager peerManager;
 	private final I18n i18n;
@@ -42,29 +50,47 @@ public class NodeFreenetInterface implements FreenetInterface {
 	private final BookmarkFreenetInterface bmInterface;
 	private final PluginFreenetInterface pifInterface;
 	private final FreenetURIFetcher uriFetcher;
+	private final FetchMetrics fetchMetrics;
+	/** Cache of the URI fetcher, {@code null} if it does not cache */
+	private final FetchResultCache fetchCache;
+	private final QueueFreenetInterface queueInterface;
+
+	/** Seconds a value read from the node's config is reused */
+	private static final int CONFIG_REFRESH_INTERVAL = 10;
 
+	private final Supplier<Integer> fproxyPort = configInt("fproxy", "port", 8888);
 
 	public NodeFreenetInterface(Node node, I18n i18n) {
+		this(node, i18n, new FetchMetrics());
+	}
+
+	private NodeFreenetInterface(Node node, I18n i18n, FetchMetrics fetchMetrics) {
 		this(node,
 			 node.peers,
 			 new BookmarkFreenetInterface(node, i18n),
 			 new UserAlertManagerInterface(node.clientCore.alerts),
 			 new PluginFreenetInterface(node),
 			 i18n,
-			 new InteractiveHLSCFreenetURIFetcher(node));
+			 new CachingFreenetURIFetcher(new InteractiveHLSCFreenetURIFetcher(node, fetchMetrics)),
+			 new QueueFreenetInterface(node),
+			 fetchMetrics);
 	}
 
 	@VisibleForTesting
 	NodeFreenetInterface(Node node, PeerManager peerManager, BookmarkFreenetInterface bmInterface,
 	        UserAlertManagerInterface uamInterface, PluginFreenetInterface pifInterface, I18n i18n,
-	        FreenetURIFetcher uriFetcher) {
+	        FreenetURIFetcher uriFetcher, QueueFreenetInterface queueInterface, FetchMetrics fetchMetrics) {
 		this.node = node;
 		this.peerManager = peerManager;
 		this.bmInterface = bmInterface;
 		this.uamInterface = uamInterface;
 		this.pifInterface = pifInterface;
 		this.i18n = i18n;
-		this.uriFetcher = uriFetcher;
+		this.fetchMetrics = fetchMetrics;
+		this.uriFetcher = uriFetcher == null ? null : new MeasuredFreenetURIFetcher(uriFetcher, fetchMetrics);
+		this.fetchCache = uriFetcher instanceof CachingFreenetURIFetcher ? ((CachingFreenetURIFetcher) uriFetcher).getCache() : null;
+		fetchMetrics.setCache(fetchCache);
+		this.queueInterface = queueInterface;
 	}
 	
 	@Override
@@ -170,13 +196,40 @@ public class NodeFreenetInterface implements FreenetInterface {
 	
 	@Override
 	public int getFproxyPort() {
-		SimpleFieldSet fproxyConfig = node.config.get("fproxy").exportFieldSet(true);
-		try {
-			return fproxyConfig.getInt("port");
-		} catch (FSParseException e) {
-			e.printStackTrace();
-			return 8888;
-		}
+		return fproxyPort.get();
+	}
+
+	/**
+	 * Returns a holder of an integer option of the node's config. The node
+	 * does not tell about changes of options it owns, so the holder reads the
+	 * option again after {@link #CONFIG_REFRESH_INTERVAL} seconds and is a
+	 * field load in between.
+	 *
+	 * @param subConfig
+	 *            name of the sub config, e.g. {@code fproxy}
+	 * @param option
+	 *            name of the option in the sub config
+	 * @param defaultValue
+	 *            value if the option cannot be read, which is logged the
+	 *            first time
+	 * @return holder of the option's value
+	 */
+	private Supplier<Integer> configInt(final String subConfig, final String option, final int defaultValue) {
+		final AtomicBoolean warned = new AtomicBoolean();
+		return Suppliers.memoizeWithExpiration(new Supplier<Integer>() {
+			@Override
+			public Integer get() {
+				try {
+					return node.config.get(subConfig).getInt(option);
+				} catch (RuntimeException e) {
+					// Unknown option or sub config
+					if (warned.compareAndSet(false, true)) {
+						logger.warn("Could not read option " + option + " of config " + subConfig + ", using " + defaultValue, e);
+					}
+					return defaultValue;
+				}
+			}
+		}, CONFIG_REFRESH_INTERVAL, SECONDS);
 	}
 
 	@Override
@@ -244,6 +297,11 @@ public class NodeFreenetInterface implements FreenetInterface {
 		bmInterface.moveBookmarkDown(path, store);
 	}
 	
+	@Override
+	public List<String> applyBookmarkOperations(List<BookmarkOperation> operations) {
+		return bmInterface.applyOperations(operations);
+	}
+	
 	@Override
 	public void storeBookmarks() {
 		bmInterface.storeBookmarks();
@@ -254,6 +312,11 @@ public class NodeFreenetInterface implements FreenetInterface {
 		bmInterface.reAddDefaultBookmarks();
 	}
 	
+	@Override
+	public AlertSnapshot getAlertSnapshot() {
+		return uamInterface.getSnapshot();
+	}
+	
 	@Override
 	public UserAlert[] getAlerts() {
 		return uamInterface.getAlerts();
@@ -297,6 +360,40 @@ public class NodeFreenetInterface implements FreenetInterface {
     @Override
     public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
         return uriFetcher.filteredFetchURI(uri);
-    }	
-}
+    }
 
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+        uriFetcher.streamFilteredURI(uri, sink);
+    }
+
+    @Override
+    public void filteredFetchURI(FreenetURI uri, FetchCallback callback) {
+        uriFetcher.filteredFetchURI(uri, callback);
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback) {
+        uriFetcher.streamFilteredURI(uri, sink, callback);
+    }
+
+	@Override
+	public QueueIndex getQueueIndex() {
+		return queueInterface.getIndex();
+	}
+
+	@Override
+	public FetchMetrics getFetchMetrics() {
+		return fetchMetrics;
+	}
+
+	@Override
+	public void terminate() {
+		queueInterface.terminate();
+		bmInterface.terminate();
+		if (fetchCache != null) {
+			// Frees the temp buckets, which would outlive a reloaded plugin
+			fetchCache.clear();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package freenet.winterface.freenet;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import freenet.client.async.DatabaseDisabledException;
+import freenet.node.Node;
+import freenet.node.fcp.ClientRequest;
+import freenet.node.fcp.FCPServer;
+import freenet.node.fcp.RequestCompletionCallback;
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.EventBroadcaster;
+import freenet.winterface.core.QueueIndex;
+
+import com.db4o.ObjectContainer; // TODO remove after purge-db4o
+
+/**
+ * Keeps a {@link QueueIndex} of the node's global requests up to date.
+ * <p>
+ * Completed, failed and removed requests are applied as the {@link FCPServer}
+ * reports them. The node reports neither new requests nor progress. While the
+ * index is read, the progress of running requests is refreshed every
+ * {@link #PROGRESS_INTERVAL} milliseconds, and the index is reconciled with
+ * {@link FCPServer#getGlobalRequests()} every {@link #RECONCILE_INTERVAL}
+ * seconds to pick up new requests and anything a report missed. Both run on
+ * a thread of their own rather than on the request path.
+ * Reconciling starts with the first read and stops once the index has not
+ * been read for {@link #IDLE_TIMEOUT} seconds, so a node nobody watches the
+ * queue of does not pay for it. The first read after being idle gets the
+ * index as it is, flagged as catching up (see
+ * {@link QueueIndex#isCatchingUp()}) until it was reconciled.
+ * </p>
+ */
+public class QueueFreenetInterface {
+
+	/**
+	 * Seconds between two full reconciliations. Rare, as changes of state are
+	 * reported by the node.
+	 */
+	public final static int RECONCILE_INTERVAL = 60;
+	/** Milliseconds between two refreshes of the progress of running requests */
+	public final static long PROGRESS_INTERVAL = EventBroadcaster.POLL_INTERVAL;
+	/** Seconds without a read after which reconciling stops */
+	public final static int IDLE_TIMEOUT = 60;
+
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(QueueFreenetInterface.class);
+
+	private final FCPServer fcp;
+	private final QueueIndex index = new QueueIndex();
+	private final ScheduledExecutorService executor;
+
+	/** Periodic reconciliation, {@code null} while idle */
+	private ScheduledFuture<?> reconciliation;
+	/** Periodic refresh of progress, {@code null} while idle */
+	private ScheduledFuture<?> progressRefresh;
+	/** Time of the last read in milliseconds */
+	private long lastRead;
+
+	private final RequestCompletionCallback completionCallback = new RequestCompletionCallback() {
+		@Override
+		public void notifySuccess(ClientRequest req, ObjectContainer container) {
+			update(req);
+		}
+
+		@Override
+		public void notifyFailure(ClientRequest req, ObjectContainer container) {
+			update(req);
+		}
+
+		@Override
+		public void onRemove(ClientRequest req, ObjectContainer container) {
+			index.remove(req.getIdentifier());
+		}
+	};
+
+	public QueueFreenetInterface(Node node) {
+		this(node.clientCore.getFCPServer());
+	}
+
+	public QueueFreenetInterface(FCPServer fcp) {
+		this.fcp = fcp;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Winterface queue index");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		fcp.addRequestCompletionCallback(completionCallback);
+	}
+
+	/**
+	 * Returns the index, and keeps it reconciled for the next
+	 * {@link #IDLE_TIMEOUT} seconds. Never waits: after being idle, the index
+	 * is returned as it is and catches up in the background.
+	 *
+	 * @return index of all global requests
+	 */
+	public synchronized QueueIndex getIndex() {
+		lastRead = System.currentTimeMillis();
+		if (reconciliation == null && !executor.isShutdown()) {
+			logger.debug("Queue index read, reconciling again");
+			index.setCatchingUp(true);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					reconcile();
+					index.setCatchingUp(false);
+				}
+			});
+			reconciliation = executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					reconcileWhileRead();
+				}
+			}, RECONCILE_INTERVAL, RECONCILE_INTERVAL, TimeUnit.SECONDS);
+			progressRefresh = executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshProgress();
+				}
+			}, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		return index;
+	}
+
+	/**
+	 * Stops updating the index.
+	 */
+	public void terminate() {
+		fcp.removeRequestCompletionCallback(completionCallback);
+		executor.shutdownNow();
+	}
+
+	private void update(ClientRequest req) {
+		try {
+			index.put(req.getStatus());
+		} catch (RuntimeException e) {
+			// Next reconciliation will catch up
+			logger.debug("Could not index request " + req.getIdentifier(), e);
+		}
+	}
+
+	private void reconcileWhileRead() {
+		synchronized (this) {
+			if (System.currentTimeMillis() - lastRead > TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT)) {
+				logger.debug("Queue index not read for " + IDLE_TIMEOUT + " seconds, reconciling stops");
+				reconciliation.cancel(false);
+				reconciliation = null;
+				progressRefresh.cancel(false);
+				progressRefresh = null;
+				return;
+			}
+		}
+		reconcile();
+	}
+
+	private void refreshProgress() {
+		try {
+			int changed = index.refreshProgress();
+			logger.trace("Progress of " + changed + " running requests changed");
+		} catch (RuntimeException e) {
+			// Keep the schedule alive
+			logger.error("Could not refresh progress of running requests", e);
+		}
+	}
+
+	private void reconcile() {
+		try {
+			RequestStatus[] requests = fcp.getGlobalRequests();
+			index.replaceAll(requests);
+			logger.trace("Reconciled queue index with " + requests.length + " requests");
+		} catch (DatabaseDisabledException e) {
+			logger.debug("Database disabled, queue index not reconciled");
+		} catch (RuntimeException e) {
+			// Keep the schedule alive
+			logger.error("Could not reconcile queue index", e);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import freenet.support.api.Bucket;
+
+import com.db4o.ObjectContainer; // TODO remove after purge-db4o
+
+/**
+ * Reference counted, read-only view on a {@link Bucket} that is handed out more than once.
+ * <p>
+ * Every reader gets its own handle (see {@link #newHandle()}) and frees it when done, the
+ * creator holds the initial reference and gives it up with {@link #release()}. The underlying
+ * bucket is freed once the last reference is gone, so a reader never sees its data disappear.
+ * </p>
+ */
+class SharedBucket {
+    private final Bucket bucket;
+    private int references = 1;
+
+    SharedBucket(Bucket bucket) {
+        if (bucket == null) {
+            throw new NullPointerException();
+        }
+        this.bucket = bucket;
+    }
+
+    /**
+     * @return a new read-only handle on the data, which must be {@link Bucket#free() freed}
+     * @throws IllegalStateException if the data was already freed
+     */
+    synchronized Bucket newHandle() {
+        if (references == 0) {
+            throw new IllegalStateException("Bucket already freed");
+        }
+        references++;
+        return new Handle();
+    }
+
+    /**
+     * Gives up one reference, freeing the data if it was the last one.
+     */
+    synchronized void release() {
+        if (references == 0) {
+            return;
+        }
+        if (--references == 0) {
+            bucket.free();
+        }
+    }
+
+    /**
+     * @return size of the shared data in bytes
+     */
+    long size() {
+        return bucket.size();
+    }
+
+    private class Handle implements Bucket {
+        private boolean freed;
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Shared bucket is read-only");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            synchronized (this) {
+                if (freed) {
+                    throw new IOException("Bucket handle already freed");
+                }
+            }
+            return bucket.getInputStream();
+        }
+
+        @Override
+        public String getName() {
+            return "Shared:" + bucket.getName();
+        }
+
+        @Override
+        public long size() {
+            return bucket.size();
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+
+        @Override
+        public void setReadOnly() {
+            // Always read-only
+        }
+
+        @Override
+        public void storeTo(ObjectContainer container) { // TODO remove after purge-db4o
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void free() {
+            synchronized (this) {
+                if (freed) {
+                    return;
+                }
+                freed = true;
+            }
+            release();
+        }
+
+        @Override
+        public void removeFrom(ObjectContainer container) { // TODO remove after purge-db4o
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Bucket createShadow() {
+            return null;
+        }
+    }
+}
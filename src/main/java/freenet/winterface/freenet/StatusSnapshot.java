@@ -0,0 +1,60 @@
+package freenet.winterface.freenet;
+
+import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
+import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
+
+/**
+ * Status of the node at one point in time, as shown on every page.
+ *
+ * @see CachingFreenetInterface
+ */
+public final class StatusSnapshot {
+
+	private final long createdAt;
+	private final ConnectionOverview connections;
+	private final NETWORK_THREAT_LEVEL networkThreatLevel;
+	private final PHYSICAL_THREAT_LEVEL physicalThreatLevel;
+	private final AlertSnapshot alerts;
+
+	private StatusSnapshot(long createdAt, FreenetInterface freenetInterface) {
+		this.createdAt = createdAt;
+		this.connections = freenetInterface.getConnections();
+		this.networkThreatLevel = freenetInterface.getNetworkThreatLevel();
+		this.physicalThreatLevel = freenetInterface.getPhysicalThreatLevel();
+		this.alerts = freenetInterface.getAlertSnapshot();
+	}
+
+	/**
+	 * Takes a snapshot.
+	 *
+	 * @param freenetInterface
+	 *            node to ask
+	 * @return current status
+	 */
+	public static StatusSnapshot of(FreenetInterface freenetInterface) {
+		return new StatusSnapshot(System.currentTimeMillis(), freenetInterface);
+	}
+
+	/**
+	 * @return time the snapshot was taken, in milliseconds since the epoch
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public ConnectionOverview getConnections() {
+		return connections;
+	}
+
+	public NETWORK_THREAT_LEVEL getNetworkThreatLevel() {
+		return networkThreatLevel;
+	}
+
+	public PHYSICAL_THREAT_LEVEL getPhysicalThreatLevel() {
+		return physicalThreatLevel;
+	}
+
+	public AlertSnapshot getAlerts() {
+		return alerts;
+	}
+}
@@ -0,0 +1,147 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import freenet.client.async.ClientGetter;
+import freenet.support.api.Bucket;
+
+import com.db4o.ObjectContainer; // TODO remove after purge-db4o
+
+/**
+ * Write-only {@link Bucket} that forwards everything written to it to a {@link FetchSink}.
+ * <p>
+ * Handed to a {@link ClientGetter} as return bucket, it lets the decoded (and filtered) data flow
+ * to the sink while the node produces it, instead of collecting the whole file in a temporary
+ * bucket first. Nothing is kept, so the data cannot be read back.
+ * </p>
+ */
+class StreamingBucket implements Bucket {
+    /** MIME type used if the node did not announce one before writing */
+    static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final FetchSink sink;
+    private volatile String mimeType;
+    private OutputStream target;
+    private long size;
+
+    StreamingBucket(FetchSink sink) {
+        if (sink == null) {
+            throw new NullPointerException();
+        }
+        this.sink = sink;
+    }
+
+    /**
+     * Sets the MIME type passed to the sink when it is opened. Has no effect once data was written.
+     */
+    void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * @return {@code true} if the sink was opened, i.e. the receiver may already have seen data.
+     */
+    synchronized boolean isOpened() {
+        return target != null;
+    }
+
+    /**
+     * Opens the sink if nothing was written so far, e.g. because the file is empty.
+     */
+    synchronized void finish() throws IOException {
+        openTarget().flush();
+    }
+
+    private synchronized OutputStream openTarget() throws IOException {
+        if (target == null) {
+            String type = mimeType;
+            target = sink.open(type != null ? type : DEFAULT_MIME_TYPE);
+        }
+        return target;
+    }
+
+    private synchronized void flushTarget() throws IOException {
+        if (target != null) {
+            target.flush();
+        }
+    }
+
+    private synchronized void written(int length) {
+        size += length;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                openTarget().write(b);
+                written(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                openTarget().write(b, off, len);
+                written(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushTarget();
+            }
+
+            @Override
+            public void close() throws IOException {
+                // The sink owns the stream, only push out what we have
+                flush();
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        throw new IOException("Streamed data is not kept");
+    }
+
+    @Override
+    public String getName() {
+        return "StreamingBucket";
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public void setReadOnly() {
+        // Nothing is kept, so there is nothing to protect
+    }
+
+    @Override
+    public void storeTo(ObjectContainer container) { // TODO remove after purge-db4o
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void free() {
+        // Nothing is kept
+    }
+
+    @Override
+    public void removeFrom(ObjectContainer container) { // TODO remove after purge-db4o
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bucket createShadow() {
+        return null;
+    }
+}
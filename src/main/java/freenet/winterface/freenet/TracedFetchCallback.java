@@ -0,0 +1,15 @@
+package freenet.winterface.freenet;
+
+/**
+ * {@link FetchCallback} of a fetch that may be traced. Fetchers handing a callback of their own
+ * to another fetcher implement this as well, passing on the trace of the callback they wrap.
+ *
+ * @see FetchTrace#of(FetchCallback)
+ */
+public interface TracedFetchCallback extends FetchCallback {
+
+    /**
+     * @return the trace of the fetch, {@code null} if it is not traced
+     */
+    public FetchTrace getTrace();
+}
@@ -1,8 +1,5 @@
 package freenet.winterface.freenet;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import freenet.node.useralerts.UserAlert;
 import freenet.node.useralerts.UserAlertManager;
 
@@ -14,27 +11,27 @@ public class UserAlertManagerInterface {
 		this.uam = uam;
 	}
 	
+	/**
+	 * Reads and sorts all alerts once. Callers asking several questions about
+	 * the alerts should keep the snapshot instead of calling the methods
+	 * below, which take a new one each time.
+	 *
+	 * @return current alerts
+	 */
+	public AlertSnapshot getSnapshot() {
+		return new AlertSnapshot(uam.getAlerts());
+	}
+
 	public UserAlert[] getAlerts() {
 		return uam.getAlerts();
 	}
 	
 	public UserAlert[] getValidAlerts() {
-		List<UserAlert> validAlertstList = new ArrayList<UserAlert>();
-		for (UserAlert alert : getAlerts()) {
-			if(alert.isValid())
-				validAlertstList.add(alert);
-		}
-		return validAlertstList.toArray(new UserAlert[validAlertstList.size()]);
+		return getSnapshot().getValidAlerts();
 	}
 	
 	public int getValidAlertCount() {
-		int count = 0;
-		for (UserAlert ua : getAlerts()) {
-			if(ua.isValid()) {
-				count++;
-			}
-		}
-		return count;
+		return getSnapshot().getValidAlertCount();
 	}
 	
 	public void dismissAlert(int alertHashCode) {
@@ -61,10 +58,7 @@ public class UserAlertManagerInterface {
 	 * If there are no valid alerts, return a value greater than the lowest alert class
 	 */
 	public int alertsHighestClass() {
-		if (getValidAlerts().length > 0)
-			return getValidAlerts()[0].getPriorityClass();
-		else
-			return UserAlert.MINOR + 1;
+		return getSnapshot().getHighestClass();
 	}
 
-}
\ No newline at end of file
+}
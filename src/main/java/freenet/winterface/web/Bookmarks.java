@@ -25,10 +25,10 @@ public class Bookmarks extends VelocityBase {
 	/** Max. action (edit, addCat etc.) length */
 	private static final int MAX_ACTION_LENGTH = 20;
 	/** Max. bookmark name length */
-	private static final int MAX_NAME_LENGTH = 500;
+	static final int MAX_NAME_LENGTH = 500;
 	/** Max. bookmark path length (e.g. <code>Freenet related software and documentation/Freenet Message System</code> ) */
-	private static final int MAX_BOOKMARK_PATH_LENGTH = 10 * MAX_NAME_LENGTH;
-	private static final int MAX_EXPLANATION_LENGTH = 1024;
+	static final int MAX_BOOKMARK_PATH_LENGTH = 10 * MAX_NAME_LENGTH;
+	static final int MAX_EXPLANATION_LENGTH = 1024;
 
 	@Override
 	protected void subFillContext(Context context, HttpServletRequest request) {
@@ -0,0 +1,234 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import freenet.keys.FreenetURI;
+import freenet.winterface.core.JsonReader;
+import freenet.winterface.core.JsonWriter;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.freenet.BookmarkOperation;
+import freenet.winterface.freenet.FreenetInterface;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Applies a list of bookmark changes in one request, e.g. to import or
+ * reorganise many bookmarks. All changes are made at once and stored with a
+ * single write.
+ * <p>
+ * The request body is JSON, sent with content type {@code application/json}.
+ * Browsers do not send that type cross-site without asking first, so other
+ * sites cannot post changes through a visitor's browser:
+ * </p>
+ *
+ * <pre>
+ * {"operations":[
+ *  {"op":"addCategory","path":"/","name":"…"},
+ *  {"op":"addItem","path":"/…/","name":"…","key":"USK@…","description":"…","explanation":"…","activelink":false},
+ *  {"op":"edit","path":"/…","name":"…","key":"…","description":"…","explanation":"…","activelink":false},
+ *  {"op":"delete","path":"/…"},
+ *  {"op":"move","path":"/…","category":"/…/","position":0}]}
+ * </pre>
+ * <p>
+ * {@code category} of a move is optional. The answer tells for each operation
+ * whether it was applied: {@code {"results":[{"ok":true},{"ok":false,"error":"…"}]}}.
+ * </p>
+ */
+public class BookmarksBulk extends HttpServlet {
+
+	/** Max. length of the request body in characters */
+	private final static int MAX_BODY_LENGTH = 1 << 20;
+	/** Max. number of operations per request */
+	private final static int MAX_OPERATIONS = 10000;
+	/** Max. key length */
+	private final static int MAX_KEY_LENGTH = 1024;
+	/** Content type of the request body */
+	private final static String JSON_TYPE = "application/json";
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (!isJson(request.getContentType())) {
+			sendError(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Content type must be " + JSON_TYPE);
+			return;
+		}
+		if (request.getContentLength() > MAX_BODY_LENGTH) {
+			sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request too large");
+			return;
+		}
+		String body = readBody(request.getReader());
+		if (body == null) {
+			sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request too large");
+			return;
+		}
+
+		List<?> list;
+		try {
+			Object operations = asMap(JsonReader.parse(body)).get("operations");
+			if (!(operations instanceof List)) {
+				throw new IllegalArgumentException("No operations given");
+			}
+			list = (List<?>) operations;
+		} catch (IllegalArgumentException e) {
+			sendError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (list.size() > MAX_OPERATIONS) {
+			sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "More than " + MAX_OPERATIONS + " operations");
+			return;
+		}
+
+		// Operations that cannot be read are reported, the others applied
+		String[] results = new String[list.size()];
+		List<BookmarkOperation> operations = new ArrayList<BookmarkOperation>(list.size());
+		List<Integer> indices = new ArrayList<Integer>(list.size());
+		for (int i = 0; i < list.size(); i++) {
+			try {
+				operations.add(toOperation(asMap(list.get(i))));
+				indices.add(i);
+			} catch (IllegalArgumentException e) {
+				results[i] = e.getMessage();
+			}
+		}
+		if (!operations.isEmpty()) {
+			FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+			List<String> applied = freenetInterface.applyBookmarkOperations(operations);
+			for (int i = 0; i < applied.size(); i++) {
+				results[indices.get(i)] = applied.get(i);
+			}
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		JsonWriter json = new JsonWriter(response.getWriter());
+		json.beginObject().name("results").beginArray();
+		for (String error : results) {
+			json.beginObject().name("ok").value(error == null);
+			if (error != null) {
+				json.name("error").value(error);
+			}
+			json.endObject();
+		}
+		json.endArray().endObject();
+		json.flush();
+	}
+
+	/**
+	 * @return the operation described by {@code object}
+	 * @throws IllegalArgumentException
+	 *             if it describes none, with the reason as message
+	 */
+	static BookmarkOperation toOperation(Map<?, ?> object) throws IllegalArgumentException {
+		String op = getString(object, "op", Bookmarks.MAX_NAME_LENGTH);
+		String path = getString(object, "path", Bookmarks.MAX_BOOKMARK_PATH_LENGTH);
+		if (op == null || path == null) {
+			throw new IllegalArgumentException("Operation needs op and path");
+		}
+		String name = getString(object, "name", Bookmarks.MAX_NAME_LENGTH);
+		if (op.equals("addCategory")) {
+			return BookmarkOperation.addCategory(path, name);
+		} else if (op.equals("addItem")) {
+			FreenetURI key = getKey(object);
+			if (key == null) {
+				throw new IllegalArgumentException("Item needs a key");
+			}
+			return BookmarkOperation.addItem(path, name, key, getString(object, "description", Bookmarks.MAX_EXPLANATION_LENGTH),
+					getString(object, "explanation", Bookmarks.MAX_EXPLANATION_LENGTH), Boolean.TRUE.equals(object.get("activelink")));
+		} else if (op.equals("edit")) {
+			return BookmarkOperation.edit(path, name, getKey(object), getString(object, "description", Bookmarks.MAX_EXPLANATION_LENGTH),
+					getString(object, "explanation", Bookmarks.MAX_EXPLANATION_LENGTH), Boolean.TRUE.equals(object.get("activelink")));
+		} else if (op.equals("delete")) {
+			return BookmarkOperation.delete(path);
+		} else if (op.equals("move")) {
+			Object position = object.get("position");
+			if (!(position instanceof Long)) {
+				throw new IllegalArgumentException("Move needs a position");
+			}
+			int index = (int) Math.max(0, Math.min(Integer.MAX_VALUE, (Long) position));
+			return BookmarkOperation.move(path, getString(object, "category", Bookmarks.MAX_BOOKMARK_PATH_LENGTH), index);
+		}
+		throw new IllegalArgumentException("Unknown operation " + op);
+	}
+
+	private static FreenetURI getKey(Map<?, ?> object) throws IllegalArgumentException {
+		String key = getString(object, "key", MAX_KEY_LENGTH);
+		if (key == null) {
+			return null;
+		}
+		try {
+			return new FreenetURI(key);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid key");
+		}
+	}
+
+	/**
+	 * @return the string value of {@code name}, {@code null} if not set
+	 * @throws IllegalArgumentException
+	 *             if the value is no string or longer than {@code maxLength}
+	 */
+	private static String getString(Map<?, ?> object, String name, int maxLength) throws IllegalArgumentException {
+		Object value = object.get(name);
+		if (value == null) {
+			return null;
+		}
+		if (!(value instanceof String) || ((String) value).length() > maxLength) {
+			throw new IllegalArgumentException("Invalid " + name);
+		}
+		return (String) value;
+	}
+
+	/**
+	 * @return {@code true} if {@code contentType} is JSON, with or without
+	 *         parameters such as the charset
+	 */
+	private static boolean isJson(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		int parameters = contentType.indexOf(';');
+		String type = parameters < 0 ? contentType : contentType.substring(0, parameters);
+		return type.trim().equalsIgnoreCase(JSON_TYPE);
+	}
+
+	private static Map<?, ?> asMap(Object value) throws IllegalArgumentException {
+		if (!(value instanceof Map)) {
+			throw new IllegalArgumentException("Object expected");
+		}
+		return (Map<?, ?>) value;
+	}
+
+	/**
+	 * @return the body, {@code null} if longer than {@link #MAX_BODY_LENGTH}
+	 */
+	private static String readBody(Reader reader) throws IOException {
+		StringBuilder body = new StringBuilder();
+		char[] buffer = new char[8192];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			body.append(buffer, 0, read);
+			if (body.length() > MAX_BODY_LENGTH) {
+				return null;
+			}
+		}
+		return body.toString();
+	}
+
+	private static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonWriter json = new JsonWriter(response.getWriter());
+		json.beginObject().name("error").value(message).endObject();
+		json.flush();
+	}
+
+}
@@ -0,0 +1,38 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+
+import freenet.winterface.core.EventBroadcaster;
+import freenet.winterface.core.MetricsFilter;
+import freenet.winterface.core.ServerManager;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stream of Server-Sent Events for open pages, see {@link EventBroadcaster}.
+ * Queue progress is only sent if asked for with parameter
+ * {@value #PARAM_QUEUE}.
+ */
+public class Events extends HttpServlet {
+
+	/** Parameter to also subscribe to queue progress */
+	public final static String PARAM_QUEUE = "queue";
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		EventBroadcaster broadcaster = (EventBroadcaster) getServletContext().getAttribute(ServerManager.EVENT_BROADCASTER);
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.flushBuffer();
+		// The stream stays open without holding a thread
+		AsyncContext async = MetricsFilter.startAsync(request);
+		async.setTimeout(0);
+		broadcaster.addClient(async, request.getHeader("Last-Event-ID"), request.getParameter(PARAM_QUEUE) != null);
+	}
+
+}
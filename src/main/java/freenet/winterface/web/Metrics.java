@@ -0,0 +1,162 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import freenet.winterface.core.JsonWriter;
+import freenet.winterface.core.LatencyHistogram;
+import freenet.winterface.core.MetricsRegistry;
+import freenet.winterface.core.RouteMetrics;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.StringTemplateCache;
+import freenet.winterface.core.VelocityBase;
+import freenet.winterface.freenet.FetchMetrics;
+import freenet.winterface.freenet.FetchResultCache;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Request, rendering and fetch metrics of all routes, as kept by the
+ * {@link MetricsRegistry}. Latencies are in microseconds.
+ * <p>
+ * By default the answer is plain text in the Prometheus exposition format:
+ * </p>
+ *
+ * <pre>
+ * winterface_requests_active{route="Dashboard"} 0
+ * winterface_request_errors_total{route="Dashboard"} 0
+ * winterface_request_latency_us{route="Dashboard",quantile="0.5"} 1830
+ * winterface_request_latency_us_count{route="Dashboard"} 12
+ * </pre>
+ * <p>
+ * With parameter {@code format=json}, or if JSON is accepted, it is
+ * {@code {"routes":[{"route":"Dashboard","path":"/dashboard","active":0,"errors":0,
+ * "requests":{"count":12,"sum":…,"p50":…,"p99":…,"p999":…,"max":…},"fillContext":{…},"render":{…}}],
+ * "fetches":{"active":0,"failures":0,"originated":…,"coalesced":…,"wait":{…},"duration":{…},
+ * "cache":{"entries":…,"heapBytes":…,"diskBytes":…,"hits":…,"misses":…}},
+ * "stringTemplates":{"entries":…,"hits":…,"misses":…}}}. The fetch cache is
+ * left out if fetches are not cached.
+ * </p>
+ */
+public class Metrics extends HttpServlet {
+
+	/** Quantiles given of each latency */
+	private final static double[] QUANTILES = { 0.5, 0.99, 0.999 };
+	private final static String[] QUANTILE_NAMES = { "p50", "p99", "p999" };
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		MetricsRegistry registry = (MetricsRegistry) getServletContext().getAttribute(ServerManager.METRICS);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		String accept = request.getHeader("Accept");
+		if ("json".equals(request.getParameter("format")) || (accept != null && accept.contains("application/json"))) {
+			response.setContentType("application/json");
+			writeJson(registry, new JsonWriter(response.getWriter()));
+		} else {
+			response.setContentType("text/plain; version=0.0.4");
+			writeText(registry, response.getWriter());
+		}
+	}
+
+	private static void writeJson(MetricsRegistry registry, JsonWriter json) throws IOException {
+		json.beginObject().name("routes").beginArray();
+		for (RouteMetrics route : registry.getRoutes()) {
+			json.beginObject();
+			json.name("route").value(route.getName());
+			if (route.getPath() != null) {
+				json.name("path").value(route.getPath());
+			}
+			json.name("active").value(route.getActive());
+			json.name("errors").value(route.getErrors());
+			writeJson(json, "requests", route.getRequests());
+			writeJson(json, "fillContext", route.getFillContext());
+			writeJson(json, "render", route.getRender());
+			json.endObject();
+		}
+		json.endArray();
+		FetchMetrics fetches = registry.getFetches();
+		json.name("fetches").beginObject();
+		json.name("active").value(fetches.getActive());
+		json.name("failures").value(fetches.getFailures());
+		json.name("originated").value(fetches.getOriginated());
+		json.name("coalesced").value(fetches.getCoalesced());
+		writeJson(json, "wait", fetches.getWait());
+		writeJson(json, "duration", fetches.getDuration());
+		FetchResultCache cache = fetches.getCache();
+		if (cache != null) {
+			json.name("cache").beginObject();
+			json.name("entries").value(cache.getEntryCount());
+			json.name("heapBytes").value(cache.getHeapBytes());
+			json.name("diskBytes").value(cache.getDiskBytes());
+			json.name("hits").value(cache.getHits());
+			json.name("misses").value(cache.getMisses());
+			json.endObject();
+		}
+		json.endObject();
+		StringTemplateCache templates = VelocityBase.getStringTemplates();
+		json.name("stringTemplates").beginObject();
+		json.name("entries").value(templates.getEntryCount());
+		json.name("hits").value(templates.getHits());
+		json.name("misses").value(templates.getMisses());
+		json.endObject();
+		json.endObject();
+		json.flush();
+	}
+
+	private static void writeJson(JsonWriter json, String name, LatencyHistogram histogram) throws IOException {
+		json.name(name).beginObject();
+		json.name("count").value(histogram.getCount());
+		json.name("sum").value(histogram.getSum());
+		for (int i = 0; i < QUANTILES.length; i++) {
+			json.name(QUANTILE_NAMES[i]).value(histogram.getPercentile(QUANTILES[i]));
+		}
+		json.name("max").value(histogram.getMax());
+		json.endObject();
+	}
+
+	private static void writeText(MetricsRegistry registry, PrintWriter out) {
+		for (RouteMetrics route : registry.getRoutes()) {
+			String labels = "route=\"" + route.getName() + "\"";
+			out.println("winterface_requests_active{" + labels + "} " + route.getActive());
+			out.println("winterface_request_errors_total{" + labels + "} " + route.getErrors());
+			writeText(out, "winterface_request_latency_us", labels, route.getRequests());
+			writeText(out, "winterface_fill_context_latency_us", labels, route.getFillContext());
+			writeText(out, "winterface_render_latency_us", labels, route.getRender());
+		}
+		FetchMetrics fetches = registry.getFetches();
+		out.println("winterface_fetches_active " + fetches.getActive());
+		out.println("winterface_fetch_failures_total " + fetches.getFailures());
+		out.println("winterface_fetches_originated_total " + fetches.getOriginated());
+		out.println("winterface_fetches_coalesced_total " + fetches.getCoalesced());
+		writeText(out, "winterface_fetch_wait_us", null, fetches.getWait());
+		writeText(out, "winterface_fetch_duration_us", null, fetches.getDuration());
+		FetchResultCache cache = fetches.getCache();
+		if (cache != null) {
+			out.println("winterface_fetch_cache_entries " + cache.getEntryCount());
+			out.println("winterface_fetch_cache_bytes{tier=\"heap\"} " + cache.getHeapBytes());
+			out.println("winterface_fetch_cache_bytes{tier=\"disk\"} " + cache.getDiskBytes());
+			out.println("winterface_fetch_cache_hits_total " + cache.getHits());
+			out.println("winterface_fetch_cache_misses_total " + cache.getMisses());
+		}
+		StringTemplateCache templates = VelocityBase.getStringTemplates();
+		out.println("winterface_string_templates_entries " + templates.getEntryCount());
+		out.println("winterface_string_templates_hits_total " + templates.getHits());
+		out.println("winterface_string_templates_misses_total " + templates.getMisses());
+		out.flush();
+	}
+
+	private static void writeText(PrintWriter out, String name, String labels, LatencyHistogram histogram) {
+		String prefix = labels == null ? "" : labels + ",";
+		for (double quantile : QUANTILES) {
+			out.println(name + "{" + prefix + "quantile=\"" + quantile + "\"} " + histogram.getPercentile(quantile));
+		}
+		out.println(name + "{" + prefix + "quantile=\"1.0\"} " + histogram.getMax());
+		String suffix = labels == null ? "" : "{" + labels + "}";
+		out.println(name + "_sum" + suffix + " " + histogram.getSum());
+		out.println(name + "_count" + suffix + " " + histogram.getCount());
+	}
+}
@@ -0,0 +1,52 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+
+import freenet.winterface.core.JsonWriter;
+import freenet.winterface.core.QueueChanges;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.freenet.FreenetInterface;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Progress of queued requests as JSON, for live progress bars.
+ * <p>
+ * The answer carries a version token. Passed back as parameter
+ * {@value #PARAM_SINCE}, only requests changed since then are listed:
+ * </p>
+ *
+ * <pre>
+ * {"version":"…","complete":false,"catchingUp":false,
+ *  "changed":[{"id":"…","class":1,"fetched":10,"failed":0,"min":20,"total":24,"flag":0}],
+ *  "removed":["…"]}
+ * </pre>
+ * <p>
+ * If {@code complete} is {@code true} all requests are listed, and any
+ * request known to the client but not listed is gone. If {@code catchingUp}
+ * is {@code true}, the index is still being brought up to date with the node
+ * and later answers will list what it finds.
+ * </p>
+ */
+public class QueueUpdates extends HttpServlet {
+
+	/** Parameter holding the version token of the last answer */
+	public final static String PARAM_SINCE = "since";
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
+		QueueChanges changes = freenetInterface.getQueueIndex().getChangesSince(request.getParameter(PARAM_SINCE));
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		JsonWriter json = new JsonWriter(response.getWriter());
+		changes.writeTo(json);
+		json.flush();
+	}
+
+}
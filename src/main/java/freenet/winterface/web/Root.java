@@ -1,17 +1,36 @@
 package freenet.winterface.web;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Request;
+
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
 import freenet.keys.FreenetURI;
 import freenet.support.api.Bucket;
-import freenet.support.io.BucketTools;
+import freenet.winterface.core.ByteRange;
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.MetricsFilter;
+import freenet.winterface.core.RequestsUtil;
 import freenet.winterface.core.Routes;
 import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.WriteWatchdog;
+import freenet.winterface.freenet.FetchResultCache;
+import freenet.winterface.freenet.FetchSink;
+import freenet.winterface.freenet.FetchTrace;
+import freenet.winterface.freenet.FetchTrace.Phase;
+import freenet.winterface.freenet.FetchTraceLog;
 import freenet.winterface.freenet.FreenetInterface;
+import freenet.winterface.freenet.TracedFetchCallback;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -19,11 +38,56 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Fetch USK page.
+ * <p>
+ * If enabled in the {@link Configuration}, each fetch is traced in the
+ * {@link FetchTraceLog}.
+ * </p>
  */
 public class Root extends HttpServlet {
 
+	/** Log4j logger */
+	private final static Logger logger = Logger.getLogger(Root.class);
+
+	/** Number of completely fetched files kept to answer range requests */
+	private final static int RANGE_CACHE_ENTRIES = 4;
+	/** Bytes of files kept for range requests if there is no configuration */
+	private final static long RANGE_CACHE_SIZE_DEFAULT = 64L << 20;
+	/** Start of boundary between parts of multiple ranges */
+	private final static String MULTIPART_BOUNDARY_PREFIX = "WINTERFACE_RANGES_";
+	/**
+	 * Milliseconds a client may take to accept data. Fetched data is written
+	 * by the node's threads, which must not wait for a client that stopped
+	 * reading.
+	 */
+	private final static long WRITE_TIMEOUT = 30000;
+
+	/**
+	 * Complete data of files of mutable keys recently requested in ranges.
+	 * CHKs and SSKs are cached by the fetcher already.
+	 */
+	private FetchResultCache rangeCache;
+
+	/** Cuts clients not taking the data written to them */
+	private WriteWatchdog watchdog;
+
 	public Root() {
 	}
+
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		Configuration config = (Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID);
+		long rangeCacheSize = config == null ? RANGE_CACHE_SIZE_DEFAULT : config.getRangeCacheSize();
+		rangeCache = new FetchResultCache(RANGE_CACHE_ENTRIES, 0, rangeCacheSize, 0);
+		watchdog = new WriteWatchdog(WRITE_TIMEOUT);
+	}
+
+	@Override
+	public void destroy() {
+		watchdog.stop();
+		rangeCache.clear();
+		super.destroy();
+	}
 	
 	protected Routes getRoutes() {
 		return (Routes) getServletContext().getAttribute(ServerManager.WINTERFACE_ROUTES);
@@ -48,37 +112,49 @@ public class Root extends HttpServlet {
 		           localPath.startsWith("KSK@") ||
 		           localPath.startsWith("SSK@") ||
 		           localPath.startsWith("CHK@")) {
+			FetchTrace trace = startTrace(localPath);
 			FreenetInterface freenetInterface = (FreenetInterface) getServletContext().getAttribute(ServerManager.FREENET_INTERFACE);
-			FetchResult result = null;
+			FreenetURI uri;
 			try {
-				result = freenetInterface.filteredFetchURI(new FreenetURI(localPath));
+				uri = new FreenetURI(localPath);
 			} catch (MalformedURLException e) {
 				response.sendRedirect(getRoutes().getPathForErrorPage(e, localPath));
-			} catch (FetchException e) {
-				// USK key has been updated, redirect to the new URI
-				if (e.getMode() == FetchException.PERMANENT_REDIRECT) {
-					String newURI = "/".concat(e.newURI.toString());
-					response.sendRedirect(newURI);
-				} else {
-					response.sendRedirect(getRoutes().getPathForErrorPage(e, localPath));
+				finishTrace(trace, "invalid key");
+				return;
+			}
+			String entityTag = null;
+			if (uri.isCHK() || uri.isSSK()) {
+				// Content of these keys never changes
+				entityTag = RequestsUtil.getEntityTag(uri);
+				response.setHeader("ETag", entityTag);
+			}
+			response.setHeader("Accept-Ranges", "bytes");
+			boolean ranges = request.getHeader(RequestsUtil.HEADER_RANGE) != null && ifRangeMatches(request, entityTag);
+			FetchResult cached = ranges && !isImmutable(uri) ? rangeCache.get(uri, true) : null;
+			if (cached != null) {
+				serveRanges(request, response, cached, trace);
+				closeResponse(response);
+				if (trace != null) {
+					trace.mark(Phase.LAST_BYTE_WRITTEN);
 				}
+				finishTrace(trace, Integer.toString(response.getStatus()));
+				return;
 			}
-			if (result != null) {
-				// When fetching is complete, write it to the response OutputStream
-				response.setContentType(result.getMimeType());
-		        response.setStatus(HttpServletResponse.SC_OK);
-				OutputStream resOutStream = response.getOutputStream();
-
-				Bucket resultBucket = result.asBucket();
-				try {
-					BucketTools.copyTo(resultBucket, resOutStream, Long.MAX_VALUE);
-					resOutStream.flush();
-					resOutStream.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+			// A fetch may take minutes, don't hold the thread meanwhile
+			AsyncContext async = MetricsFilter.startAsync(request);
+			async.setTimeout(0);
+			FetchCompletion completion = new FetchCompletion(async, uri, localPath, ranges, trace);
+			try {
+				if (ranges) {
+					freenetInterface.filteredFetchURI(uri, completion);
+				} else {
+					// Data is written to the response while it is being decoded
+					freenetInterface.streamFilteredURI(uri, new ResponseSink(request, response, trace), completion);
 				}
-				resultBucket.free();
+			} catch (RuntimeException e) {
+				// The request is asynchronous already, nobody else would complete it
+				logger.error("Could not start fetch of " + localPath, e);
+				completion.onFailure(new FetchException(FetchException.INTERNAL_ERROR, e));
 			}
 		} else {
 			// The path given was invalid (not a Freenet URI and not in the Routes)
@@ -87,5 +163,269 @@ public class Root extends HttpServlet {
 		
 	}
 
+	/**
+	 * Starts tracing the fetch of a page, if fetches are traced.
+	 * 
+	 * @return the trace, {@code null} if fetches are not traced
+	 */
+	private FetchTrace startTrace(String localPath) {
+		Configuration config = (Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID);
+		FetchTraceLog traces = (FetchTraceLog) getServletContext().getAttribute(ServerManager.FETCH_TRACES);
+		if (config == null || !config.isTraceFetches() || traces == null) {
+			return null;
+		}
+		FetchTrace trace = new FetchTrace(localPath);
+		traces.add(trace);
+		return trace;
+	}
+
+	private static void finishTrace(FetchTrace trace, String outcome) {
+		if (trace != null) {
+			trace.finish(outcome);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the content behind the URI can never change.
+	 *         Such files are kept by the fetcher's cache, as far as they fit.
+	 */
+	private static boolean isImmutable(FreenetURI uri) {
+		return uri.isCHK() || uri.isSSK();
+	}
+
+	/**
+	 * A range request is only honored if its {@code If-Range} condition (if
+	 * any) names the current entity. We don't send dates, so only entity tags
+	 * can match.
+	 */
+	private boolean ifRangeMatches(HttpServletRequest request, String entityTag) {
+		String ifRange = request.getHeader(RequestsUtil.HEADER_IF_RANGE);
+		return ifRange == null || ifRange.trim().equals(entityTag);
+	}
+
+	/**
+	 * Answers a range request from the complete data of a key. The data is
+	 * kept in {@link #rangeCache} or the fetcher's cache, so players seeking
+	 * around in a file don't trigger a new fetch each time. Files larger than
+	 * either cache are fetched again.
+	 */
+	private void serveRanges(HttpServletRequest request, HttpServletResponse response, FetchResult result, FetchTrace trace) throws IOException {
+		Bucket data = result.asBucket();
+		try {
+			OutputStream out = traced(watchdog.watch(response.getOutputStream(), request), trace);
+			long length = data.size();
+			List<ByteRange> ranges = ByteRange.parse(request.getHeader(RequestsUtil.HEADER_RANGE), length);
+			if (ranges == null) {
+				// Malformed range header, send everything
+				response.setContentType(result.getMimeType());
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setHeader("Content-Length", Long.toString(length));
+				copyRange(data, out, 0, length);
+			} else if (ranges.isEmpty()) {
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				response.setHeader("Content-Range", ByteRange.unsatisfiableContentRange(length));
+				response.setHeader("Content-Length", "0");
+			} else if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				response.setContentType(result.getMimeType());
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", range.toContentRange(length));
+				response.setHeader("Content-Length", Long.toString(range.length()));
+				copyRange(data, out, range.first, range.length());
+			} else {
+				String boundary = MULTIPART_BOUNDARY_PREFIX + Long.toHexString(System.nanoTime());
+				response.setContentType("multipart/byteranges; boundary=" + boundary);
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				for (ByteRange range : ranges) {
+					String partHeader = "\r\n--" + boundary + "\r\nContent-Type: " + result.getMimeType() + "\r\nContent-Range: "
+							+ range.toContentRange(length) + "\r\n\r\n";
+					out.write(partHeader.getBytes("US-ASCII"));
+					copyRange(data, out, range.first, range.length());
+				}
+				out.write(("\r\n--" + boundary + "--\r\n").getBytes("US-ASCII"));
+			}
+		} finally {
+			data.free();
+		}
+	}
+
+	private static void closeResponse(HttpServletResponse response) throws IOException {
+		OutputStream resOutStream = response.getOutputStream();
+		resOutStream.flush();
+		resOutStream.close();
+	}
+
+	private static void copyRange(Bucket data, OutputStream out, long first, long length) throws IOException {
+		InputStream in = data.getInputStream();
+		try {
+			IOUtils.copyLarge(in, out, first, length);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Finishes an asynchronous request once its fetch completed
+	 */
+	private class FetchCompletion implements TracedFetchCallback {
+
+		private final AsyncContext async;
+		private final FreenetURI uri;
+		private final String localPath;
+		private final boolean ranges;
+		private final FetchTrace trace;
+		/** Set by the first outcome, later ones are ignored */
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		FetchCompletion(AsyncContext async, FreenetURI uri, String localPath, boolean ranges, FetchTrace trace) {
+			this.async = async;
+			this.uri = uri;
+			this.localPath = localPath;
+			this.ranges = ranges;
+			this.trace = trace;
+		}
+
+		@Override
+		public FetchTrace getTrace() {
+			return trace;
+		}
+
+		@Override
+		public void onSuccess(FetchResult result) {
+			if (!completed.compareAndSet(false, true)) {
+				result.asBucket().free();
+				return;
+			}
+			HttpServletResponse response = (HttpServletResponse) async.getResponse();
+			String outcome = "failed to send";
+			try {
+				if (ranges) {
+					FetchResult data = isImmutable(uri) ? result : rangeCache.put(uri, true, result);
+					serveRanges((HttpServletRequest) async.getRequest(), response, data, trace);
+				} else {
+					// Already streamed
+					result.asBucket().free();
+				}
+				closeResponse(response);
+				if (trace != null) {
+					trace.mark(Phase.LAST_BYTE_WRITTEN);
+				}
+				outcome = Integer.toString(response.getStatus());
+			} catch (IOException e) {
+				logger.debug("Could not send " + localPath, e);
+			} finally {
+				finishTrace(trace, outcome);
+				async.complete();
+			}
+		}
+
+		@Override
+		public void onFailure(FetchException e) {
+			if (!completed.compareAndSet(false, true)) {
+				return;
+			}
+			HttpServletResponse response = (HttpServletResponse) async.getResponse();
+			finishTrace(trace, "failed: " + e.getMessage());
+			try {
+				if (response.isCommitted()) {
+					// Part of the file is already on its way, all we can do is cut the response short
+					logger.warn("Fetch of " + localPath + " failed after sending data", e);
+					Request.getRequest((HttpServletRequest) async.getRequest()).getConnection().getEndPoint().close();
+				} else if (e.getMode() == FetchException.PERMANENT_REDIRECT) {
+					// USK key has been updated, redirect to the new URI
+					String newURI = "/".concat(e.newURI.toString());
+					response.sendRedirect(newURI);
+				} else {
+					response.sendRedirect(getRoutes().getPathForErrorPage(e, localPath));
+				}
+			} catch (IOException ioe) {
+				logger.debug("Could not send error for " + localPath, ioe);
+			} finally {
+				async.complete();
+			}
+		}
+	}
+
+	/**
+	 * Writes streamed data of a fetch directly to the {@link HttpServletResponse},
+	 * failing the fetch if the client does not take it within
+	 * {@link #WRITE_TIMEOUT}
+	 */
+	private class ResponseSink implements FetchSink {
+
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+		private final FetchTrace trace;
+
+		ResponseSink(HttpServletRequest request, HttpServletResponse response, FetchTrace trace) {
+			this.request = request;
+			this.response = response;
+			this.trace = trace;
+		}
+
+		@Override
+		public OutputStream open(String mimeType) throws IOException {
+			response.setContentType(mimeType);
+			response.setStatus(HttpServletResponse.SC_OK);
+			return traced(watchdog.watch(response.getOutputStream(), request), trace);
+		}
+	}
+
+	/**
+	 * @return stream that marks {@link Phase#FIRST_BYTE_WRITTEN} when the
+	 *         first byte is written to it, or the given stream if the fetch
+	 *         is not traced
+	 */
+	private static OutputStream traced(OutputStream out, FetchTrace trace) {
+		return trace == null ? out : new TracedOutputStream(out, trace);
+	}
+
+	/**
+	 * Passes everything on to another stream and marks
+	 * {@link Phase#FIRST_BYTE_WRITTEN} on the first write
+	 */
+	private static class TracedOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final FetchTrace trace;
+		private boolean written;
+
+		TracedOutputStream(OutputStream out, FetchTrace trace) {
+			this.out = out;
+			this.trace = trace;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			firstWrite();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (len > 0) {
+				firstWrite();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		private void firstWrite() {
+			if (!written) {
+				written = true;
+				trace.mark(Phase.FIRST_BYTE_WRITTEN);
+			}
+		}
+	}
+
 }
 
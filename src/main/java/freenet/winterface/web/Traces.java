@@ -0,0 +1,83 @@
+package freenet.winterface.web;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import freenet.winterface.core.Configuration;
+import freenet.winterface.core.JsonWriter;
+import freenet.winterface.core.ServerManager;
+import freenet.winterface.core.VelocityBase;
+import freenet.winterface.freenet.FetchTrace;
+import freenet.winterface.freenet.FetchTrace.Phase;
+import freenet.winterface.freenet.FetchTraceLog;
+
+import org.apache.velocity.context.Context;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Diagnostics page listing the recent fetches of {@link Root} and when they
+ * reached each {@link Phase}.
+ * <p>
+ * With parameter {@code format=json} the traces are exported as
+ * {@code {"tracing":true,"traces":[{"uri":"USK@…","started":…,"outcome":"200",
+ * "phases":{"REQUEST_START":0,"FETCH_SUBMIT":…}}]}}, with microseconds since
+ * the request started for each phase reached. The outcome is {@code null}
+ * while the request is running.
+ * </p>
+ */
+public class Traces extends VelocityBase {
+
+	@Override
+	protected void subFillContext(Context context, HttpServletRequest request) {
+		context.put("tracing", isTracing());
+		context.put("traces", getTraces());
+		context.put("phases", Phase.values());
+	}
+
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (!"json".equals(request.getParameter("format"))) {
+			super.doGet(request, response);
+			return;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("Content-Disposition", "attachment; filename=\"fetch-traces.json\"");
+		JsonWriter json = new JsonWriter(response.getWriter());
+		json.beginObject();
+		json.name("tracing").value(isTracing());
+		json.name("traces").beginArray();
+		for (FetchTrace trace : getTraces()) {
+			json.beginObject();
+			json.name("uri").value(trace.getUri());
+			json.name("started").value(trace.getStartTime());
+			json.name("outcome").value(trace.getOutcome());
+			json.name("phases").beginObject();
+			for (Phase phase : Phase.values()) {
+				if (trace.isReached(phase)) {
+					json.name(phase.name()).value(trace.getMicros(phase));
+				}
+			}
+			json.endObject();
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.flush();
+	}
+
+	private boolean isTracing() {
+		Configuration config = (Configuration) getServletContext().getAttribute(ServerManager.CONFIG_ID);
+		return config != null && config.isTraceFetches();
+	}
+
+	private List<FetchTrace> getTraces() {
+		FetchTraceLog traces = (FetchTraceLog) getServletContext().getAttribute(ServerManager.FETCH_TRACES);
+		return traces == null ? Collections.<FetchTrace> emptyList() : traces.getRecent();
+	}
+}
@@ -17,3 +17,122 @@ $(document).ready(function() {
 		$("#open-app").html($(open_app).html());
 	}
 });
+
+/*
+Keep status and alert count up to date with events pushed by the server.
+Browsers allow only a few connections per host, so tabs share one stream: the
+visible tab holding the lease in localStorage opens it and relays its events
+to the other tabs over a BroadcastChannel. Hidden tabs never hold a stream.
+*/
+$(document).ready(function() {
+	if (!window.EventSource || !($(".connections-progress").length || $("#notifications-quantity").length)) {
+		return;
+	}
+	var handlers = {
+		connections: function(connections) {
+			var bar = $(".connections-progress .bar");
+			if (connections.maximum > 0) {
+				var width = Math.floor(100 * connections.current / connections.maximum);
+				bar.css("width", width + "%").text(connections.current + "/" + connections.maximum);
+				bar.toggleClass("bar-warning", width < 25).toggleClass("bar-success", width >= 25);
+			} else {
+				bar.css("width", "100%").text("0/0").addClass("bar-warning").removeClass("bar-success");
+			}
+		},
+		alerts: function(alerts) {
+			$("#notifications-quantity").text(alerts.count).toggleClass("label-info", alerts.count > 0);
+		}
+	};
+	var source = null;
+	var channel = null;
+	var storage = null;
+	try {
+		if (window.BroadcastChannel && window.localStorage) {
+			storage = window.localStorage;
+			channel = new BroadcastChannel("winterface-events");
+		}
+	} catch (e) {
+		// Storage is disabled, every visible tab gets its own stream
+	}
+
+	function openStream() {
+		if (source) {
+			return;
+		}
+		source = new EventSource("/events");
+		$.each(handlers, function(type, handler) {
+			source.addEventListener(type, function(event) {
+				handler(JSON.parse(event.data));
+				if (channel) {
+					channel.postMessage({ type: type, data: event.data });
+				}
+			});
+		});
+	}
+
+	function closeStream() {
+		if (source) {
+			source.close();
+			source = null;
+		}
+	}
+
+	if (!channel) {
+		$(document).on("visibilitychange", function() {
+			document.hidden ? closeStream() : openStream();
+		});
+		if (!document.hidden) {
+			openStream();
+		}
+		return;
+	}
+
+	var LEASE_KEY = "winterface-events-lease";
+	var LEASE_TIME = 6000;
+	var id = Math.random().toString(36).slice(2);
+
+	function readLease() {
+		try {
+			return JSON.parse(storage.getItem(LEASE_KEY));
+		} catch (e) {
+			return null;
+		}
+	}
+
+	// Takes or renews the lease if it is free, otherwise leaves the stream to its holder
+	function lead() {
+		if (document.hidden) {
+			return;
+		}
+		var lease = readLease();
+		var now = Date.now();
+		if (!lease || lease.id === id || lease.expires < now) {
+			storage.setItem(LEASE_KEY, JSON.stringify({ id: id, expires: now + LEASE_TIME }));
+			openStream();
+		} else {
+			closeStream();
+		}
+	}
+
+	function resign() {
+		closeStream();
+		var lease = readLease();
+		if (lease && lease.id === id) {
+			storage.removeItem(LEASE_KEY);
+		}
+	}
+
+	channel.onmessage = function(message) {
+		var handler = handlers[message.data.type];
+		if (handler) {
+			handler(JSON.parse(message.data.data));
+		}
+	};
+	$(document).on("visibilitychange", function() {
+		document.hidden ? resign() : lead();
+	});
+	$(window).on("pagehide", resign);
+	// Renewing well before the lease expires; a tab taking over gets the current state from the server
+	setInterval(lead, LEASE_TIME / 3);
+	lead();
+});
@@ -0,0 +1,121 @@
+package freenet.winterface.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Random;
+
+import freenet.client.FetchException;
+import freenet.node.RequestStarter;
+import freenet.node.fcp.ClientPut.COMPRESS_STATE;
+import freenet.node.fcp.DownloadRequestStatus;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.fcp.UploadDirRequestStatus;
+import freenet.node.fcp.UploadFileRequestStatus;
+
+/**
+ * Creates global requests as the node would report them, for benchmarks and
+ * load tests.
+ * <p>
+ * Requests are mocks, as in the unit tests, but made stub-only so they do not
+ * record their invocations. About 70% are downloads, 25% file uploads and 5%
+ * directory uploads; 60% of them are running, 30% succeeded and 10% failed.
+ * The same seed gives the same requests.
+ * </p>
+ */
+public class SyntheticRequests {
+
+	/** States of a request */
+	private final static int RUNNING = 0;
+	private final static int SUCCEEDED = 1;
+	private final static int FAILED = 2;
+
+	private SyntheticRequests() {
+	}
+
+	public static RequestStatus[] create(int count, long seed) {
+		Random random = new Random(seed);
+		RequestStatus[] requests = new RequestStatus[count];
+		for (int i = 0; i < count; i++) {
+			int kind = random.nextInt(100);
+			if (kind < 70) {
+				requests[i] = download(i, random);
+			} else if (kind < 95) {
+				requests[i] = upload(i, random);
+			} else {
+				requests[i] = uploadDir(i, random);
+			}
+		}
+		return requests;
+	}
+
+	private static DownloadRequestStatus download(int i, Random random) {
+		DownloadRequestStatus request = mock(DownloadRequestStatus.class, withSettings().stubOnly());
+		int state = stub(request, "download-" + i, random);
+		if (state == FAILED) {
+			int failure = random.nextInt(4);
+			when(request.getFailureCode()).thenReturn(failure == 0 ? FetchException.CONTENT_VALIDATION_UNKNOWN_MIME : FetchException.DATA_NOT_FOUND);
+			when(request.getMIMEType()).thenReturn("application/x-unknown-" + random.nextInt(10));
+		}
+		when(request.toTempSpace()).thenReturn(random.nextBoolean());
+		when(request.getDataSize()).thenReturn(size(random));
+		when(request.getPreferredFilename()).thenReturn("file-" + i + ".bin");
+		return request;
+	}
+
+	private static UploadFileRequestStatus upload(int i, Random random) {
+		UploadFileRequestStatus request = mock(UploadFileRequestStatus.class, withSettings().stubOnly());
+		stub(request, "upload-" + i, random);
+		when(request.getDataSize()).thenReturn(size(random));
+		when(request.isCompressing()).thenReturn(COMPRESS_STATE.values()[random.nextInt(COMPRESS_STATE.values().length)]);
+		when(request.getPreferredFilename()).thenReturn("upload-" + i + ".bin");
+		when(request.isUpload()).thenReturn(true);
+		return request;
+	}
+
+	private static UploadDirRequestStatus uploadDir(int i, Random random) {
+		UploadDirRequestStatus request = mock(UploadDirRequestStatus.class, withSettings().stubOnly());
+		stub(request, "dir-" + i, random);
+		long size = size(random);
+		when(request.getDataSize()).thenReturn(size);
+		when(request.getTotalDataSize()).thenReturn(size);
+		when(request.getPreferredFilename()).thenReturn("site-" + i);
+		when(request.isUpload()).thenReturn(true);
+		return request;
+	}
+
+	/**
+	 * Stubs what all requests have.
+	 *
+	 * @return {@link #RUNNING}, {@link #SUCCEEDED} or {@link #FAILED}
+	 */
+	private static int stub(RequestStatus request, String identifier, Random random) {
+		int roll = random.nextInt(10);
+		int state = roll < 6 ? RUNNING : roll < 9 ? SUCCEEDED : FAILED;
+		int total = 1 + random.nextInt(20000);
+		int min = Math.max(1, total * 2 / 3);
+		int fetched = state == SUCCEEDED ? min : random.nextInt(min + 1);
+		when(request.getIdentifier()).thenReturn(identifier);
+		when(request.getPriority()).thenReturn((short) random.nextInt(RequestStarter.NUMBER_OF_PRIORITY_CLASSES));
+		when(request.isStarted()).thenReturn(random.nextInt(20) != 0);
+		when(request.hasFinished()).thenReturn(state != RUNNING);
+		when(request.hasSucceeded()).thenReturn(state == SUCCEEDED);
+		when(request.getTotalBlocks()).thenReturn(total);
+		when(request.getMinBlocks()).thenReturn(min);
+		when(request.getFetchedBlocks()).thenReturn(fetched);
+		when(request.getFailedBlocks()).thenReturn(random.nextInt(1 + total / 50));
+		when(request.getFatalyFailedBlocks()).thenReturn(state == FAILED ? 1 : 0);
+		when(request.isTotalFinalized()).thenReturn(random.nextBoolean());
+		when(request.getLastActivity()).thenReturn(System.currentTimeMillis() - random.nextInt(86400000));
+		when(request.isPersistentForever()).thenReturn(true);
+		return state;
+	}
+
+	/**
+	 * @return a size between 1 KiB and 4 GiB, small sizes being more common
+	 */
+	private static long size(Random random) {
+		return 1024L << random.nextInt(23);
+	}
+}
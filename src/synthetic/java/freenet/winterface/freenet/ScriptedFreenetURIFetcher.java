@@ -0,0 +1,283 @@
+package freenet.winterface.freenet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+import freenet.support.io.ArrayBucket;
+import freenet.winterface.freenet.FetchTrace.Phase;
+
+/**
+ * {@link FreenetURIFetcher} that makes up its files instead of asking a node, for load tests.
+ * <p>
+ * How a fetch goes is given by a {@link Script}: the time it takes, the size and MIME type of
+ * the file and how often it fails. Scripts are picked by the longest prefix of the URI they were
+ * set for, falling back to a default script. Fetches complete on a small pool of timer threads,
+ * so like the node's fetches they hold no thread of the caller while pending. Nothing is filtered,
+ * and traced fetches get all their blocks at once.
+ * </p>
+ */
+public class ScriptedFreenetURIFetcher implements FreenetURIFetcher {
+    /** Size of the chunks streamed fetches write their data in */
+    private static final int CHUNK_SIZE = 32 << 10;
+    private static final byte[] TEXT = ("<p>Lorem ipsum dolor sit amet, consectetur adipisici elit, "
+            + "sed eiusmod tempor incidunt ut labore et dolore magna aliqua.</p>\n").getBytes();
+
+    /**
+     * How a fetch goes.
+     */
+    public static class Script {
+        final long latency;
+        final long jitter;
+        final int size;
+        final String mimeType;
+        final double failureRate;
+
+        /**
+         * @param latency milliseconds until the data arrives
+         * @param jitter up to this many milliseconds are randomly added to the latency
+         * @param size bytes of the file
+         * @param mimeType MIME type of the file; {@code text/*} files get text, others random bytes
+         * @param failureRate share of fetches failing with {@link FetchException#DATA_NOT_FOUND},
+         *        between {@code 0} and {@code 1}
+         */
+        public Script(long latency, long jitter, int size, String mimeType, double failureRate) {
+            if (latency < 0 || jitter < 0 || size < 0 || mimeType == null) {
+                throw new IllegalArgumentException();
+            }
+            this.latency = latency;
+            this.jitter = jitter;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.failureRate = failureRate;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Random random;
+    private volatile Script defaultScript;
+    /** Scripts by URI prefix, guarded by itself */
+    private final TreeMap<String, Script> scripts = new TreeMap<String, Script>();
+    /** Made up files by MIME type and size */
+    private final ConcurrentMap<String, byte[]> payloads = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicLong startedFetches = new AtomicLong();
+    private final AtomicLong failedFetches = new AtomicLong();
+
+    /**
+     * @param defaultScript script of URIs no other script was set for
+     * @param threads number of threads completing fetches
+     * @param seed seed of the random latencies, failures and file contents
+     */
+    public ScriptedFreenetURIFetcher(Script defaultScript, int threads, long seed) {
+        if (defaultScript == null) {
+            throw new NullPointerException();
+        }
+        this.defaultScript = defaultScript;
+        this.random = new Random(seed);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Scripted fetches " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the script of URIs without a more specific script.
+     */
+    public void setDefaultScript(Script script) {
+        if (script == null) {
+            throw new NullPointerException();
+        }
+        defaultScript = script;
+    }
+
+    /**
+     * Sets the script of URIs starting with the given prefix, e.g. {@code "CHK@"}.
+     * @param script the script, {@code null} to remove the one set for the prefix
+     */
+    public void setScript(String uriPrefix, Script script) {
+        synchronized (scripts) {
+            if (script == null) {
+                scripts.remove(uriPrefix);
+            } else {
+                scripts.put(uriPrefix, script);
+            }
+        }
+    }
+
+    /**
+     * @return number of fetches started so far
+     */
+    public long getStartedFetches() {
+        return startedFetches.get();
+    }
+
+    /**
+     * @return number of fetches failed on purpose so far
+     */
+    public long getFailedFetches() {
+        return failedFetches.get();
+    }
+
+    /**
+     * Stops the timer threads. Pending fetches are dropped without calling back.
+     */
+    public void terminate() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+        return filteredFetchURI(uri);
+    }
+
+    @Override
+    public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        filteredFetchURI(uri, waiter);
+        return waiter.waitForCompletion();
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+        FetchCallbackWaiter waiter = new FetchCallbackWaiter();
+        streamFilteredURI(uri, sink, waiter);
+        waiter.waitForCompletion();
+    }
+
+    @Override
+    public void filteredFetchURI(FreenetURI uri, final FetchCallback callback) {
+        final Script script = getScript(uri);
+        schedule(script, callback, new Runnable() {
+            @Override
+            public void run() {
+                arrived(callback);
+                callback.onSuccess(new FetchResult(new ClientMetadata(script.mimeType),
+                        new ArrayBucket(getPayload(script))));
+            }
+        });
+    }
+
+    @Override
+    public void streamFilteredURI(FreenetURI uri, final FetchSink sink, final FetchCallback callback) {
+        final Script script = getScript(uri);
+        schedule(script, callback, new Runnable() {
+            @Override
+            public void run() {
+                arrived(callback);
+                StreamingBucket bucket = new StreamingBucket(sink);
+                bucket.setMimeType(script.mimeType);
+                byte[] payload = getPayload(script);
+                try {
+                    OutputStream out = bucket.getOutputStream();
+                    for (int offset = 0; offset < payload.length; offset += CHUNK_SIZE) {
+                        out.write(payload, offset, Math.min(CHUNK_SIZE, payload.length - offset));
+                    }
+                    out.close();
+                    bucket.finish();
+                } catch (IOException e) {
+                    callback.onFailure(new FetchException(FetchException.BUCKET_ERROR, e));
+                    return;
+                }
+                callback.onSuccess(new FetchResult(new ClientMetadata(script.mimeType), bucket));
+            }
+        });
+    }
+
+    /**
+     * Runs {@code success} once the latency of the script passed, unless the fetch is to fail.
+     */
+    private void schedule(Script script, final FetchCallback callback, Runnable success) {
+        startedFetches.incrementAndGet();
+        FetchTrace trace = FetchTrace.of(callback);
+        if (trace != null) {
+            trace.mark(Phase.FETCH_SUBMIT);
+        }
+        long delay;
+        boolean fail;
+        synchronized (random) {
+            delay = script.latency + (script.jitter > 0 ? (long) (random.nextDouble() * script.jitter) : 0);
+            fail = script.failureRate > 0 && random.nextDouble() < script.failureRate;
+        }
+        Runnable task = success;
+        if (fail) {
+            failedFetches.incrementAndGet();
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(new FetchException(FetchException.DATA_NOT_FOUND));
+                }
+            };
+        }
+        executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the phases of the fetch up to its data being ready, if it is traced.
+     */
+    private static void arrived(FetchCallback callback) {
+        FetchTrace trace = FetchTrace.of(callback);
+        if (trace != null) {
+            trace.mark(Phase.FIRST_BLOCK);
+            trace.mark(Phase.FETCH_COMPLETE);
+            trace.mark(Phase.FILTER_COMPLETE);
+        }
+    }
+
+    private Script getScript(FreenetURI uri) {
+        String key = uri.toString();
+        synchronized (scripts) {
+            // Candidates sort before the key, the longest matching prefix comes last among them
+            for (Map.Entry<String, Script> entry = scripts.floorEntry(key); entry != null;
+                    entry = scripts.lowerEntry(entry.getKey())) {
+                if (key.startsWith(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return defaultScript;
+    }
+
+    /**
+     * @return the made up file of the script. Files are shared, callers must not change them.
+     */
+    private byte[] getPayload(Script script) {
+        String key = script.mimeType + ";" + script.size;
+        byte[] payload = payloads.get(key);
+        if (payload == null) {
+            payload = new byte[script.size];
+            if (script.mimeType.startsWith("text/")) {
+                for (int offset = 0; offset < payload.length; offset += TEXT.length) {
+                    System.arraycopy(TEXT, 0, payload, offset, Math.min(TEXT.length, payload.length - offset));
+                }
+            } else {
+                synchronized (random) {
+                    random.nextBytes(payload);
+                }
+            }
+            byte[] existing = payloads.putIfAbsent(key, payload);
+            if (existing != null) {
+                payload = existing;
+            }
+        }
+        return payload;
+    }
+}
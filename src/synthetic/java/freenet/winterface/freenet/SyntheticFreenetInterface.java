@@ -0,0 +1,369 @@
+package freenet.winterface.freenet;
+
+import static org.mockito.Mockito.mock;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.client.async.USKManager;
+import freenet.clients.http.bookmark.BookmarkCategory;
+import freenet.clients.http.bookmark.BookmarkItem;
+import freenet.clients.http.bookmark.BookmarkManager;
+import freenet.keys.FreenetURI;
+import freenet.node.Node;
+import freenet.node.NodeClientCore;
+import freenet.node.SecurityLevels.NETWORK_THREAT_LEVEL;
+import freenet.node.SecurityLevels.PHYSICAL_THREAT_LEVEL;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.useralerts.SimpleUserAlert;
+import freenet.node.useralerts.UserAlert;
+import freenet.support.Base64;
+import freenet.winterface.core.I18n;
+import freenet.winterface.core.QueueIndex;
+import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
+
+/**
+ * {@link FreenetInterface} serving made up data, so pages can be rendered
+ * without a node. Bookmarks, alerts and requests are created once; changes are
+ * ignored. Fetches go to the {@link FreenetURIFetcher} given, e.g. a
+ * {@link ScriptedFreenetURIFetcher}.
+ */
+public class SyntheticFreenetInterface implements FreenetInterface {
+
+	private final List<BookmarkCategoryWithPath> categories;
+	private final AlertSnapshot alerts;
+	private final QueueIndex queueIndex = new QueueIndex();
+	private final FreenetURIFetcher uriFetcher;
+	private final FetchMetrics fetchMetrics = new FetchMetrics();
+	/** Only there to create {@link BookmarkCategoryWithPath}s */
+	private final BookmarkFreenetInterface bookmarkInterface;
+
+	/**
+	 * @param categoryCount
+	 *            number of bookmark categories below the main category
+	 * @param itemsPerCategory
+	 *            bookmarks per category
+	 * @param alertCount
+	 *            number of alerts, of all priority classes
+	 * @param requests
+	 *            global requests, e.g. from
+	 *            {@link freenet.winterface.benchmark.SyntheticRequests}
+	 * @param uriFetcher
+	 *            does the fetches, {@code null} if fetches are not supported
+	 */
+	public SyntheticFreenetInterface(int categoryCount, int itemsPerCategory, int alertCount, RequestStatus[] requests,
+			FreenetURIFetcher uriFetcher) {
+		this.uriFetcher = uriFetcher == null ? null : new MeasuredFreenetURIFetcher(uriFetcher, fetchMetrics);
+		if (uriFetcher instanceof CachingFreenetURIFetcher) {
+			fetchMetrics.setCache(((CachingFreenetURIFetcher) uriFetcher).getCache());
+		}
+		Node node = mock(Node.class);
+		node.clientCore = mock(NodeClientCore.class);
+		bookmarkInterface = new BookmarkFreenetInterface(node, mock(BookmarkManager.class), mock(USKManager.class), new I18n());
+		Random random = new Random(categoryCount * 31L + itemsPerCategory);
+		categories = createCategories(categoryCount, itemsPerCategory, random);
+		UserAlert[] alertArray = new UserAlert[alertCount];
+		for (int i = 0; i < alertCount; i++) {
+			alertArray[i] = new SimpleUserAlert(i % 2 == 0, "Alert " + i, "Text of alert " + i + " & <some> markup", "Alert " + i,
+					(short) (i % (UserAlert.MINOR + 1)));
+		}
+		alerts = new AlertSnapshot(alertArray);
+		queueIndex.replaceAll(requests);
+	}
+
+	private List<BookmarkCategoryWithPath> createCategories(int categoryCount, int itemsPerCategory, Random random) {
+		List<BookmarkCategory> subCategories = new ArrayList<BookmarkCategory>();
+		for (int i = 0; i < categoryCount; i++) {
+			List<BookmarkItem> items = new ArrayList<BookmarkItem>();
+			for (int j = 0; j < itemsPerCategory; j++) {
+				items.add(createItem("Site " + i + "-" + j, random));
+			}
+			subCategories.add(new SyntheticCategory("Category " + i, items));
+		}
+		BookmarkCategory main = new SyntheticCategory("/", Collections.<BookmarkItem> emptyList());
+		List<BookmarkCategoryWithPath> result = new ArrayList<BookmarkCategoryWithPath>();
+		BookmarkCategoryWithPath mainWithPath = bookmarkInterface.new BookmarkCategoryWithPath(main, "");
+		result.add(mainWithPath);
+		for (BookmarkCategory category : subCategories) {
+			result.add(bookmarkInterface.new BookmarkCategoryWithPath(category, mainWithPath.getCatPath()));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private static BookmarkItem createItem(String name, Random random) {
+		try {
+			FreenetURI key = new FreenetURI(randomUSK(name.replace(' ', '-'), random));
+			return new BookmarkItem(key, name, "Description of " + name, "", random.nextInt(4) == 0, null);
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a USK key with random keys
+	 */
+	public static String randomUSK(String siteName, Random random) {
+		byte[] routingKey = new byte[32];
+		byte[] cryptoKey = new byte[32];
+		random.nextBytes(routingKey);
+		random.nextBytes(cryptoKey);
+		return "USK@" + Base64.encode(routingKey) + "," + Base64.encode(cryptoKey) + ",AQACAAE/" + siteName + "/" + random.nextInt(100) + "/";
+	}
+
+	/**
+	 * @return a CHK key with random keys
+	 */
+	public static String randomCHK(String fileName, Random random) {
+		byte[] routingKey = new byte[32];
+		byte[] cryptoKey = new byte[32];
+		random.nextBytes(routingKey);
+		random.nextBytes(cryptoKey);
+		return "CHK@" + Base64.encode(routingKey) + "," + Base64.encode(cryptoKey) + ",AAMC--8/" + fileName;
+	}
+
+	/**
+	 * Category with fixed items. Sub categories are listed by
+	 * {@link SyntheticFreenetInterface#getBookmarkCategories()} only.
+	 */
+	private static class SyntheticCategory extends BookmarkCategory {
+		private final List<BookmarkItem> items;
+
+		SyntheticCategory(String name, List<BookmarkItem> items) {
+			super(name);
+			this.items = items;
+		}
+
+		@Override
+		public List<BookmarkItem> getItems() {
+			return items;
+		}
+	}
+
+	@Override
+	public String publicVersion() {
+		return "0.7.5";
+	}
+
+	@Override
+	public int buildNumber() {
+		return 1467;
+	}
+
+	@Override
+	public String fredMinVersionSupported() {
+		return "0.7.5";
+	}
+
+	@Override
+	public int fredMinBuildSupported() {
+		return 1467;
+	}
+
+	@Override
+	public boolean isFredVersionSupported() {
+		return true;
+	}
+
+	@Override
+	public String cvsRevision() {
+		return "build01467";
+	}
+
+	@Override
+	public String extRevisionNumber() {
+		return "29";
+	}
+
+	@Override
+	public ConnectionOverview getConnections() {
+		return new ConnectionOverview(24, 40);
+	}
+
+	@Override
+	public NETWORK_THREAT_LEVEL getNetworkThreatLevel() {
+		return NETWORK_THREAT_LEVEL.NORMAL;
+	}
+
+	@Override
+	public PHYSICAL_THREAT_LEVEL getPhysicalThreatLevel() {
+		return PHYSICAL_THREAT_LEVEL.NORMAL;
+	}
+
+	@Override
+	public int getFproxyPort() {
+		return 8888;
+	}
+
+	@Override
+	public boolean isPluginLoaded(String plugname) {
+		return false;
+	}
+
+	@Override
+	public List<BookmarkCategoryWithPath> getBookmarkCategories() {
+		return categories;
+	}
+
+	@Override
+	public int getBookmarkCategoriesCount() {
+		return categories.size();
+	}
+
+	@Override
+	public List<BookmarkItem> getBookmarksFromCat(BookmarkCategory cat) {
+		return cat.getItems();
+	}
+
+	@Override
+	public int getBookmarksFromCatCount(BookmarkCategory cat) {
+		return cat.getItems().size();
+	}
+
+	@Override
+	public BookmarkCategory getCategoryByPath(String path) {
+		for (BookmarkCategoryWithPath category : categories) {
+			if (category.getCatPath().equals(path)) {
+				return category;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String getBookmarkItemPathEncoded(String parentPath, BookmarkItem bmItem) {
+		return bookmarkInterface.getBookmarkItemPathEncoded(parentPath, bmItem);
+	}
+
+	@Override
+	public void editBookmark(String path, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+	}
+
+	@Override
+	public void addCategory(String path, String name) {
+	}
+
+	@Override
+	public void addBookmarkItem(String path, String name, FreenetURI key, String descB, String explain, boolean hasAnActivelink) {
+	}
+
+	@Override
+	public void removeBookmark(String path) {
+	}
+
+	@Override
+	public void moveBookmarkUp(String path, boolean store) {
+	}
+
+	@Override
+	public void moveBookmarkDown(String path, boolean store) {
+	}
+
+	@Override
+	public List<String> applyBookmarkOperations(List<BookmarkOperation> operations) {
+		return new ArrayList<String>(Collections.<String> nCopies(operations.size(), null));
+	}
+
+	@Override
+	public void storeBookmarks() {
+	}
+
+	@Override
+	public void reAddDefaultBookmarks() {
+	}
+
+	@Override
+	public AlertSnapshot getAlertSnapshot() {
+		return alerts;
+	}
+
+	@Override
+	public UserAlert[] getAlerts() {
+		return alerts.getAlerts();
+	}
+
+	@Override
+	public UserAlert[] getValidAlerts() {
+		return alerts.getValidAlerts();
+	}
+
+	@Override
+	public int alertClass(UserAlert alert) {
+		return alert.getPriorityClass();
+	}
+
+	@Override
+	public void dismissAlert(int alertHashCode) {
+	}
+
+	@Override
+	public int getValidAlertCount() {
+		return alerts.getValidAlertCount();
+	}
+
+	@Override
+	public int getAlertAnchorSafe(String anchorUnsafe) {
+		String[] anchorSubstrings = anchorUnsafe.split(":");
+		return Integer.parseInt(anchorSubstrings[anchorSubstrings.length - 1]);
+	}
+
+	@Override
+	public int alertsHighestClass() {
+		return alerts.getHighestClass();
+	}
+
+	@Override
+	public QueueIndex getQueueIndex() {
+		return queueIndex;
+	}
+
+	@Override
+	public FetchMetrics getFetchMetrics() {
+		return fetchMetrics;
+	}
+
+	@Override
+	public void terminate() {
+		bookmarkInterface.terminate();
+		FetchResultCache cache = fetchMetrics.getCache();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public FetchResult fetchURI(FreenetURI uri) throws FetchException {
+		return getFetcher().fetchURI(uri);
+	}
+
+	@Override
+	public FetchResult filteredFetchURI(FreenetURI uri) throws FetchException {
+		return getFetcher().filteredFetchURI(uri);
+	}
+
+	@Override
+	public void streamFilteredURI(FreenetURI uri, FetchSink sink) throws FetchException {
+		getFetcher().streamFilteredURI(uri, sink);
+	}
+
+	@Override
+	public void filteredFetchURI(FreenetURI uri, FetchCallback callback) {
+		getFetcher().filteredFetchURI(uri, callback);
+	}
+
+	@Override
+	public void streamFilteredURI(FreenetURI uri, FetchSink sink, FetchCallback callback) {
+		getFetcher().streamFilteredURI(uri, sink, callback);
+	}
+
+	private FreenetURIFetcher getFetcher() {
+		if (uriFetcher == null) {
+			throw new UnsupportedOperationException("No fetcher given");
+		}
+		return uriFetcher;
+	}
+}
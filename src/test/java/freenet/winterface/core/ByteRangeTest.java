@@ -0,0 +1,68 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ByteRange}.
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void missingOrMalformedHeaderMeansFullEntity() {
+		assertThat(ByteRange.parse(null, 100), nullValue());
+		assertThat(ByteRange.parse("items=0-1", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=5", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=9-3", 100), nullValue());
+		assertThat(ByteRange.parse("bytes=a-3", 100), nullValue());
+	}
+
+	@Test
+	public void canParseSingleRanges() {
+		assertRange(ByteRange.parse("bytes=0-9", 100), 0, 9);
+		assertRange(ByteRange.parse("bytes=90-", 100), 90, 99);
+		assertRange(ByteRange.parse("bytes=-10", 100), 90, 99);
+		assertRange(ByteRange.parse("BYTES=50-500", 100), 50, 99);
+		assertRange(ByteRange.parse("bytes=-500", 100), 0, 99);
+	}
+
+	@Test
+	public void canParseMultipleRangesInRequestedOrder() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=50-59, 0-0,-1", 100);
+		assertThat(ranges, hasSize(3));
+		assertThat(ranges.get(0).toContentRange(100), is("bytes 50-59/100"));
+		assertThat(ranges.get(1).toContentRange(100), is("bytes 0-0/100"));
+		assertThat(ranges.get(2).toContentRange(100), is("bytes 99-99/100"));
+	}
+
+	@Test
+	public void unsatisfiableRangesAreDropped() {
+		assertThat(ByteRange.parse("bytes=100-200", 100), empty());
+		assertThat(ByteRange.parse("bytes=-0", 100), empty());
+		assertThat(ByteRange.parse("bytes=0-", 0), empty());
+		assertRange(ByteRange.parse("bytes=100-200,10-19", 100), 10, 19);
+	}
+
+	@Test
+	public void tooManyRangesMeanFullEntity() {
+		StringBuilder header = new StringBuilder("bytes=0-0");
+		for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+			header.append(",").append(i).append("-").append(i);
+		}
+		assertThat(ByteRange.parse(header.toString(), 100), nullValue());
+	}
+
+	private void assertRange(List<ByteRange> ranges, long first, long last) {
+		assertThat(ranges, hasSize(1));
+		assertThat(ranges.get(0).first, is(first));
+		assertThat(ranges.get(0).last, is(last));
+		assertThat(ranges.get(0).length(), is(last - first + 1));
+	}
+}
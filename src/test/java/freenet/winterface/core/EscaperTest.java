@@ -0,0 +1,79 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Random;
+
+import org.apache.velocity.tools.generic.EscapeTool;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Escaper}.
+ */
+public class EscaperTest {
+
+    private final Escaper escaper = new Escaper();
+
+    @Test
+    public void urlEncodesLikeURLEncoder() throws UnsupportedEncodingException {
+        String[] texts = { "", "USK@abc,def,AQACAAE/site/5/", "a b+c%d", "/?a=1&b=(2)!'*~:", "<\"\u00e9\u20ac\ud83d\ude00>",
+                "\ud800 lone \udc00", "#;@$[]{}|\\^`" };
+        for (String text : texts) {
+            assertThat(escaper.url(text), is(encode(text)));
+        }
+    }
+
+    @Test
+    public void urlEncodesRandomTextLikeURLEncoder() throws UnsupportedEncodingException {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(Character.MAX_VALUE + 1));
+            }
+            String text = new String(chars);
+            assertThat(escaper.url(text), is(encode(text)));
+        }
+    }
+
+    @Test
+    public void urlConcatenatesParts() {
+        assertThat(escaper.url("/a b", null, "/\ud83d", "\ude00"), is("/a%20b/%F0%9F%98%80"));
+        assertThat(escaper.url((String) null, null), nullValue());
+    }
+
+    @Test
+    public void textEscapesLikeEscapeTool() {
+        EscapeTool escapeTool = new EscapeTool();
+        String[] texts = { "<b>\"a\" & 'b'</b>", "\u00fcmlaut", "plain text" };
+        for (String text : texts) {
+            assertThat(escaper.text(text), is(escapeTool.html(text)));
+        }
+        String plain = "plain text";
+        assertThat(escaper.text(plain), sameInstance(plain));
+    }
+
+    /**
+     * Former implementation of {@link Escaper#url(String...)}.
+     */
+    private static String encode(String text) throws UnsupportedEncodingException {
+        return URLEncoder.encode(text, "UTF-8")
+            .replaceAll("\\+", "%20")
+            .replaceAll("\\%21", "!")
+            .replaceAll("\\%26", "&")
+            .replaceAll("\\%27", "'")
+            .replaceAll("\\%28", "(")
+            .replaceAll("\\%29", ")")
+            .replaceAll("\\%2C", ",")
+            .replaceAll("\\%2F", "/")
+            .replaceAll("\\%7E", "~")
+            .replaceAll("\\%3A", ":")
+            .replaceAll("\\%3D", "=")
+            .replaceAll("\\%3F", "?");
+    }
+}
@@ -0,0 +1,170 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jetty.server.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import freenet.node.useralerts.UserAlert;
+import freenet.winterface.freenet.AlertSnapshot;
+import freenet.winterface.freenet.ConnectionOverview;
+import freenet.winterface.freenet.FreenetInterface;
+
+/**
+ * Unit test for {@link EventBroadcaster}.
+ */
+public class EventBroadcasterTest {
+
+	/** Polls are made by the test, not by the schedule */
+	private final static long POLL_INTERVAL = TimeUnit.HOURS.toMillis(1);
+	private final static long WRITE_TIMEOUT = 100;
+
+	private final FreenetInterface freenetInterface = mock(FreenetInterface.class);
+	private final EventBroadcaster broadcaster = new EventBroadcaster(freenetInterface, POLL_INTERVAL, WRITE_TIMEOUT);
+
+	@Before
+	public void setUp() {
+		when(freenetInterface.getAlertSnapshot()).thenReturn(new AlertSnapshot(new UserAlert[0]));
+		connections(1);
+		broadcaster.start();
+	}
+
+	@After
+	public void tearDown() {
+		broadcaster.stop();
+	}
+
+	@Test
+	public void coalescesEventsOfSlowClient() throws Exception {
+		ClientStream client = new ClientStream();
+		client.gate = new CountDownLatch(1);
+		broadcaster.addClient(client.context, null, false);
+		broadcaster.poll();
+		assertThat(client.writing.await(10, TimeUnit.SECONDS), is(true));
+		// The client takes its time with the first event meanwhile
+		connections(2);
+		broadcaster.poll();
+		connections(3);
+		broadcaster.poll();
+		client.gate.countDown();
+		client.awaitData("\"current\":3");
+		assertThat(client.data(), containsString("\"current\":1"));
+		assertThat(client.data(), not(containsString("\"current\":2")));
+	}
+
+	@Test
+	public void disconnectsStuckClientOnly() throws Exception {
+		ClientStream stuck = new ClientStream();
+		stuck.gate = new CountDownLatch(1);
+		ClientStream healthy = new ClientStream();
+		broadcaster.addClient(stuck.context, null, false);
+		broadcaster.addClient(healthy.context, null, false);
+		broadcaster.poll();
+		healthy.awaitData("\"current\":1");
+		assertThat(stuck.writing.await(10, TimeUnit.SECONDS), is(true));
+		Thread.sleep(WRITE_TIMEOUT * 2);
+		connections(2);
+		broadcaster.poll();
+		assertThat(stuck.closed.await(10, TimeUnit.SECONDS), is(true));
+		assertThat(broadcaster.getClientCount(), is(1));
+		healthy.awaitData("\"current\":2");
+	}
+
+	private void connections(int current) {
+		when(freenetInterface.getConnections()).thenReturn(new ConnectionOverview(current, 10));
+	}
+
+	/**
+	 * Response stream of a client, which blocks writes until its gate, if
+	 * any, opens
+	 */
+	private static class ClientStream extends Writer {
+		final AsyncContext context = mock(AsyncContext.class);
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		volatile CountDownLatch gate;
+		private final StringBuilder data = new StringBuilder();
+
+		ClientStream() throws IOException {
+			ServletResponse response = mock(ServletResponse.class);
+			when(response.getWriter()).thenReturn(new PrintWriter(this));
+			when(context.getResponse()).thenReturn(response);
+			Request request = mock(Request.class);
+			AbstractHttpConnection connection = mock(AbstractHttpConnection.class);
+			EndPoint endPoint = mock(EndPoint.class);
+			when(context.getRequest()).thenReturn(request);
+			when(request.getConnection()).thenReturn(connection);
+			when(connection.getEndPoint()).thenReturn(endPoint);
+			doAnswer(new Answer<Void>() {
+				@Override
+				public Void answer(InvocationOnMock invocation) {
+					closed.countDown();
+					gate.countDown();
+					return null;
+				}
+			}).when(endPoint).close();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			writing.countDown();
+			CountDownLatch gate = this.gate;
+			if (gate != null) {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				if (closed.getCount() == 0) {
+					throw new IOException("Connection closed");
+				}
+			}
+			synchronized (data) {
+				data.append(cbuf, off, len);
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		String data() {
+			synchronized (data) {
+				return data.toString();
+			}
+		}
+
+		void awaitData(String expected) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!data().contains(expected) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(data(), containsString(expected));
+		}
+	}
+}
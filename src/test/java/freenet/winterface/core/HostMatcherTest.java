@@ -0,0 +1,74 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link HostMatcher}.
+ */
+public class HostMatcherTest {
+
+	@Test
+	public void canMatchSingleAddresses() {
+		HostMatcher matcher = HostMatcher.compile("127.0.0.1,0:0:0:0:0:0:0:1");
+		assertThat(matcher.matches("127.0.0.1"), is(true));
+		assertThat(matcher.matches("127.0.0.2"), is(false));
+		assertThat(matcher.matches("0:0:0:0:0:0:0:1"), is(true));
+		assertThat(matcher.matches("::1"), is(true));
+		assertThat(matcher.matches("[::1]"), is(true));
+		assertThat(matcher.matches("::2"), is(false));
+	}
+
+	@Test
+	public void canMatchSubnets() {
+		HostMatcher matcher = HostMatcher.compile("192.168.0.0/16, 10.1.0.0/255.255.0.0,fe80::/10");
+		assertThat(matcher.matches("192.168.34.5"), is(true));
+		assertThat(matcher.matches("192.169.0.1"), is(false));
+		assertThat(matcher.matches("10.1.200.200"), is(true));
+		assertThat(matcher.matches("10.2.0.1"), is(false));
+		assertThat(matcher.matches("fe80::1234:5678%eth0"), is(true));
+		assertThat(matcher.matches("febf:ffff::"), is(true));
+		assertThat(matcher.matches("fec0::1"), is(false));
+	}
+
+	@Test
+	public void ipv4MappedAddressesMatchIPv4Entries() {
+		HostMatcher matcher = HostMatcher.compile("127.0.0.0/8");
+		assertThat(matcher.matches("::ffff:127.0.0.1"), is(true));
+		assertThat(matcher.matches("0:0:0:0:0:ffff:7f00:1"), is(true));
+		assertThat(matcher.matches("::127.0.0.1"), is(false));
+		assertThat(HostMatcher.compile("::ffff:10.0.0.0/104").matches("10.9.8.7"), is(true));
+	}
+
+	@Test
+	public void matchAllPrefix() {
+		HostMatcher matcher = HostMatcher.compile("0.0.0.0/0");
+		assertThat(matcher.matches("8.8.8.8"), is(true));
+		assertThat(matcher.matches("2001:db8::1"), is(false));
+	}
+
+	@Test
+	public void invalidEntriesAndAddressesNeverMatch() {
+		HostMatcher matcher = HostMatcher.compile("localhost,1.2.3.4/33,10.0.0.0/255.0.255.0,1::2::3,,");
+		assertThat(matcher.matches("127.0.0.1"), is(false));
+		assertThat(matcher.matches("1.2.3.4"), is(false));
+		assertThat(matcher.matches("10.0.0.1"), is(false));
+		assertThat(HostMatcher.compile("1.2.3.4").matches("1.2.3.4.5"), is(false));
+		assertThat(HostMatcher.compile("1.2.3.4").matches(null), is(false));
+	}
+
+	@Test
+	public void canParseIPv6Forms() {
+		long[] result = new long[4];
+		assertThat(HostMatcher.parseIPv6("2001:db8::8:800:200c:417a", 0, 25, result), is(true));
+		assertThat(result[0], is(0x20010db800000000L));
+		assertThat(result[1], is(0x00080800200c417aL));
+		assertThat(HostMatcher.parseIPv6("1:2:3:4:5:6:7::", 0, 15, result), is(true));
+		assertThat(result[1], is(0x0005000600070000L));
+		assertThat(HostMatcher.parseIPv6("1:2:3:4:5:6:7:8:9", 0, 17, result), is(false));
+		assertThat(HostMatcher.parseIPv6("12345::", 0, 7, result), is(false));
+		assertThat(HostMatcher.parseIPv6("1:", 0, 2, result), is(false));
+	}
+}
@@ -0,0 +1,86 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JsonReader}.
+ */
+public class JsonReaderTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void parsesNestedObjectsAndArrays() {
+		Object value = JsonReader.parse(" {\"ops\": [ {\"op\":\"delete\",\"path\":\"/a\"}, [], {} ], \"ok\": true, \"none\": null} ");
+		Map<String, Object> object = (Map<String, Object>) value;
+		assertThat(object.keySet(), contains("ops", "ok", "none"));
+		List<Object> ops = (List<Object>) object.get("ops");
+		assertThat(ops.size(), is(3));
+		assertThat(((Map<String, Object>) ops.get(0)).get("path"), is((Object) "/a"));
+		assertThat(((List<Object>) ops.get(1)).isEmpty(), is(true));
+		assertThat(((Map<String, Object>) ops.get(2)).isEmpty(), is(true));
+		assertThat(object.get("ok"), is((Object) Boolean.TRUE));
+		assertThat(object.get("none"), is(nullValue()));
+	}
+
+	@Test
+	public void parsesEscapes() {
+		assertThat(JsonReader.parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\""), is((Object) "a\"b\\c/d\b\f\n\r\t"));
+		assertThat(JsonReader.parse("\"\\u00e9\\u20AC\\ud83d\\ude00\""), is((Object) "\u00e9\u20ac\ud83d\ude00"));
+	}
+
+	@Test
+	public void parsesNumbers() {
+		assertThat(JsonReader.parse("0"), is((Object) 0L));
+		assertThat(JsonReader.parse("-42"), is((Object) (-42L)));
+		assertThat(JsonReader.parse("1.5"), is((Object) 1.5));
+		assertThat(JsonReader.parse("-2e3"), is((Object) (-2000.0)));
+		assertThat(JsonReader.parse("2.5E-1"), is((Object) 0.25));
+		assertThat(JsonReader.parse("1e+2"), is((Object) 100.0));
+	}
+
+	@Test
+	public void rejectsMalformedInput() {
+		String[] malformed = { "", "{", "[1,]", "{\"a\" 1}", "{a:1}", "[1 2]", "\"open", "tru", "nul", "1 2", "\"\\x\"",
+				"\"\\u12\"", "\"\\u-001\"", "\"\\u+abc\"", "\"\\u 123\"", "\"\\u12g4\"", "\"a\nb\"", "01", "-", "1.", ".5",
+				"1e", "1e+", "+1", "1-2", "--1", "99999999999999999999" };
+		for (String text : malformed) {
+			try {
+				JsonReader.parse(text);
+				fail("Accepted " + text);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void rejectsDeepNesting() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 65; i++) {
+			text.append('[');
+		}
+		for (int i = 0; i < 65; i++) {
+			text.append(']');
+		}
+		try {
+			JsonReader.parse(text.toString());
+			fail("Accepted nesting of 65");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		Object value = JsonReader.parse(text.substring(1, text.length() - 1));
+		for (int i = 1; i < 64; i++) {
+			value = ((List<?>) value).get(0);
+		}
+		assertThat(((List<?>) value).isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,67 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void bucketsCoverAllValuesWithoutGaps() {
+		long next = 0;
+		for (int bucket = 0; bucket <= LatencyHistogram.bucketOf(LatencyHistogram.MAX_VALUE); bucket++) {
+			assertThat(LatencyHistogram.bucketOf(next), is(bucket));
+			long highest = LatencyHistogram.highestValueIn(bucket);
+			assertThat(LatencyHistogram.bucketOf(highest), is(bucket));
+			assertThat(highest - next, lessThanOrEqualTo(Math.max(0, next / 32)));
+			next = highest + 1;
+		}
+		assertThat(next, is(LatencyHistogram.MAX_VALUE + 1));
+	}
+
+	@Test
+	public void percentilesAreWithinThreePercent() {
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i);
+		}
+		assertThat(histogram.getCount(), is(100000L));
+		assertThat(histogram.getSum(), is(100000L * 100001 / 2));
+		assertThat(histogram.getMax(), is(100000L));
+		assertThat(histogram.getPercentile(0.5), allOf(greaterThanOrEqualTo(50000L), lessThanOrEqualTo(51500L)));
+		assertThat(histogram.getPercentile(0.99), allOf(greaterThanOrEqualTo(99000L), lessThanOrEqualTo(100000L)));
+		assertThat(histogram.getPercentile(1), is(100000L));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		histogram.record(3);
+		histogram.record(7);
+		histogram.record(-5);
+		assertThat(histogram.getPercentile(0.1), is(0L));
+		assertThat(histogram.getPercentile(0.5), is(3L));
+		assertThat(histogram.getPercentile(0.999), is(7L));
+	}
+
+	@Test
+	public void largeValuesAreCapped() {
+		histogram.record(Long.MAX_VALUE);
+		assertThat(histogram.getMax(), is(LatencyHistogram.MAX_VALUE));
+		assertThat(histogram.getPercentile(0.5), is(LatencyHistogram.MAX_VALUE));
+	}
+
+	@Test
+	public void emptyHistogramIsZero() {
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getMax(), is(0L));
+		assertThat(histogram.getPercentile(0.99), is(0L));
+	}
+}
@@ -0,0 +1,118 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import freenet.winterface.freenet.FetchMetrics;
+
+/**
+ * Unit test for {@link MetricsFilter}.
+ */
+public class MetricsFilterTest {
+
+	private final MetricsRegistry registry = new MetricsRegistry(new Routes(), new FetchMetrics());
+	private final RouteMetrics route = registry.getRoute("/unknown");
+	private final MetricsFilter filter = new MetricsFilter();
+	private final Request request = mock(Request.class);
+	private final HttpServletResponse response = mock(HttpServletResponse.class);
+	private final AsyncContext async = mock(AsyncContext.class);
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+	private AsyncListener listener;
+
+	@Before
+	public void setUp() throws ServletException {
+		ServletContext context = mock(ServletContext.class);
+		when(context.getAttribute(ServerManager.METRICS)).thenReturn(registry);
+		FilterConfig config = mock(FilterConfig.class);
+		when(config.getServletContext()).thenReturn(context);
+		filter.init(config);
+		when(request.getServletContext()).thenReturn(context);
+		when(request.getServletPath()).thenReturn("/unknown");
+		when(request.startAsync()).thenReturn(async);
+		when(request.getTimeStamp()).thenReturn(System.currentTimeMillis());
+		when(async.getRequest()).thenReturn(request);
+		when(async.getResponse()).thenReturn(response);
+		when(response.getStatus()).thenReturn(200);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(request).setAttribute(anyString(), any());
+		when(request.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				return attributes.get(invocation.getArguments()[0]);
+			}
+		});
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				listener = (AsyncListener) invocation.getArguments()[0];
+				return null;
+			}
+		}).when(async).addListener(any(AsyncListener.class));
+	}
+
+	@Test
+	public void recordsSynchronousRequest() throws Exception {
+		filter.doFilter(request, response, mock(FilterChain.class));
+		assertThat(route.getActive(), is(0L));
+		assertThat(route.getRequests().getCount(), is(1L));
+	}
+
+	@Test
+	public void recordsAsynchronousRequestOnCompletion() throws Exception {
+		filter.doFilter(request, response, new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response) {
+				MetricsFilter.startAsync((Request) request);
+			}
+		});
+		assertThat(route.getActive(), is(1L));
+		listener.onComplete(new AsyncEvent(async));
+		assertThat(route.getActive(), is(0L));
+		assertThat(route.getRequests().getCount(), is(1L));
+	}
+
+	@Test
+	public void recordsRequestCompletedBeforeTheFilterReturnsOnce() throws Exception {
+		filter.doFilter(request, response, new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+				MetricsFilter.startAsync((Request) request);
+				// Completed by another thread while the servlet returns
+				listener.onComplete(new AsyncEvent(async));
+			}
+		});
+		assertThat(route.getActive(), is(0L));
+		assertThat(route.getRequests().getCount(), is(1L));
+	}
+}
@@ -0,0 +1,222 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import freenet.node.RequestStarter;
+import freenet.node.fcp.DownloadRequestStatus;
+import freenet.node.fcp.RequestStatus;
+import freenet.node.fcp.UploadFileRequestStatus;
+
+/**
+ * Unit test for {@link QueueIndex}.
+ */
+public class QueueIndexTest {
+
+	private final QueueIndex index = new QueueIndex();
+
+	@Test
+	public void keepsCountsSizesAndPriorityOfQueuedRequests() {
+		index.put(download("a", false, (short) 4, 100));
+		index.put(download("b", false, (short) 2, 50));
+		index.put(upload("c", false, (short) 3, 10));
+		assertThat(index.getCount(QueueHelper.DL_UC), is(2));
+		assertThat(index.getCount(QueueHelper.DL_ALL | QueueHelper.UP_ALL), is(3));
+		assertThat(index.getTotalQueueDownloadSize(), is(150L));
+		assertThat(index.getTotalQueueUploadSize(), is(10L));
+		assertThat(index.getLowestQueuedPriority(), is((short) 2));
+	}
+
+	@Test
+	public void updatesMoveRequestsBetweenClasses() {
+		index.put(download("a", false, (short) 2, 100));
+		index.put(download("a", true, (short) 2, 100));
+		assertThat(index.getCount(QueueHelper.DL_UC), is(0));
+		assertThat(index.getCount(QueueHelper.DL_C_DISK), is(1));
+		assertThat(index.getTotalQueueDownloadSize(), is(0L));
+		assertThat(index.getLowestQueuedPriority(), is(RequestStarter.MINIMUM_PRIORITY_CLASS));
+	}
+
+	@Test
+	public void removalKeepsPagesConsistent() {
+		RequestStatus a = download("a", false, (short) 2, 1);
+		RequestStatus b = download("b", false, (short) 2, 1);
+		RequestStatus c = download("c", false, (short) 2, 1);
+		index.put(a);
+		index.put(b);
+		index.put(c);
+		assertThat(index.remove("a"), is(true));
+		assertThat(index.remove("a"), is(false));
+		assertThat(index.get(QueueHelper.DL_UC, 0, 10), contains(c, b));
+		assertThat(index.get(QueueHelper.DL_UC, 1, 10), contains(b));
+		assertThat(index.get(QueueHelper.DL_UC, 2, 10).isEmpty(), is(true));
+	}
+
+	@Test
+	public void replaceAllDropsVanishedRequests() {
+		index.put(download("a", false, (short) 2, 1));
+		RequestStatus b = download("b", false, (short) 2, 1);
+		index.replaceAll(new RequestStatus[] { b });
+		assertThat(index.size(), is(1));
+		assertThat(index.get(QueueHelper.DL_UC, 0, 10), contains(b));
+	}
+
+	@Test
+	public void queriesPagesSortedBySize() {
+		RequestStatus a = download("a", false, (short) 2, 30);
+		RequestStatus b = download("b", false, (short) 2, 10);
+		RequestStatus c = download("c", false, (short) 2, 20);
+		index.put(a);
+		index.put(b);
+		index.put(c);
+		QueuePage page = index.query(new QueueQuery(QueueHelper.DL_UC, QueueSortKey.SIZE, true, 0, 2));
+		assertThat(page.requests, contains(b, c));
+		assertThat(page.total, is(3));
+		assertThat(page.hasMore(), is(true));
+		page = index.query(new QueueQuery(QueueHelper.DL_UC, QueueSortKey.SIZE, false, 1, 2));
+		assertThat(page.requests, contains(c, b));
+		assertThat(page.hasMore(), is(false));
+		index.remove("c");
+		page = index.query(new QueueQuery(QueueHelper.DL_UC, QueueSortKey.SIZE, true, 0, 10));
+		assertThat(page.requests, contains(b, a));
+	}
+
+	@Test
+	public void keepsSortedViewsSortedAsRequestsComeAndGo() {
+		index.put(download("a", true, (short) 2, 30));
+		index.put(download("b", true, (short) 2, 10));
+		QueueQuery bySize = new QueueQuery(QueueHelper.DL_C_DISK, QueueSortKey.SIZE, true, 0, 10);
+		assertThat(identifiers(index.query(bySize)), contains("b", "a"));
+		index.put(download("c", true, (short) 2, 20));
+		index.put(download("d", true, (short) 2, 10));
+		index.remove("a");
+		assertThat(identifiers(index.query(bySize)), contains("b", "d", "c"));
+		index.put(download("b", true, (short) 2, 40));
+		assertThat(identifiers(index.query(bySize)), contains("d", "c", "b"));
+	}
+
+	@Test
+	public void sortedViewMatchesFullSort() {
+		Random random = new Random(42);
+		List<DownloadRequestStatus> expected = new ArrayList<DownloadRequestStatus>();
+		QueueQuery bySize = new QueueQuery(QueueHelper.DL_C_DISK, QueueSortKey.SIZE, true, 0, 1000);
+		index.query(bySize);
+		for (int i = 0; i < 300; i++) {
+			DownloadRequestStatus download = download(Integer.toString(i), true, (short) 2, random.nextInt(50));
+			index.put(download);
+			expected.add(download);
+			if (random.nextInt(3) == 0) {
+				index.remove(expected.remove(random.nextInt(expected.size())).getIdentifier());
+			}
+		}
+		Collections.sort(expected, new Comparator<DownloadRequestStatus>() {
+			@Override
+			public int compare(DownloadRequestStatus a, DownloadRequestStatus b) {
+				int result = Long.valueOf(a.getDataSize()).compareTo(b.getDataSize());
+				return result != 0 ? result : a.getIdentifier().compareTo(b.getIdentifier());
+			}
+		});
+		assertThat(index.query(bySize).requests, is((List<RequestStatus>) new ArrayList<RequestStatus>(expected)));
+	}
+
+	@Test
+	public void helperReadsRequestedClassesFromIndex() {
+		DownloadRequestStatus toDisk = download("a", true, (short) 2, 1);
+		DownloadRequestStatus toTemp = download("b", true, (short) 2, 1);
+		when(toTemp.toTempSpace()).thenReturn(true);
+		index.put(toDisk);
+		index.put(toTemp);
+		index.put(download("c", false, (short) 4, 1));
+		index.put(upload("d", false, (short) 1, 1));
+		QueueHelper helper = new QueueHelper(QueueHelper.DL_ALL, index);
+		assertThat(helper.getList(QueueHelper.DL_C_DISK), contains((RequestStatus) toDisk));
+		assertThat(helper.getList(QueueHelper.DL_C_TEMP), contains((RequestStatus) toTemp));
+		assertThat(helper.getList(QueueHelper.UP_UC), is(nullValue()));
+		assertThat(helper.getQueueSize(), is(3));
+		assertThat(helper.getLowestQueuedPriority(), is((short) 4));
+		assertThat(helper.totalQueueUploadSize, is(0L));
+	}
+
+	@Test
+	public void reportsOnlyChangesSinceVersion() {
+		index.put(download("a", false, (short) 2, 1));
+		index.put(download("b", false, (short) 2, 1));
+		QueueChanges changes = index.getChangesSince(null);
+		assertThat(changes.complete, is(true));
+		assertThat(changes.changed.size(), is(2));
+
+		DownloadRequestStatus a = download("a", false, (short) 2, 1);
+		when(a.getFetchedBlocks()).thenReturn(5);
+		index.put(a);
+		index.remove("b");
+		String version = changes.version;
+		changes = index.getChangesSince(version);
+		assertThat(changes.complete, is(false));
+		assertThat(changes.changed.size(), is(1));
+		assertThat(changes.changed.get(0).fetchedBlocks, is(5));
+		assertThat(changes.removed, contains("b"));
+
+		index.put(a);
+		changes = index.getChangesSince(changes.version);
+		assertThat(changes.changed.isEmpty(), is(true));
+		assertThat(changes.removed.isEmpty(), is(true));
+	}
+
+	@Test
+	public void refreshesProgressOfRunningRequests() {
+		DownloadRequestStatus running = download("a", false, (short) 2, 1);
+		DownloadRequestStatus completed = download("b", true, (short) 2, 1);
+		index.put(running);
+		index.put(completed);
+		String version = index.getChangesSince(null).version;
+		assertThat(index.refreshProgress(), is(0));
+
+		when(running.getFetchedBlocks()).thenReturn(7);
+		when(completed.getFetchedBlocks()).thenReturn(7);
+		assertThat(index.refreshProgress(), is(1));
+		QueueChanges changes = index.getChangesSince(version);
+		assertThat(changes.changed.size(), is(1));
+		assertThat(changes.changed.get(0).identifier, is("a"));
+		assertThat(changes.changed.get(0).fetchedBlocks, is(7));
+	}
+
+	private static List<String> identifiers(QueuePage page) {
+		List<String> identifiers = new ArrayList<String>();
+		for (RequestStatus request : page.requests) {
+			identifiers.add(request.getIdentifier());
+		}
+		return identifiers;
+	}
+
+	private static DownloadRequestStatus download(String identifier, boolean succeeded, short priority, long size) {
+		DownloadRequestStatus download = mock(DownloadRequestStatus.class);
+		when(download.getIdentifier()).thenReturn(identifier);
+		when(download.hasSucceeded()).thenReturn(succeeded);
+		when(download.hasFinished()).thenReturn(succeeded);
+		when(download.getPriority()).thenReturn(priority);
+		when(download.getDataSize()).thenReturn(size);
+		return download;
+	}
+
+	private static UploadFileRequestStatus upload(String identifier, boolean succeeded, short priority, long size) {
+		UploadFileRequestStatus upload = mock(UploadFileRequestStatus.class);
+		when(upload.getIdentifier()).thenReturn(identifier);
+		when(upload.hasSucceeded()).thenReturn(succeeded);
+		when(upload.hasFinished()).thenReturn(succeeded);
+		when(upload.getPriority()).thenReturn(priority);
+		when(upload.getDataSize()).thenReturn(size);
+		return upload;
+	}
+}
@@ -0,0 +1,87 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link StringTemplateCache}.
+ */
+public class StringTemplateCacheTest {
+
+	@Test
+	public void parsesEachSourceOnce() throws ParseException {
+		CountingCache cache = new CountingCache(4);
+		Template first = cache.get("Hello $name");
+		assertThat(cache.get("Hello $name"), is(sameInstance(first)));
+		assertThat(cache.get("Bye $name"), is(not(sameInstance(first))));
+		assertThat(cache.parsed.size(), is(2));
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.getMisses(), is(2L));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedTemplate() throws ParseException {
+		CountingCache cache = new CountingCache(2);
+		cache.get("a");
+		cache.get("b");
+		cache.get("a");
+		cache.get("c");
+		assertThat(cache.getEntryCount(), is(2L));
+		cache.get("a");
+		cache.get("b");
+		assertThat(cache.parsed.toString(), is("[a, b, c, b]"));
+	}
+
+	@Test
+	public void compilesTemplates() throws ParseException {
+		VelocityContext context = new VelocityContext();
+		context.put("name", "Winterface");
+		StringWriter out = new StringWriter();
+		new StringTemplateCache(4).get("Hello $name").merge(context, out);
+		assertThat(out.toString(), is("Hello Winterface"));
+	}
+
+	@Test
+	public void doesNotKeepInvalidSources() {
+		StringTemplateCache cache = new StringTemplateCache(4);
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get("#if(");
+				fail("Invalid source parsed");
+			} catch (ParseException e) {
+				// Expected
+			}
+		}
+		assertThat(cache.getEntryCount(), is(0L));
+		assertThat(cache.getMisses(), is(2L));
+	}
+
+	/**
+	 * Records the sources parsed instead of compiling them
+	 */
+	private static class CountingCache extends StringTemplateCache {
+		final List<String> parsed = new ArrayList<String>();
+
+		CountingCache(int maxEntries) {
+			super(maxEntries);
+		}
+
+		@Override
+		Template parse(String source) {
+			parsed.add(source);
+			return new Template();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package freenet.winterface.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jetty.server.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link WriteWatchdog}.
+ */
+public class WriteWatchdogTest {
+
+	private final WriteWatchdog watchdog = new WriteWatchdog(100);
+	private final Request request = mock(Request.class);
+	private final EndPoint endPoint = mock(EndPoint.class);
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws IOException {
+		AbstractHttpConnection connection = mock(AbstractHttpConnection.class);
+		when(request.getConnection()).thenReturn(connection);
+		when(connection.getEndPoint()).thenReturn(endPoint);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				closed.countDown();
+				return null;
+			}
+		}).when(endPoint).close();
+	}
+
+	@After
+	public void tearDown() {
+		watchdog.stop();
+	}
+
+	@Test
+	public void passesWritesOn() throws IOException {
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		OutputStream out = watchdog.watch(target, request);
+		out.write('a');
+		out.write(new byte[] { 'b', 'c', 'd' }, 1, 2);
+		out.flush();
+		assertThat(target.toString("US-ASCII"), is("acd"));
+		verify(endPoint, never()).close();
+	}
+
+	@Test
+	public void closesConnectionOfBlockedWrite() throws IOException {
+		OutputStream out = watchdog.watch(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				// Blocks like a socket nobody reads from, until it is closed
+				try {
+					if (!closed.await(10, TimeUnit.SECONDS)) {
+						fail("Write not cut");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("Connection closed");
+			}
+		}, request);
+		try {
+			out.write('a');
+			fail("Blocked write succeeded");
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("did not take data"));
+		}
+		try {
+			out.write('b');
+			fail("Write after timeout succeeded");
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("did not take data"));
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.List;
+
+import freenet.client.async.USKManager;
+import freenet.clients.http.bookmark.Bookmark;
+import freenet.clients.http.bookmark.BookmarkCategory;
+import freenet.clients.http.bookmark.BookmarkItem;
+import freenet.clients.http.bookmark.BookmarkManager;
+import freenet.keys.FreenetURI;
+import freenet.keys.USK;
+import freenet.node.Node;
+import freenet.node.NodeClientCore;
+import freenet.winterface.freenet.BookmarkFreenetInterface.BookmarkCategoryWithPath;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BookmarkFreenetInterface}.
+ */
+public class BookmarkFreenetInterfaceTest {
+
+	/** Bookmarked site, without edition */
+	private final static String SITE = "USK@oOm5J2oNchwW1f2ZRJlgjn2knpTqmGgF7z5Rj9yQqS4,6yeBCTe9LpBF2C~fgNnoe4P8KHmtQdb~fI9LbKcZohI,AQACAAE/site/";
+
+	private final BookmarkManager bookmarkManager = mock(BookmarkManager.class);
+	private final USKManager uskManager = mock(USKManager.class);
+	private final BookmarkFreenetInterface bookmarkInterface = createBookmarkInterface();
+
+	private BookmarkFreenetInterface createBookmarkInterface() {
+		Node node = mock(Node.class);
+		node.clientCore = mock(NodeClientCore.class);
+		return new BookmarkFreenetInterface(node, bookmarkManager, uskManager, null);
+	}
+
+	/**
+	 * @return item at {@code path}, named after its last part
+	 */
+	private BookmarkItem item(String path) {
+		BookmarkItem item = mock(BookmarkItem.class);
+		when(item.getName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+		when(bookmarkManager.getItemByPath(path)).thenReturn(item);
+		return item;
+	}
+
+	/**
+	 * @return item bookmarking the given edition of {@link #SITE}
+	 */
+	private static BookmarkItem site(long edition) throws MalformedURLException {
+		FreenetURI uri = new FreenetURI(SITE + edition);
+		BookmarkItem item = mock(BookmarkItem.class);
+		when(item.getURI()).thenReturn(uri);
+		when(item.getKey()).thenReturn(uri.toString());
+		return item;
+	}
+
+	/**
+	 * @return category as shown on the bookmarks page, holding only the
+	 *         given item
+	 */
+	private BookmarkCategoryWithPath categoryWith(BookmarkItem item) {
+		BookmarkCategory category = mock(BookmarkCategory.class);
+		when(category.getName()).thenReturn("cat");
+		when(category.getItems()).thenReturn(Arrays.asList(item));
+		return bookmarkInterface.new BookmarkCategoryWithPath(category, "/");
+	}
+
+	/**
+	 * @return category at {@code path} holding the given bookmarks
+	 */
+	private BookmarkCategory category(String path, Bookmark... bookmarks) {
+		BookmarkCategory category = mock(BookmarkCategory.class);
+		when(category.size()).thenReturn(bookmarks.length);
+		for (int i = 0; i < bookmarks.length; i++) {
+			when(category.get(i)).thenReturn(bookmarks[i]);
+		}
+		when(bookmarkManager.getCategoryByPath(path)).thenReturn(category);
+		return category;
+	}
+
+	@Test
+	public void appliesBulkDeleteAndStoresOnce() {
+		BookmarkItem first = mock(BookmarkItem.class);
+		BookmarkItem second = mock(BookmarkItem.class);
+		when(bookmarkManager.getItemByPath("/first")).thenReturn(first);
+		when(bookmarkManager.getItemByPath("/second")).thenReturn(second);
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.delete("/first"),
+				BookmarkOperation.delete("/missing"), BookmarkOperation.delete("/second"), BookmarkOperation.delete("/")));
+
+		assertThat(results.size(), is(4));
+		assertThat(results.get(0), nullValue());
+		assertThat(results.get(1), is("No such bookmark"));
+		assertThat(results.get(2), nullValue());
+		assertThat(results.get(3), is("No such bookmark"));
+		verify(bookmarkManager).removeBookmark("/first");
+		verify(bookmarkManager).removeBookmark("/second");
+		verify(bookmarkManager, never()).removeBookmark("/missing");
+		verify(bookmarkManager, never()).storeBookmarks();
+		bookmarkInterface.terminate();
+		verify(bookmarkManager, times(1)).storeBookmarks();
+	}
+
+	@Test
+	public void movesWithinCategoryToClampedPosition() {
+		BookmarkItem a = item("/cat/a");
+		BookmarkItem b = item("/cat/b");
+		BookmarkItem c = item("/cat/c");
+		category("/cat/", a, b, c);
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.move("/cat/a", null, 10),
+				BookmarkOperation.move("/cat/c", "/cat/", 0), BookmarkOperation.move("/cat/b", null, 1)));
+
+		assertThat(results, is(Arrays.asList((String) null, null, null)));
+		verify(bookmarkManager, times(2)).moveBookmarkDown("/cat/a", false);
+		verify(bookmarkManager, times(2)).moveBookmarkUp("/cat/c", false);
+		verify(bookmarkManager, never()).moveBookmarkUp("/cat/b", false);
+		verify(bookmarkManager, never()).moveBookmarkDown("/cat/b", false);
+		verify(bookmarkManager, never()).removeBookmark(anyString());
+	}
+
+	@Test
+	public void movesItemToOtherCategory() {
+		BookmarkItem a = item("/cat/a");
+		category("/cat/", a);
+		// As the bookmark manager appends it
+		category("/other/", item("/other/x"), a);
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.move("/cat/a", "/other/", 0)));
+
+		assertThat(results, is(Arrays.asList((String) null)));
+		verify(bookmarkManager).removeBookmark("/cat/a");
+		verify(bookmarkManager).addBookmark("/other/", a);
+		verify(bookmarkManager).moveBookmarkUp("/other/a", false);
+	}
+
+	@Test
+	public void rejectsMovesBetweenCategoriesThatCannotBeMade() {
+		BookmarkItem a = item("/cat/a");
+		BookmarkCategory sub = category("/cat/sub/");
+		when(sub.getName()).thenReturn("sub");
+		category("/cat/", a, sub);
+		category("/other/", item("/other/a"));
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.move("/cat/sub/", "/other/", 0),
+				BookmarkOperation.move("/cat/a", "/missing/", 0), BookmarkOperation.move("/cat/a", "/other/", 0),
+				BookmarkOperation.move("/cat/missing", null, 0)));
+
+		assertThat(results, contains("Only items can change their category", "No such category", "Name already in use", "No such bookmark"));
+		verify(bookmarkManager, never()).removeBookmark(anyString());
+		verify(bookmarkManager, never()).addBookmark(anyString(), any(Bookmark.class));
+	}
+
+	@Test
+	public void editRenamesAndUpdatesItem() {
+		BookmarkItem a = item("/cat/a");
+		FreenetURI key = mock(FreenetURI.class);
+		when(a.getURI()).thenReturn(key);
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.edit("/cat/a", "b", null, "description", "explanation", true)));
+
+		assertThat(results, is(Arrays.asList((String) null)));
+		verify(bookmarkManager).renameBookmark("/cat/a", "b");
+		verify(a).update(key, true, "description", "explanation");
+	}
+
+	@Test
+	public void editRejectsRenameToNameInUse() {
+		BookmarkItem a = item("/cat/a");
+		item("/cat/b");
+
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.edit("/cat/a", "b", null, null, null, false),
+				BookmarkOperation.edit("/cat/a", "b/c", null, null, null, false)));
+
+		assertThat(results, contains("Name already in use", "Invalid name"));
+		verify(bookmarkManager, never()).renameBookmark(anyString(), anyString());
+		verify(a, never()).update(any(FreenetURI.class), anyBoolean(), anyString(), anyString());
+	}
+
+	@Test
+	public void linksNewerKnownEditionOfBookmarkedUSK() throws MalformedURLException {
+		BookmarkItem item = site(5);
+		when(uskManager.lookupKnownGood(any(USK.class))).thenReturn(7L);
+		assertThat(categoryWith(item).getLatestKey(item), is(SITE + "7"));
+	}
+
+	@Test
+	public void keepsBookmarkedEditionIfKnownOneIsOlder() throws MalformedURLException {
+		BookmarkItem item = site(5);
+		when(uskManager.lookupKnownGood(any(USK.class))).thenReturn(3L);
+		assertThat(categoryWith(item).getLatestKey(item), is(SITE + "5"));
+	}
+
+	@Test
+	public void keepsBookmarkedEditionIfNoneIsKnown() throws MalformedURLException {
+		BookmarkItem item = site(5);
+		when(uskManager.lookupKnownGood(any(USK.class))).thenReturn(-1L);
+		assertThat(categoryWith(item).getLatestKey(item), is(SITE + "5"));
+	}
+
+	@Test
+	public void storesNothingIfNoOperationApplies() {
+		List<String> results = bookmarkInterface.applyOperations(Arrays.asList(BookmarkOperation.addCategory("/missing/", "name")));
+		assertThat(results, contains("No such category"));
+		bookmarkInterface.terminate();
+		verify(bookmarkManager, never()).storeBookmarks();
+	}
+}
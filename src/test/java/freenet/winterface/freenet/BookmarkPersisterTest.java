@@ -0,0 +1,35 @@
+package freenet.winterface.freenet;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import freenet.clients.http.bookmark.BookmarkManager;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BookmarkPersister}.
+ */
+public class BookmarkPersisterTest {
+
+	private final BookmarkManager bookmarkManager = mock(BookmarkManager.class);
+	private final BookmarkPersister persister = new BookmarkPersister(bookmarkManager);
+
+	@Test
+	public void storesBurstOfChangesOnce() {
+		persister.requestStore();
+		persister.requestStore();
+		persister.requestStore();
+		verify(bookmarkManager, never()).storeBookmarks();
+		persister.terminate();
+		verify(bookmarkManager, times(1)).storeBookmarks();
+	}
+
+	@Test
+	public void storesNothingWithoutChanges() {
+		persister.terminate();
+		verify(bookmarkManager, never()).storeBookmarks();
+	}
+}
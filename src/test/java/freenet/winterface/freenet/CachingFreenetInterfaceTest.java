@@ -0,0 +1,81 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import freenet.node.useralerts.UserAlert;
+import freenet.winterface.core.Configuration;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test for {@link CachingFreenetInterface}.
+ */
+public class CachingFreenetInterfaceTest {
+
+	private final FreenetInterface node = mock(FreenetInterface.class);
+	private final Configuration config = mock(Configuration.class);
+
+	@Test
+	public void reusesStatusWithinInterval() {
+		when(config.getStatusInterval()).thenReturn(60000);
+		ConnectionOverview connections = new ConnectionOverview(1, 2);
+		when(node.getConnections()).thenReturn(connections);
+		when(node.getAlertSnapshot()).thenReturn(new AlertSnapshot(new UserAlert[0]));
+		FreenetInterface cached = new CachingFreenetInterface(node, config);
+		assertThat(cached.getConnections(), sameInstance(connections));
+		assertThat(cached.getConnections(), sameInstance(connections));
+		assertThat(cached.getValidAlertCount(), is(0));
+		verify(node, times(1)).getConnections();
+	}
+
+	@Test
+	public void takesNewStatusAfterInterval() {
+		when(config.getStatusInterval()).thenReturn(0);
+		when(node.getAlertSnapshot()).thenReturn(new AlertSnapshot(new UserAlert[0]));
+		FreenetInterface cached = new CachingFreenetInterface(node, config);
+		cached.getConnections();
+		cached.getConnections();
+		verify(node, times(2)).getConnections();
+	}
+
+	@Test
+	public void dismissingAlertTakesNewStatus() {
+		when(config.getStatusInterval()).thenReturn(60000);
+		UserAlert alert = mock(UserAlert.class);
+		when(alert.isValid()).thenReturn(true);
+		AlertSnapshot before = new AlertSnapshot(new UserAlert[] { alert });
+		when(node.getAlertSnapshot()).thenReturn(before, new AlertSnapshot(new UserAlert[0]));
+		FreenetInterface cached = new CachingFreenetInterface(node, config);
+		assertThat(cached.getValidAlertCount(), is(1));
+		cached.dismissAlert(42);
+		verify(node).dismissAlert(42);
+		assertThat(cached.getValidAlertCount(), is(0));
+	}
+
+	@Test
+	public void dropsStatusTakenAcrossInvalidation() {
+		when(config.getStatusInterval()).thenReturn(0);
+		final AlertSnapshot stale = new AlertSnapshot(new UserAlert[0]);
+		final AlertSnapshot fresh = new AlertSnapshot(new UserAlert[0]);
+		final CachingFreenetInterface cached = new CachingFreenetInterface(node, config);
+		when(node.getAlertSnapshot()).thenReturn(stale).thenAnswer(new Answer<AlertSnapshot>() {
+			@Override
+			public AlertSnapshot answer(InvocationOnMock invocation) {
+				// An alert is dismissed while the status is being refreshed
+				cached.invalidate();
+				return stale;
+			}
+		}).thenReturn(fresh);
+		assertThat(cached.getAlertSnapshot(), sameInstance(stale));
+		assertThat(cached.getAlertSnapshot(), sameInstance(fresh));
+		assertThat(cached.getStatusSnapshot().getAlerts(), sameInstance(fresh));
+	}
+}
@@ -0,0 +1,169 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * Unit test for {@link CachingFreenetURIFetcher}.
+ */
+public class CachingFreenetURIFetcherTest {
+
+	private static final byte[] DATA = "<html>cached</html>".getBytes();
+
+	private final FreenetURIFetcher fetcher = mock(FreenetURIFetcher.class);
+	private final FetchResultCache cache = new FetchResultCache(4, 1000, 10000, 64);
+	private final CachingFreenetURIFetcher cachingFetcher = new CachingFreenetURIFetcher(fetcher, cache);
+	private final FreenetURI chk = mock(FreenetURI.class);
+	private final FreenetURI usk = mock(FreenetURI.class);
+
+	public CachingFreenetURIFetcherTest() {
+		when(chk.isCHK()).thenReturn(true);
+		when(usk.isUSK()).thenReturn(true);
+	}
+
+	@Test
+	public void fetchesImmutableKeysOnce() throws Exception {
+		answerFetches(DATA);
+		assertThat(read(cachingFetcher.filteredFetchURI(chk)), is(DATA));
+		assertThat(read(cachingFetcher.filteredFetchURI(chk)), is(DATA));
+		verify(fetcher, times(1)).filteredFetchURI(eq(chk), any(FetchCallback.class));
+		assertThat(cache.getHits(), is(1L));
+	}
+
+	@Test
+	public void fetchesMutableKeysEachTime() throws Exception {
+		answerFetches(DATA);
+		read(cachingFetcher.filteredFetchURI(usk));
+		read(cachingFetcher.filteredFetchURI(usk));
+		verify(fetcher, times(2)).filteredFetchURI(eq(usk), any(FetchCallback.class));
+		assertThat(cache.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void cachesSmallStreams() throws Exception {
+		answerStreams(DATA);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		cachingFetcher.streamFilteredURI(chk, sinkTo(first));
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		cachingFetcher.streamFilteredURI(chk, sinkTo(second));
+		assertThat(first.toByteArray(), is(DATA));
+		assertThat(second.toByteArray(), is(DATA));
+		verify(fetcher, times(1)).streamFilteredURI(eq(chk), any(FetchSink.class), any(FetchCallback.class));
+	}
+
+	@Test
+	public void dropsCaptureOfStreamsOutgrowingTheHeapEntries() throws Exception {
+		byte[] large = new byte[100];
+		answerStreams(large);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		cachingFetcher.streamFilteredURI(chk, sinkTo(first));
+		assertThat(first.toByteArray(), is(large));
+		assertThat(cache.getEntryCount(), is(0));
+		cachingFetcher.streamFilteredURI(chk, sinkTo(new ByteArrayOutputStream()));
+		verify(fetcher, times(2)).streamFilteredURI(eq(chk), any(FetchSink.class), any(FetchCallback.class));
+	}
+
+	@Test
+	public void doesNotCacheFailedStreams() throws Exception {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws IOException {
+				OutputStream out = ((FetchSink) invocation.getArguments()[1]).open("text/html");
+				out.write(DATA, 0, 4);
+				((FetchCallback) invocation.getArguments()[2]).onFailure(new FetchException(FetchException.DATA_NOT_FOUND));
+				return null;
+			}
+		}).when(fetcher).streamFilteredURI(eq(chk), any(FetchSink.class), any(FetchCallback.class));
+		FetchCallback callback = mock(FetchCallback.class);
+		cachingFetcher.streamFilteredURI(chk, sinkTo(new ByteArrayOutputStream()), callback);
+		verify(callback).onFailure(any(FetchException.class));
+		assertThat(cache.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void reportsDataThatCouldNotBeCached() {
+		final TrackedBucket broken = new TrackedBucket(8) {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				throw new IOException("Broken");
+			}
+		};
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				((FetchCallback) invocation.getArguments()[1]).onSuccess(new FetchResult(new ClientMetadata("text/html"), broken));
+				return null;
+			}
+		}).when(fetcher).filteredFetchURI(eq(chk), any(FetchCallback.class));
+		FetchCallback callback = mock(FetchCallback.class);
+		cachingFetcher.filteredFetchURI(chk, callback);
+		verify(callback).onFailure(any(FetchException.class));
+		assertThat(broken.isFreed(), is(true));
+	}
+
+	private void answerFetches(final byte[] data) {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				((FetchCallback) invocation.getArguments()[1]).onSuccess(new FetchResult(new ClientMetadata("text/html"), new TrackedBucket(data)));
+				return null;
+			}
+		}).when(fetcher).filteredFetchURI(any(FreenetURI.class), any(FetchCallback.class));
+	}
+
+	private void answerStreams(final byte[] data) {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws IOException {
+				OutputStream out = ((FetchSink) invocation.getArguments()[1]).open("text/html");
+				// In two parts, as the node writes
+				out.write(data, 0, data.length / 2);
+				out.write(data, data.length / 2, data.length - data.length / 2);
+				out.flush();
+				((FetchCallback) invocation.getArguments()[2]).onSuccess(new FetchResult(new ClientMetadata("text/html"), new TrackedBucket(0)));
+				return null;
+			}
+		}).when(fetcher).streamFilteredURI(any(FreenetURI.class), any(FetchSink.class), any(FetchCallback.class));
+	}
+
+	private static FetchSink sinkTo(final OutputStream out) {
+		return new FetchSink() {
+			@Override
+			public OutputStream open(String mimeType) {
+				return out;
+			}
+		};
+	}
+
+	private static byte[] read(FetchResult result) throws IOException {
+		InputStream in = result.asBucket().getInputStream();
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+			result.asBucket().free();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import freenet.client.FetchResult;
+import freenet.keys.FreenetURI;
+
+/**
+ * Unit test for {@link FetchResultCache}.
+ */
+public class FetchResultCacheTest {
+
+	private final FreenetURI a = mock(FreenetURI.class);
+	private final FreenetURI b = mock(FreenetURI.class);
+	private final FreenetURI c = mock(FreenetURI.class);
+
+	@Test
+	public void keepsFilteredAndUnfilteredDataApart() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		cache.put(a, true, "text/html", new TrackedBucket(bytes(5, 1))).asBucket().free();
+		assertThat(cache.get(a, false), is(nullValue()));
+		FetchResult result = cache.get(a, true);
+		assertThat(result.getMimeType(), is("text/html"));
+		assertThat(read(result), is(bytes(5, 1)));
+	}
+
+	@Test
+	public void handsOutIndependentHandles() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		TrackedBucket data = new TrackedBucket(bytes(50, 2));
+		FetchResult stored = cache.put(a, true, "video/ogg", data);
+		FetchResult first = cache.get(a, true);
+		FetchResult second = cache.get(a, true);
+		assertThat(first.asBucket(), not(sameInstance(second.asBucket())));
+		stored.asBucket().free();
+		first.asBucket().free();
+		assertThat(read(second), is(bytes(50, 2)));
+		assertThat(data.isFreed(), is(false));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntry() throws IOException {
+		FetchResultCache cache = new FetchResultCache(2, 100, 1000, 10);
+		cache.put(a, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		cache.put(b, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		cache.get(a, true).asBucket().free();
+		cache.put(c, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		assertThat(cache.getEntryCount(), is(2));
+		assertThat(cache.get(b, true), is(nullValue()));
+		assertThat(cache.get(a, true), is(notNullValue()));
+		assertThat(cache.get(c, true), is(notNullValue()));
+	}
+
+	@Test
+	public void accountsHeapAndDiskSeparately() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		TrackedBucket small = new TrackedBucket(8);
+		TrackedBucket large = new TrackedBucket(200);
+		cache.put(a, true, "text/plain", small).asBucket().free();
+		cache.put(b, true, "text/plain", large).asBucket().free();
+		assertThat(cache.getHeapBytes(), is(8L));
+		assertThat(cache.getDiskBytes(), is(200L));
+		// Small data is copied to the heap, large data stays where it is
+		assertThat(small.isFreed(), is(true));
+		assertThat(large.isFreed(), is(false));
+	}
+
+	@Test
+	public void evictsOnlyFromTheFullTier() throws IOException {
+		FetchResultCache cache = new FetchResultCache(10, 10, 1000, 5);
+		TrackedBucket onDisk = new TrackedBucket(100);
+		cache.put(a, true, "text/plain", onDisk).asBucket().free();
+		cache.put(b, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		cache.put(c, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		FreenetURI d = mock(FreenetURI.class);
+		cache.put(d, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		assertThat(cache.get(b, true), is(nullValue()));
+		assertThat(cache.getHeapBytes(), is(8L));
+		assertThat(cache.getDiskBytes(), is(100L));
+		assertThat(onDisk.isFreed(), is(false));
+	}
+
+	@Test
+	public void doesNotCacheDataLargerThanTheLimits() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		TrackedBucket data = new TrackedBucket(bytes(2000, 3));
+		FetchResult result = cache.put(a, true, "video/ogg", data);
+		assertThat(cache.getEntryCount(), is(0));
+		assertThat(cache.getDiskBytes(), is(0L));
+		assertThat(result.asBucket(), is(sameInstance((Object) data)));
+		assertThat(read(result), is(bytes(2000, 3)));
+	}
+
+	@Test
+	public void freesEvictedDataOnceAllHandlesAreFreed() throws IOException {
+		FetchResultCache cache = new FetchResultCache(1, 100, 1000, 10);
+		TrackedBucket data = new TrackedBucket(100);
+		FetchResult stored = cache.put(a, true, "text/plain", data);
+		FetchResult reader = cache.get(a, true);
+		cache.put(b, true, "text/plain", new TrackedBucket(100)).asBucket().free();
+		assertThat(cache.get(a, true), is(nullValue()));
+		stored.asBucket().free();
+		assertThat(data.isFreed(), is(false));
+		reader.asBucket().free();
+		assertThat(data.isFreed(), is(true));
+	}
+
+	@Test
+	public void clearFreesAllData() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		TrackedBucket first = new TrackedBucket(100);
+		TrackedBucket second = new TrackedBucket(200);
+		cache.put(a, true, "text/plain", first).asBucket().free();
+		cache.put(b, true, "text/plain", second).asBucket().free();
+		cache.clear();
+		assertThat(cache.getEntryCount(), is(0));
+		assertThat(cache.getDiskBytes(), is(0L));
+		assertThat(first.isFreed(), is(true));
+		assertThat(second.isFreed(), is(true));
+	}
+
+	@Test
+	public void freesDataThatCouldNotBeCopied() {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		TrackedBucket broken = new TrackedBucket(8) {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				throw new IOException("Broken");
+			}
+		};
+		try {
+			cache.put(a, true, "text/plain", broken);
+			fail("Broken data cached");
+		} catch (IOException e) {
+			// Expected
+		}
+		assertThat(broken.isFreed(), is(true));
+		assertThat(cache.getEntryCount(), is(0));
+	}
+
+	@Test
+	public void countsHitsAndMisses() throws IOException {
+		FetchResultCache cache = new FetchResultCache(4, 100, 1000, 10);
+		assertThat(cache.get(a, true), is(nullValue()));
+		cache.put(a, true, "text/plain", new TrackedBucket(4)).asBucket().free();
+		cache.get(a, true).asBucket().free();
+		cache.get(a, true).asBucket().free();
+		assertThat(cache.getHits(), is(2L));
+		assertThat(cache.getMisses(), is(1L));
+	}
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + seed);
+		}
+		return data;
+	}
+
+	private static byte[] read(FetchResult result) throws IOException {
+		InputStream in = result.asBucket().getInputStream();
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+}
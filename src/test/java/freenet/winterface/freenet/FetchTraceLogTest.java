@@ -0,0 +1,75 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import freenet.winterface.freenet.FetchTrace.Phase;
+
+/**
+ * Unit test for {@link FetchTraceLog} and {@link FetchTrace}.
+ */
+public class FetchTraceLogTest {
+
+	private final FetchTraceLog log = new FetchTraceLog(3);
+
+	@Test
+	public void keepsNewestTracesFirst() {
+		FetchTrace a = new FetchTrace("a");
+		FetchTrace b = new FetchTrace("b");
+		log.add(a);
+		log.add(b);
+		assertThat(log.getRecent(), contains(b, a));
+	}
+
+	@Test
+	public void dropsOldestTracesWhenFull() {
+		FetchTrace[] traces = new FetchTrace[5];
+		for (int i = 0; i < traces.length; i++) {
+			traces[i] = new FetchTrace(Integer.toString(i));
+			log.add(traces[i]);
+		}
+		assertThat(log.getRecent(), contains(traces[4], traces[3], traces[2]));
+	}
+
+	@Test
+	public void emptyLogHasNoTraces() {
+		assertThat(log.getRecent(), is(empty()));
+	}
+
+	@Test
+	public void phasesCountWhenFirstReached() throws InterruptedException {
+		FetchTrace trace = new FetchTrace("USK@key/site/1/");
+		assertThat(trace.getMicros(Phase.REQUEST_START), is(0L));
+		assertThat(trace.isReached(Phase.FETCH_SUBMIT), is(false));
+		assertThat(trace.getMicros(Phase.FETCH_SUBMIT), is(-1L));
+		trace.mark(Phase.FETCH_SUBMIT);
+		long submitted = trace.getMicros(Phase.FETCH_SUBMIT);
+		Thread.sleep(2);
+		trace.mark(Phase.FETCH_SUBMIT);
+		trace.mark(Phase.FIRST_BYTE_WRITTEN);
+		assertThat(trace.getMicros(Phase.FETCH_SUBMIT), is(submitted));
+		assertThat(trace.getMicros(Phase.FIRST_BYTE_WRITTEN), greaterThanOrEqualTo(submitted + 2000));
+		assertThat(trace.getOutcome(), is(nullValue()));
+		trace.finish("200");
+		assertThat(trace.getOutcome(), is("200"));
+	}
+
+	@Test
+	public void tracesAreFoundOnTracedCallbacksOnly() {
+		FetchTrace trace = new FetchTrace("CHK@key");
+		TracedFetchCallback traced = mock(TracedFetchCallback.class);
+		when(traced.getTrace()).thenReturn(trace);
+		assertThat(FetchTrace.of(traced), is(sameInstance(trace)));
+		assertThat(FetchTrace.of(mock(FetchCallback.class)), is(nullValue()));
+		assertThat(FetchTrace.of(null), is(nullValue()));
+	}
+}
@@ -0,0 +1,154 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyShort;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import freenet.client.ClientMetadata;
+import freenet.client.FetchContext;
+import freenet.client.FetchException;
+import freenet.client.FetchResult;
+import freenet.client.HighLevelSimpleClient;
+import freenet.client.async.ClientContext;
+import freenet.client.async.ClientGetCallback;
+import freenet.keys.FreenetURI;
+import freenet.node.RequestClient;
+
+/**
+ * Unit test for {@link InteractiveHLSCFreenetURIFetcher}.
+ */
+public class InteractiveHLSCFreenetURIFetcherTest {
+
+	private static final byte[] DATA = "<html>shared</html>".getBytes();
+
+	private final HighLevelSimpleClient client = mock(HighLevelSimpleClient.class);
+	private final FetchMetrics metrics = new FetchMetrics();
+	private final InteractiveHLSCFreenetURIFetcher fetcher;
+	private final FreenetURI uri = mock(FreenetURI.class);
+
+	public InteractiveHLSCFreenetURIFetcherTest() {
+		when(client.getFetchContext()).thenReturn(mock(FetchContext.class));
+		fetcher = new InteractiveHLSCFreenetURIFetcher(client, mock(ClientContext.class), metrics);
+	}
+
+	@Test
+	public void concurrentCallersShareOneFetch() throws Exception {
+		ResultCollector first = new ResultCollector();
+		ResultCollector second = new ResultCollector();
+		fetcher.filteredFetchURI(uri, first);
+		fetcher.filteredFetchURI(uri, second);
+		TrackedBucket data = new TrackedBucket(DATA);
+		startedFetch(1).onSuccess(new FetchResult(new ClientMetadata("text/html"), data), null, null);
+		assertThat(first.results.size(), is(1));
+		assertThat(second.results.size(), is(1));
+		FetchResult firstResult = first.results.get(0);
+		FetchResult secondResult = second.results.get(0);
+		assertThat(firstResult.asBucket(), not(sameInstance(secondResult.asBucket())));
+		assertThat(read(firstResult), is(DATA));
+		firstResult.asBucket().free();
+		assertThat(data.isFreed(), is(false));
+		assertThat(read(secondResult), is(DATA));
+		secondResult.asBucket().free();
+		assertThat(data.isFreed(), is(true));
+		assertThat(metrics.getOriginated(), is(1L));
+		assertThat(metrics.getCoalesced(), is(1L));
+	}
+
+	@Test
+	public void failureReachesAllCallers() throws Exception {
+		ResultCollector first = new ResultCollector();
+		ResultCollector second = new ResultCollector();
+		fetcher.filteredFetchURI(uri, first);
+		fetcher.filteredFetchURI(uri, second);
+		FetchException failure = new FetchException(FetchException.DATA_NOT_FOUND);
+		startedFetch(1).onFailure(failure, null, null);
+		assertThat(first.failures.get(0), is(sameInstance(failure)));
+		assertThat(second.failures.get(0), is(sameInstance(failure)));
+	}
+
+	@Test
+	public void streamJoinsRunningFetch() throws Exception {
+		ResultCollector whole = new ResultCollector();
+		ResultCollector streamed = new ResultCollector();
+		final ByteArrayOutputStream sinkData = new ByteArrayOutputStream();
+		final List<String> mimeTypes = new ArrayList<String>();
+		fetcher.filteredFetchURI(uri, whole);
+		fetcher.streamFilteredURI(uri, new FetchSink() {
+			@Override
+			public OutputStream open(String mimeType) {
+				mimeTypes.add(mimeType);
+				return sinkData;
+			}
+		}, streamed);
+		startedFetch(1).onSuccess(new FetchResult(new ClientMetadata("text/html"), new TrackedBucket(DATA)), null, null);
+		assertThat(mimeTypes.size(), is(1));
+		assertThat(mimeTypes.get(0), is("text/html"));
+		assertThat(sinkData.toByteArray(), is(DATA));
+		assertThat(streamed.results.size(), is(1));
+		assertThat(whole.results.size(), is(1));
+		assertThat(metrics.getCoalesced(), is(1L));
+	}
+
+	@Test
+	public void startsNewFetchOnceTheRunningOneCompleted() throws Exception {
+		fetcher.filteredFetchURI(uri, new ResultCollector());
+		startedFetch(1).onSuccess(new FetchResult(new ClientMetadata("text/html"), new TrackedBucket(DATA)), null, null);
+		fetcher.filteredFetchURI(uri, new ResultCollector());
+		startedFetch(2);
+		assertThat(metrics.getOriginated(), is(2L));
+		assertThat(metrics.getCoalesced(), is(0L));
+	}
+
+	/**
+	 * @return callback of the last fetch started at the client, after
+	 *         checking the number of fetches started
+	 */
+	private ClientGetCallback startedFetch(int fetches) throws FetchException {
+		ArgumentCaptor<ClientGetCallback> callback = ArgumentCaptor.forClass(ClientGetCallback.class);
+		verify(client, times(fetches)).fetch(eq(uri), any(RequestClient.class), callback.capture(), any(FetchContext.class), anyShort());
+		return callback.getValue();
+	}
+
+	private static byte[] read(FetchResult result) throws IOException {
+		InputStream in = result.asBucket().getInputStream();
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class ResultCollector implements FetchCallback {
+		final List<FetchResult> results = new ArrayList<FetchResult>();
+		final List<FetchException> failures = new ArrayList<FetchException>();
+
+		@Override
+		public void onSuccess(FetchResult result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onFailure(FetchException e) {
+			failures.add(e);
+		}
+	}
+}
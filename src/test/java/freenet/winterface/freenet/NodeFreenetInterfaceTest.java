@@ -1,10 +1,19 @@
 package freenet.winterface.freenet;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
 import freenet.node.DarknetPeerNode;
 import freenet.node.Node;
 import freenet.node.OpennetManager;
@@ -22,7 +31,7 @@ public class NodeFreenetInterfaceTest {
 	private final Node node = mock(Node.class);
 	private final PeerManager peerManager = mock(PeerManager.class);
 	private final FreenetInterface freenetInterface = new NodeFreenetInterface(node, peerManager,
-        null, null, null, null, null);
+        null, null, null, null, null, null, new FetchMetrics());
 
 	@Test
 	public void canGetConnectionOverviewWithOpennetDisabled() {
@@ -34,6 +43,38 @@ public class NodeFreenetInterfaceTest {
 		assertThat(connectionOverview.getMaximum(), is(3));
 	}
 
+	@Test
+	public void warnsAboutUnreadableConfigOption() {
+		final List<LoggingEvent> warnings = new ArrayList<LoggingEvent>();
+		AppenderSkeleton appender = new AppenderSkeleton() {
+			@Override
+			protected void append(LoggingEvent event) {
+				if (event.getLevel() == Level.WARN) {
+					warnings.add(event);
+				}
+			}
+
+			@Override
+			public boolean requiresLayout() {
+				return false;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Logger logger = Logger.getLogger(NodeFreenetInterface.class);
+		logger.addAppender(appender);
+		try {
+			// The mocked node has no config
+			assertThat(freenetInterface.getFproxyPort(), is(8888));
+			assertThat(warnings.size(), is(1));
+			assertThat(warnings.get(0).getRenderedMessage(), containsString("option port of config fproxy"));
+		} finally {
+			logger.removeAppender(appender);
+		}
+	}
+
 	private DarknetPeerNode[] createDarknetNodes() {
 		return new DarknetPeerNode[] {
 				createEnabledDarknetPeerNode(),
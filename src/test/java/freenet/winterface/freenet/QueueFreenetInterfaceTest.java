@@ -0,0 +1,64 @@
+package freenet.winterface.freenet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import freenet.node.fcp.FCPServer;
+import freenet.node.fcp.RequestStatus;
+import freenet.winterface.core.QueueChanges;
+import freenet.winterface.core.QueueIndex;
+
+/**
+ * Unit test for {@link QueueFreenetInterface}.
+ */
+public class QueueFreenetInterfaceTest {
+
+	private final FCPServer fcp = mock(FCPServer.class);
+	private final CountDownLatch listed = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final QueueFreenetInterface queueInterface = new QueueFreenetInterface(fcp);
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		queueInterface.terminate();
+	}
+
+	@Test
+	public void returnsIndexWhileCatchingUp() throws Exception {
+		when(fcp.getGlobalRequests()).thenAnswer(new Answer<RequestStatus[]>() {
+			@Override
+			public RequestStatus[] answer(InvocationOnMock invocation) throws InterruptedException {
+				// A node slow to list its requests
+				listed.countDown();
+				release.await();
+				return new RequestStatus[0];
+			}
+		});
+		QueueIndex index = queueInterface.getIndex();
+		assertThat(listed.await(10, TimeUnit.SECONDS), is(true));
+		assertThat(index.isCatchingUp(), is(true));
+		QueueChanges changes = index.getChangesSince(null);
+		assertThat(changes.catchingUp, is(true));
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (index.isCatchingUp() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(index.isCatchingUp(), is(false));
+		// Clients polling for changes learn that it caught up
+		QueueChanges caughtUp = index.getChangesSince(changes.version);
+		assertThat(caughtUp.catchingUp, is(false));
+		assertThat(caughtUp.version.equals(changes.version), is(false));
+	}
+}
@@ -0,0 +1,84 @@
+package freenet.winterface.freenet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import freenet.support.api.Bucket;
+
+import com.db4o.ObjectContainer; // TODO remove after purge-db4o
+
+/**
+ * Read-only {@link Bucket} on a byte array for tests, which tells whether it
+ * was freed.
+ */
+class TrackedBucket implements Bucket {
+
+	private final byte[] data;
+	private volatile boolean freed;
+
+	TrackedBucket(byte[] data) {
+		this.data = data;
+	}
+
+	TrackedBucket(int size) {
+		this(new byte[size]);
+	}
+
+	boolean isFreed() {
+		return freed;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Read-only");
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (freed) {
+			throw new IOException("Already freed");
+		}
+		return new ByteArrayInputStream(data);
+	}
+
+	@Override
+	public String getName() {
+		return "TrackedBucket";
+	}
+
+	@Override
+	public long size() {
+		return data.length;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public void setReadOnly() {
+	}
+
+	@Override
+	public void storeTo(ObjectContainer container) { // TODO remove after purge-db4o
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void free() {
+		freed = true;
+	}
+
+	@Override
+	public void removeFrom(ObjectContainer container) { // TODO remove after purge-db4o
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Bucket createShadow() {
+		return null;
+	}
+}
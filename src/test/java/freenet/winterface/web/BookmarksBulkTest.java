@@ -0,0 +1,112 @@
+package freenet.winterface.web;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import freenet.winterface.core.JsonReader;
+import freenet.winterface.freenet.BookmarkOperation;
+
+/**
+ * Unit test for {@link BookmarksBulk}.
+ */
+public class BookmarksBulkTest {
+
+	@Test
+	public void readsMove() {
+		BookmarkOperation move = operation("{\"op\":\"move\",\"path\":\"/a/b\",\"category\":\"/c/\",\"position\":3}");
+		assertThat(move.getType(), is(BookmarkOperation.Type.MOVE));
+		assertThat(move.getPath(), is("/a/b"));
+		assertThat(move.getCategory(), is("/c/"));
+		assertThat(move.getPosition(), is(3));
+	}
+
+	@Test
+	public void readsMoveWithinCategoryAndClampsPosition() {
+		BookmarkOperation move = operation("{\"op\":\"move\",\"path\":\"/a/b\",\"position\":-2}");
+		assertThat(move.getCategory(), is(nullValue()));
+		assertThat(move.getPosition(), is(0));
+	}
+
+	@Test
+	public void readsEditWithoutKey() {
+		BookmarkOperation edit = operation("{\"op\":\"edit\",\"path\":\"/a/b\",\"name\":\"c\",\"description\":\"d\",\"activelink\":true}");
+		assertThat(edit.getType(), is(BookmarkOperation.Type.EDIT));
+		assertThat(edit.getName(), is("c"));
+		assertThat(edit.getKey(), is(nullValue()));
+		assertThat(edit.getDescription(), is("d"));
+		assertThat(edit.hasAnActivelink(), is(true));
+	}
+
+	@Test
+	public void reportsWhyOperationsCannotBeRead() {
+		assertThat(error("{\"path\":\"/a\"}"), is("Operation needs op and path"));
+		assertThat(error("{\"op\":\"delete\"}"), is("Operation needs op and path"));
+		assertThat(error("{\"op\":\"delete\",\"path\":5}"), is("Invalid path"));
+		assertThat(error("{\"op\":\"rename\",\"path\":\"/a\"}"), is("Unknown operation rename"));
+		assertThat(error("{\"op\":\"move\",\"path\":\"/a\"}"), is("Move needs a position"));
+		assertThat(error("{\"op\":\"move\",\"path\":\"/a\",\"position\":\"1\"}"), is("Move needs a position"));
+		assertThat(error("{\"op\":\"addItem\",\"path\":\"/\",\"name\":\"a\"}"), is("Item needs a key"));
+		assertThat(error("{\"op\":\"addCategory\",\"path\":\"/\",\"name\":[]}"), is("Invalid name"));
+	}
+
+	@Test
+	public void rejectsBodyNotSentAsJson() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getContentType()).thenReturn("application/x-www-form-urlencoded");
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+		new BookmarksBulk().doPost(request, response);
+
+		verify(response).setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+		verify(request, never()).getReader();
+		assertThat(body.toString(), is("{\"error\":\"Content type must be application/json\"}"));
+	}
+
+	@Test
+	public void acceptsJsonWithCharset() throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getContentType()).thenReturn("Application/JSON; charset=UTF-8");
+		when(request.getReader()).thenReturn(new BufferedReader(new StringReader("{\"operations\":[{\"op\":\"delete\"}]}")));
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		StringWriter body = new StringWriter();
+		when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+		new BookmarksBulk().doPost(request, response);
+
+		verify(response, never()).setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+		assertThat(body.toString(), is("{\"results\":[{\"ok\":false,\"error\":\"Operation needs op and path\"}]}"));
+	}
+
+	private static BookmarkOperation operation(String json) {
+		return BookmarksBulk.toOperation((Map<?, ?>) JsonReader.parse(json));
+	}
+
+	private static String error(String json) {
+		try {
+			operation(json);
+			fail("Operation read from " + json);
+			return null;
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+}